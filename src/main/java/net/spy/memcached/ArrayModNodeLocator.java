@@ -14,6 +14,7 @@ public final class ArrayModNodeLocator implements NodeLocator {
 	final MemcachedNode[] nodes;
 
 	private final HashAlgorithm hashAlg;
+	private final HashTag hashTag;
 
 	/**
 	 * Construct an ArraymodNodeLocator over the given array of nodes and
@@ -23,15 +24,28 @@ public final class ArrayModNodeLocator implements NodeLocator {
 	 * @param alg the hash algorithm
 	 */
 	public ArrayModNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
-		super();
-		nodes=n.toArray(new MemcachedNode[n.size()]);
-		hashAlg=alg;
+		this(n, alg, HashTag.NONE);
+	}
+
+	/**
+	 * Construct an ArrayModNodeLocator that hashes only the tag of tagged
+	 * keys.
+	 *
+	 * @param n the array of nodes
+	 * @param alg the hash algorithm
+	 * @param tag the hash tag convention
+	 */
+	public ArrayModNodeLocator(List<MemcachedNode> n, HashAlgorithm alg,
+			HashTag tag) {
+		this(n.toArray(new MemcachedNode[n.size()]), alg, tag);
 	}
 
-	private ArrayModNodeLocator(MemcachedNode[] n, HashAlgorithm alg) {
+	private ArrayModNodeLocator(MemcachedNode[] n, HashAlgorithm alg,
+			HashTag tag) {
 		super();
 		nodes=n;
 		hashAlg=alg;
+		hashTag=tag;
 	}
 
 	public Collection<MemcachedNode> getAll() {
@@ -51,11 +65,11 @@ public final class ArrayModNodeLocator implements NodeLocator {
 		for(int i=0; i<nodes.length; i++) {
 			n[i] = new MemcachedNodeROImpl(nodes[i]);
 		}
-		return new ArrayModNodeLocator(n, hashAlg);
+		return new ArrayModNodeLocator(n, hashAlg, hashTag);
 	}
 
 	private int getServerForKey(String key) {
-		int rv=(int)(hashAlg.hash(key) % nodes.length);
+		int rv=(int)(hashAlg.hash(hashTag.getHashKey(key)) % nodes.length);
 		assert rv >= 0 : "Returned negative key for key " + key;
 		assert rv < nodes.length
 			: "Invalid server number " + rv + " for key " + key;
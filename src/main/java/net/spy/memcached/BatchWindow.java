@@ -0,0 +1,118 @@
+package net.spy.memcached;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long operations wait in a node's input queue so more of them
+ * go out together.
+ *
+ * <p>
+ * Operations only get merged when they're queued for writing at the same
+ * time, which under light load they rarely are.  When operations arrive at
+ * a node with nothing to write, they're held back until the window closes
+ * or enough of them have gathered.  The window adapts: it widens while
+ * holding gathers batches, and narrows while it gathers single operations,
+ * so a lone operation waits only a little.  Nodes that are busy writing
+ * aren't held, since their operations gather while the writes go out.
+ * </p>
+ *
+ * <p>
+ * This is only to be used from the IO thread.
+ * </p>
+ */
+class BatchWindow {
+
+	private final long maxDelay;
+	private final long minDelay;
+	private final int maxOps;
+	private final long maxBytes;
+	private long delay;
+	// When each held node started being held
+	private final Map<MemcachedNode, Long> holding=
+		new IdentityHashMap<MemcachedNode, Long>();
+
+	/**
+	 * Construct a batch window.
+	 *
+	 * @param d the longest operations are held, in microseconds
+	 * @param o the number of operations that end a hold
+	 * @param b the bytes of operations that end a hold
+	 */
+	BatchWindow(long d, int o, long b) {
+		super();
+		assert d > 0 : "Batch window must be positive";
+		maxDelay=TimeUnit.MICROSECONDS.toNanos(d);
+		minDelay=Math.max(maxDelay / 16, 1);
+		maxOps=o;
+		maxBytes=b;
+		delay=maxDelay;
+	}
+
+	/**
+	 * Decide whether to keep holding back the queued operations of a node.
+	 *
+	 * @param node the node
+	 * @param now the current {@link System#nanoTime()}
+	 * @return true if the operations should stay queued for now
+	 */
+	boolean hold(MemcachedNode node, long now) {
+		Long since=holding.get(node);
+		int ops=node.getInputQueueSize();
+		if(ops == 0 || !node.isActive() || node.hasWriteOp()
+				|| node.getBytesRemainingToWrite() > 0) {
+			holding.remove(node);
+			return false;
+		}
+		boolean full=(maxOps > 0 && ops >= maxOps)
+			|| (maxBytes > 0 && node.getQueuedBytes() >= maxBytes);
+		if(since == null) {
+			if(full) {
+				return false;
+			}
+			holding.put(node, now);
+			return true;
+		}
+		if(!full && now - since < delay) {
+			return true;
+		}
+		holding.remove(node);
+		// Widen the window while it gathers batches, narrow it otherwise.
+		if(ops > 1) {
+			delay=Math.min(delay * 2, maxDelay);
+		} else {
+			delay=Math.max(delay / 2, minDelay);
+		}
+		return false;
+	}
+
+	/**
+	 * Get the {@link System#nanoTime()} the next held node is due to be
+	 * released, or Long.MAX_VALUE if none is held.
+	 */
+	long getNextRelease() {
+		long rv=Long.MAX_VALUE;
+		for(Long since : holding.values()) {
+			long release=since + delay;
+			if(rv == Long.MAX_VALUE || release - rv < 0) {
+				rv=release;
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Get the current length of the window in nanoseconds.
+	 */
+	long getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Forget about a node that's gone away.
+	 */
+	void forget(MemcachedNode node) {
+		holding.remove(node);
+	}
+}
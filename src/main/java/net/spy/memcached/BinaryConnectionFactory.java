@@ -43,10 +43,14 @@ public class BinaryConnectionFactory extends DefaultConnectionFactory {
 		boolean doAuth = false;
 		return new BinaryMemcachedNodeImpl(sa, c, bufSize,
 			createReadOperationQueue(),
-			createWriteOperationQueue(),
-			createOperationQueue(),
+			createWriteOperationLanes(),
+			createOperationLanes(),
 			getOpQueueMaxBlockTime(),
-			doAuth);
+			doAuth,
+			createConcurrencyLimit(),
+			createByteBudget(),
+			createReceiveBudget(),
+			createControlledDelay());
 	}
 
 	@Override
@@ -0,0 +1,206 @@
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
+import net.spy.memcached.util.KetamaNodeLocatorConfiguration;
+
+/**
+ * Ketama consistent hashing with bounded loads.
+ *
+ * <p>
+ * A plain ketama continuum can leave some nodes owning noticeably more of
+ * the hash space than others.  This locator builds the same continuum, then
+ * walks it once and hands each arc to the first node at or after the arc's
+ * point whose tracked share of the hash space is still below
+ * <code>c</code> times its fair share.  Arcs belonging to an overloaded node
+ * thereby spill onto the next point on the ring.  The result depends only
+ * on the membership, weights and <code>c</code>, so every client computes
+ * the same placement, and lookups cost the same as with
+ * {@link KetamaNodeLocator}.
+ * </p>
+ *
+ * <p>
+ * Nodes may be weighted, in which case a node both gets proportionally more
+ * points on the continuum and a proportionally larger bound.
+ * </p>
+ *
+ * @see <a href="http://arxiv.org/abs/1608.01350">Consistent Hashing with
+ *      Bounded Loads</a>
+ */
+public final class BoundedLoadKetamaNodeLocator extends SpyObject
+	implements NodeLocator {
+
+	/**
+	 * Default bound on a node's share, as a multiple of its fair share.
+	 */
+	public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+	// The hash space is 32-bits wide.
+	private static final double HASH_SPACE = 4294967296.0;
+
+	private final KetamaNodeLocator continuum;
+	private final Map<MemcachedNode, Double> shares;
+
+	public BoundedLoadKetamaNodeLocator(List<MemcachedNode> nodes,
+			HashAlgorithm alg) {
+		this(nodes, alg, DEFAULT_LOAD_FACTOR,
+			Collections.<SocketAddress, Integer>emptyMap());
+	}
+
+	public BoundedLoadKetamaNodeLocator(List<MemcachedNode> nodes,
+			HashAlgorithm alg, double loadFactor,
+			Map<? extends SocketAddress, Integer> weights) {
+		this(nodes, alg, loadFactor, weights,
+			new DefaultKetamaNodeLocatorConfiguration(), HashTag.NONE);
+	}
+
+	/**
+	 * Construct a bounded load locator.
+	 *
+	 * @param nodes the nodes
+	 * @param alg the hash algorithm
+	 * @param loadFactor the maximum share of the hash space a node may own,
+	 *        as a multiple of its fair share (must be at least 1)
+	 * @param weights the weight of each server by address; servers not
+	 *        present have a weight of 1
+	 * @param conf the continuum configuration
+	 * @param tag the hash tag convention
+	 */
+	public BoundedLoadKetamaNodeLocator(List<MemcachedNode> nodes,
+			HashAlgorithm alg, double loadFactor,
+			Map<? extends SocketAddress, Integer> weights,
+			KetamaNodeLocatorConfiguration conf, HashTag tag) {
+		super();
+		if(loadFactor < 1) {
+			throw new IllegalArgumentException(
+				"Load factor must be at least 1, was " + loadFactor);
+		}
+
+		double totalWeight=0;
+		double nodeWeights[]=new double[nodes.size()];
+		for(int i=0; i<nodeWeights.length; i++) {
+			Integer w=weights.get(nodes.get(i).getSocketAddress());
+			if(w != null && w <= 0) {
+				throw new IllegalArgumentException("Invalid weight " + w
+					+ " for " + nodes.get(i).getSocketAddress());
+			}
+			nodeWeights[i]=w == null ? 1 : w;
+			totalWeight += nodeWeights[i];
+		}
+
+		SortedMap<Long, MemcachedNode> points=
+			new TreeMap<Long, MemcachedNode>();
+		Map<MemcachedNode, Integer> index=
+			new IdentityHashMap<MemcachedNode, Integer>();
+		double capacity[]=new double[nodeWeights.length];
+		for(int i=0; i<nodeWeights.length; i++) {
+			MemcachedNode node=nodes.get(i);
+			int reps=(int)Math.round(conf.getNodeRepetitions()
+				* nodeWeights[i] * nodeWeights.length / totalWeight);
+			// Ketama hashing places points four at a time.
+			reps=Math.max(reps, alg == HashAlgorithm.KETAMA_HASH ? 4 : 1);
+			KetamaNodeLocator.addPoints(points, node, reps, alg, conf);
+			index.put(node, i);
+			capacity[i]=loadFactor * HASH_SPACE * nodeWeights[i] / totalWeight;
+		}
+
+		continuum=new KetamaNodeLocator(balance(points, index, capacity),
+			nodes, alg, conf, tag);
+		shares=new IdentityHashMap<MemcachedNode, Double>();
+		computeShares();
+	}
+
+	private BoundedLoadKetamaNodeLocator(KetamaNodeLocator c) {
+		super();
+		continuum=c;
+		shares=new IdentityHashMap<MemcachedNode, Double>();
+		computeShares();
+	}
+
+	// Reassign every arc of the continuum so that no node owns more than its
+	// capacity.  An arc ends at (and originally belongs to) a point and
+	// covers every hash after the previous point.
+	private SortedMap<Long, MemcachedNode> balance(
+			SortedMap<Long, MemcachedNode> points,
+			Map<MemcachedNode, Integer> index, double capacity[]) {
+		int numPoints=points.size();
+		long pos[]=new long[numPoints];
+		MemcachedNode owners[]=new MemcachedNode[numPoints];
+		int p=0;
+		for(Map.Entry<Long, MemcachedNode> me : points.entrySet()) {
+			pos[p]=me.getKey();
+			owners[p]=me.getValue();
+			p++;
+		}
+
+		double load[]=new double[capacity.length];
+		SortedMap<Long, MemcachedNode> rv=new TreeMap<Long, MemcachedNode>();
+		for(int i=0; i<numPoints; i++) {
+			double arc=i == 0 ? pos[0] + HASH_SPACE - pos[numPoints - 1]
+				: pos[i] - pos[i - 1];
+			// Total load is below the total capacity, so this always finds
+			// a node with room.
+			MemcachedNode chosen=null;
+			for(int j=0; chosen == null && j<numPoints; j++) {
+				MemcachedNode candidate=owners[(i + j) % numPoints];
+				int n=index.get(candidate);
+				if(load[n] < capacity[n]) {
+					chosen=candidate;
+					load[n] += arc;
+				}
+			}
+			assert chosen != null : "No node below capacity for " + pos[i];
+			rv.put(pos[i], chosen);
+		}
+		return rv;
+	}
+
+	private void computeShares() {
+		SortedMap<Long, MemcachedNode> ring=continuum.ketamaNodes;
+		if(ring.isEmpty()) {
+			return;
+		}
+		long prev=ring.lastKey() - (long)HASH_SPACE;
+		for(Map.Entry<Long, MemcachedNode> me : ring.entrySet()) {
+			Double s=shares.get(me.getValue());
+			double arc=(me.getKey() - prev) / HASH_SPACE;
+			shares.put(me.getValue(), s == null ? arc : s + arc);
+			prev=me.getKey();
+		}
+	}
+
+	/**
+	 * Get the fraction of the hash space owned by the given node.
+	 */
+	public double getShare(MemcachedNode node) {
+		Double rv=shares.get(node);
+		return rv == null ? 0 : rv;
+	}
+
+	public Collection<MemcachedNode> getAll() {
+		return continuum.getAll();
+	}
+
+	public MemcachedNode getPrimary(String k) {
+		return continuum.getPrimary(k);
+	}
+
+	public Iterator<MemcachedNode> getSequence(String k) {
+		return continuum.getSequence(k);
+	}
+
+	public NodeLocator getReadonlyCopy() {
+		return new BoundedLoadKetamaNodeLocator(
+			(KetamaNodeLocator)continuum.getReadonlyCopy());
+	}
+}
@@ -0,0 +1,193 @@
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ByteBudget;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * The values of a bulk get, handed over one at a time as they arrive.
+ *
+ * <p>
+ * Unlike a {@link net.spy.memcached.internal.BulkFuture}, nothing is
+ * gathered up for the caller.  The raw bytes of each value wait only until
+ * the caller takes it with {@link #next(long, TimeUnit)}, and they count
+ * against their server's receive budget until then.  Once the budget is
+ * exhausted the server isn't read from, so a caller that falls behind slows
+ * the servers down rather than filling the heap.
+ * </p>
+ *
+ * <p>
+ * A stream must be read to the end or cancelled.  The servers it holds
+ * values from won't be read from again until it is.
+ * </p>
+ *
+ * @param <T> the type of the values
+ */
+public class BulkGetStream<T> extends SpyObject {
+
+	// Marks the end of the stream in the queue.
+	private static final Value END=new Value(null, null, null);
+
+	private final MemcachedConnection conn;
+	private final Transcoder<T> tc;
+	private final BlockingQueue<Value> values=new LinkedBlockingQueue<Value>();
+	private final AtomicInteger pending;
+	private Collection<Operation> ops=new ArrayList<Operation>();
+	private volatile boolean finished=false;
+	// Guarded by values; set once the stream is cancelled
+	private boolean cancelled=false;
+
+	BulkGetStream(MemcachedConnection c, Transcoder<T> t, int nodes) {
+		super();
+		conn=c;
+		tc=t;
+		pending=new AtomicInteger(nodes);
+		if(nodes == 0) {
+			values.add(END);
+		}
+	}
+
+	/**
+	 * Get the callback for the operation getting values from the given node.
+	 */
+	GetOperation.Callback callback(MemcachedNode node) {
+		final ByteBudget budget=node.getReceiveBudget();
+		return new GetOperation.Callback() {
+			public void receivedStatus(OperationStatus status) {
+				if(!status.isSuccess()) {
+					getLogger().warn("Unsuccessful get:  %s", status);
+				}
+			}
+			public void gotData(String k, int flags, byte[] data) {
+				synchronized(values) {
+					if(cancelled) {
+						return;
+					}
+					if(budget != null) {
+						budget.force(data.length);
+					}
+					values.add(new Value(k,
+						new CachedData(flags, data, tc.getMaxSize()),
+						budget));
+				}
+			}
+			public void complete() {
+				if(pending.decrementAndGet() == 0) {
+					values.add(END);
+				}
+			}
+		};
+	}
+
+	void setOperations(Collection<Operation> o) {
+		ops=o;
+	}
+
+	/**
+	 * Get the next value, waiting up to the given time for it to arrive.
+	 *
+	 * @param timeout how long to wait
+	 * @param unit the unit of the timeout
+	 * @return the key and value, or null at the end of the stream
+	 * @throws TimeoutException if no value arrived in time
+	 */
+	public Map.Entry<String, T> next(long timeout, TimeUnit unit)
+		throws InterruptedException, TimeoutException {
+		if(finished) {
+			return null;
+		}
+		Value v=values.poll(timeout, unit);
+		if(v == null) {
+			throw new TimeoutException("Timed out waiting for a value");
+		}
+		if(v == END) {
+			finished=true;
+			return null;
+		}
+		release(v);
+		return new Entry<T>(v.key, tc.decode(v.data));
+	}
+
+	/**
+	 * Stop getting values, and drop those not taken yet.
+	 */
+	public void cancel() {
+		for(Operation op : ops) {
+			op.cancel();
+		}
+		finished=true;
+		Collection<Value> dropped=new ArrayList<Value>();
+		synchronized(values) {
+			cancelled=true;
+			values.drainTo(dropped);
+		}
+		for(Value v : dropped) {
+			if(v != END) {
+				release(v);
+			}
+		}
+	}
+
+	private void release(Value v) {
+		if(v.budget != null) {
+			boolean wasExhausted=v.budget.isExhausted();
+			v.budget.release(v.data.getData().length);
+			if(wasExhausted && !v.budget.isExhausted()) {
+				conn.resumeReads();
+			}
+		}
+	}
+
+	private static class Value {
+		final String key;
+		final CachedData data;
+		final ByteBudget budget;
+
+		Value(String k, CachedData d, ByteBudget b) {
+			super();
+			key=k;
+			data=d;
+			budget=b;
+		}
+	}
+
+	private static class Entry<T> implements Map.Entry<String, T> {
+		private final String key;
+		private final T value;
+
+		Entry(String k, T v) {
+			super();
+			key=k;
+			value=v;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public T setValue(T v) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationSelector;
 import net.spy.memcached.transcoders.Transcoder;
 
 /**
@@ -111,6 +112,12 @@ public interface ConnectionFactory {
 	 */
 	boolean shouldOptimize();
 
+	/**
+	 * If true, an operation for a node with nothing else to write is written
+	 * by the thread submitting it, rather than handed to the IO thread.
+	 */
+	boolean shouldWriteDirectly();
+
 	/*
 	 * Get the read buffer size set at construct time.
 	 */
@@ -137,4 +144,128 @@ public interface ConnectionFactory {
 	 * Maximum number of timeout exception for shutdown connection
 	 */
 	int getTimeoutExceptionThreshold();
+
+	/**
+	 * Maximum number of times an operation is retried after being sent to a
+	 * server that doesn't own its vbucket.
+	 */
+	int getVBucketRetryLimit();
+
+	/**
+	 * Milliseconds to wait before retrying an operation sent to a server
+	 * that doesn't own its vbucket, unless a new configuration arrives
+	 * first.  The delay doubles with each retry.
+	 */
+	long getVBucketRetryDelay();
+
+	/**
+	 * Percentile of recent get latencies after which a hedged get also asks
+	 * a replica, between 0 and 1.
+	 */
+	double getHedgedReadPercentile();
+
+	/**
+	 * The event loop to handle IO with, or null to have each client handle
+	 * its own IO.
+	 */
+	MemcachedEventLoop getEventLoop();
+
+	/**
+	 * Select the operations that may be sent again when their connection
+	 * is lost before they are answered.
+	 */
+	OperationSelector getReplayableOperations();
+
+	/**
+	 * Maximum number of times an operation is sent again after losing its
+	 * connection before it is cancelled.
+	 */
+	int getMaxReplays();
+
+	/**
+	 * Milliseconds a connection may be idle before the server is probed to
+	 * check that it's still alive, or 0 to never probe.  A server that
+	 * doesn't answer within another interval is reconnected.
+	 */
+	long getHealthCheckInterval();
+
+	/**
+	 * Number of operations a new connection may have in flight, or 0 for no
+	 * limit.  The limit grows as the server answers and shrinks when
+	 * operations the server was sent time out, and starts over on every
+	 * reconnect.
+	 */
+	int getInitialConcurrency();
+
+	/**
+	 * Most bytes of operations that may be queued for one node, or 0 for no
+	 * limit beyond the queue length.  An operation counts until it's fully
+	 * written.  Adding an operation over the limit blocks for up to the op
+	 * queue max block time.
+	 */
+	long getOpQueueMaxBytes();
+
+	/**
+	 * Most bytes of operations that may be queued for all the nodes
+	 * together, or 0 for no limit.
+	 */
+	long getClientOpQueueMaxBytes();
+
+	/**
+	 * Most bytes of streamed responses from one node that may wait to be
+	 * consumed, or 0 for no limit.  The node isn't read from while it's
+	 * over the limit.
+	 */
+	long getReceiveMaxBytes();
+
+	/**
+	 * Most bytes of streamed responses from all the nodes together that may
+	 * wait to be consumed, or 0 for no limit.
+	 */
+	long getClientReceiveMaxBytes();
+
+	/**
+	 * Milliseconds operations may wait to be sent before some are shed, or
+	 * 0 to send them all.  Operations are shed only once the wait stays
+	 * above this target for the queue delay interval.  A shed operation is
+	 * cancelled.
+	 */
+	long getQueueDelayTarget();
+
+	/**
+	 * Milliseconds the wait to send operations must stay above its target
+	 * before operations are shed.
+	 */
+	long getQueueDelayInterval();
+
+	/**
+	 * Selects the operations queued in each node's bulk lane, besides those
+	 * with bulk priority.  May be null.
+	 */
+	OperationSelector getBulkOperations();
+
+	/**
+	 * Interactive operations sent for each bulk operation while both are
+	 * waiting, or 0 to queue all operations together in order.
+	 */
+	int getInteractiveWeight();
+
+	/**
+	 * Microseconds operations for a node with nothing to write may be held
+	 * back so more of them are sent together, or 0 to send them at once.
+	 * The window shrinks while operations arrive one at a time.
+	 */
+	long getBatchWindow();
+
+	/**
+	 * Number of held back operations for a node that are sent without
+	 * waiting for the batch window to close, or 0 for no limit.
+	 */
+	int getBatchWindowOps();
+
+	/**
+	 * Bytes of held back operations for a node that are sent without
+	 * waiting for the batch window to close, or 0 for no limit.
+	 */
+	long getBatchWindowBytes();
 }
@@ -1,16 +1,20 @@
 package net.spy.memcached;
 
+import java.net.SocketAddress;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.ops.OperationSelector;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
 import net.spy.memcached.vbucket.VBucketNodeLocator;
 import com.northscale.jvbucket.Config;
 
@@ -36,16 +40,58 @@ public class ConnectionFactoryBuilder {
 	private long opTimeout = -1;
 	private boolean isDaemon = false;
 	private boolean shouldOptimize = true;
+	private boolean writeDirectly = false;
 	private boolean useNagle = false;
 	private long maxReconnectDelay =
 		DefaultConnectionFactory.DEFAULT_MAX_RECONNECT_DELAY;
 
 	private int readBufSize = -1;
 	private HashAlgorithm hashAlg;
+	private Map<? extends SocketAddress, Integer> nodeWeights =
+		Collections.<SocketAddress, Integer>emptyMap();
+	private double loadBoundFactor =
+		BoundedLoadKetamaNodeLocator.DEFAULT_LOAD_FACTOR;
+	private HashTag hashTag = HashTag.NONE;
 	private AuthDescriptor authDescriptor = null;
 	private long opQueueMaxBlockTime = -1;
 
 	private int timeoutExceptionThreshold = DefaultConnectionFactory.DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
+	private int vbucketRetryLimit =
+		DefaultConnectionFactory.DEFAULT_VBUCKET_RETRY_LIMIT;
+	private long vbucketRetryDelay =
+		DefaultConnectionFactory.DEFAULT_VBUCKET_RETRY_DELAY;
+	private double hedgedReadPercentile =
+		DefaultConnectionFactory.DEFAULT_HEDGED_READ_PERCENTILE;
+	private MemcachedEventLoop eventLoop = null;
+	private OperationSelector replayableOperations =
+		DefaultConnectionFactory.IDEMPOTENT_OPERATIONS;
+	private int maxReplays = DefaultConnectionFactory.DEFAULT_MAX_REPLAYS;
+	private long healthCheckInterval =
+		DefaultConnectionFactory.DEFAULT_HEALTH_CHECK_INTERVAL;
+	private int initialConcurrency =
+		DefaultConnectionFactory.DEFAULT_INITIAL_CONCURRENCY;
+	private long opQueueMaxBytes =
+		DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BYTES;
+	private long clientOpQueueMaxBytes =
+		DefaultConnectionFactory.DEFAULT_CLIENT_OP_QUEUE_MAX_BYTES;
+	private long receiveMaxBytes =
+		DefaultConnectionFactory.DEFAULT_RECEIVE_MAX_BYTES;
+	private long clientReceiveMaxBytes =
+		DefaultConnectionFactory.DEFAULT_CLIENT_RECEIVE_MAX_BYTES;
+	private long queueDelayTarget =
+		DefaultConnectionFactory.DEFAULT_QUEUE_DELAY_TARGET;
+	private long queueDelayInterval =
+		DefaultConnectionFactory.DEFAULT_QUEUE_DELAY_INTERVAL;
+	private OperationSelector bulkOperations =
+		DefaultConnectionFactory.BULK_OPERATIONS;
+	private int interactiveWeight =
+		DefaultConnectionFactory.DEFAULT_INTERACTIVE_WEIGHT;
+	private long batchWindow =
+		DefaultConnectionFactory.DEFAULT_BATCH_WINDOW;
+	private int batchWindowOps =
+		DefaultConnectionFactory.DEFAULT_BATCH_WINDOW_OPS;
+	private long batchWindowBytes =
+		DefaultConnectionFactory.DEFAULT_BATCH_WINDOW_BYTES;
     private Config vBucketConfig;
 
 	/**
@@ -143,6 +189,16 @@ public class ConnectionFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * Set to true to have the thread submitting an operation write it to
+	 * an idle node itself, saving the hand off to the IO thread.  Direct
+	 * writes skip the batch window.
+	 */
+	public ConnectionFactoryBuilder setWriteDirectly(boolean d) {
+		writeDirectly = d;
+		return this;
+	}
+
 	/**
 	 * Set the read buffer size.
 	 */
@@ -159,6 +215,37 @@ public class ConnectionFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the relative weights of servers for locators that support
+	 * weighting.  Servers not present in the map have a weight of 1.
+	 */
+	public ConnectionFactoryBuilder setNodeWeights(
+			Map<? extends SocketAddress, Integer> to) {
+		nodeWeights = to;
+		return this;
+	}
+
+	/**
+	 * Set the maximum share of the hash space a node may own with the
+	 * bounded load consistent locator, as a multiple of its fair share.
+	 */
+	public ConnectionFactoryBuilder setLoadBoundFactor(double to) {
+		assert to >= 1 : "Load bound factor must be at least 1";
+		loadBoundFactor = to;
+		return this;
+	}
+
+	/**
+	 * Set the hash tag convention, under which locators hash only the tag
+	 * of keys such as <code>{user123}:profile</code> so related keys share a
+	 * server.  Keys are hashed whole by default.
+	 */
+	public ConnectionFactoryBuilder setHashTag(HashTag to) {
+		assert to != null : "Hash tag convention must not be null";
+		hashTag = to;
+		return this;
+	}
+
 	/**
 	 * Set to true if you'd like to enable the Nagle algorithm.
 	 */
@@ -219,6 +306,203 @@ public class ConnectionFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the maximum number of times an operation is retried after being
+	 * sent to a server that doesn't own its vbucket.
+	 */
+	public ConnectionFactoryBuilder setVBucketRetryLimit(int to) {
+		assert to >= 0 : "VBucket retry limit must not be negative";
+		vbucketRetryLimit = to;
+		return this;
+	}
+
+	/**
+	 * Set the delay (in milliseconds) before the first retry of an operation
+	 * sent to a server that doesn't own its vbucket.
+	 */
+	public ConnectionFactoryBuilder setVBucketRetryDelay(long to) {
+		assert to > 0 : "VBucket retry delay must be positive";
+		vbucketRetryDelay = to;
+		return this;
+	}
+
+	/**
+	 * Set the percentile (between 0 and 1) of recent get latencies after
+	 * which a hedged get also asks a replica.
+	 */
+	public ConnectionFactoryBuilder setHedgedReadPercentile(double to) {
+		assert to > 0 && to <= 1 : "Hedged read percentile must be in (0, 1]";
+		hedgedReadPercentile = to;
+		return this;
+	}
+
+	/**
+	 * Set an event loop to share with other clients instead of giving each
+	 * client its own IO thread.
+	 */
+	public ConnectionFactoryBuilder setEventLoop(MemcachedEventLoop to) {
+		eventLoop = to;
+		return this;
+	}
+
+	/**
+	 * Set which operations may be sent again when their connection is lost
+	 * before they are answered.  By default only reads are; selecting
+	 * others may apply them twice.
+	 */
+	public ConnectionFactoryBuilder setReplayableOperations(
+			OperationSelector to) {
+		replayableOperations = to;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of times an operation is sent again after
+	 * losing its connection.  Zero cancels operations in flight on a lost
+	 * connection.
+	 */
+	public ConnectionFactoryBuilder setMaxReplays(int to) {
+		assert to >= 0 : "Max replays must not be negative";
+		maxReplays = to;
+		return this;
+	}
+
+	/**
+	 * Set how long (in milliseconds) a connection may be idle before the
+	 * server is probed with a noop to check it's alive.  The probes also
+	 * measure each server's latency.  Zero disables probing.
+	 */
+	public ConnectionFactoryBuilder setHealthCheckInterval(long to) {
+		assert to >= 0 : "Health check interval must not be negative";
+		healthCheckInterval = to;
+		return this;
+	}
+
+	/**
+	 * Set how many operations a new connection may have in flight.  The
+	 * limit grows as the server answers, so a server coming back isn't sent
+	 * everything queued for it at once.  Zero disables the limit.
+	 */
+	public ConnectionFactoryBuilder setInitialConcurrency(int to) {
+		assert to >= 0 : "Initial concurrency must not be negative";
+		initialConcurrency = to;
+		return this;
+	}
+
+	/**
+	 * Set the most bytes of operations that may be queued for one server.
+	 * Adding an operation beyond it blocks like adding one to a full
+	 * queue.  Zero limits only the number of operations.
+	 */
+	public ConnectionFactoryBuilder setOpQueueMaxBytes(long to) {
+		assert to >= 0 : "Op queue max bytes must not be negative";
+		opQueueMaxBytes = to;
+		return this;
+	}
+
+	/**
+	 * Set the most bytes of operations that may be queued for all the
+	 * servers together.  Zero limits only each server's queue.
+	 */
+	public ConnectionFactoryBuilder setClientOpQueueMaxBytes(long to) {
+		assert to >= 0 : "Client op queue max bytes must not be negative";
+		clientOpQueueMaxBytes = to;
+		return this;
+	}
+
+	/**
+	 * Set the most bytes of streamed responses from one server that may
+	 * wait to be consumed.  The server isn't read from while it's over the
+	 * limit.  Zero disables the limit.
+	 */
+	public ConnectionFactoryBuilder setReceiveMaxBytes(long to) {
+		assert to >= 0 : "Receive max bytes must not be negative";
+		receiveMaxBytes = to;
+		return this;
+	}
+
+	/**
+	 * Set the most bytes of streamed responses from all the servers
+	 * together that may wait to be consumed.  Zero disables the limit.
+	 */
+	public ConnectionFactoryBuilder setClientReceiveMaxBytes(long to) {
+		assert to >= 0 : "Client receive max bytes must not be negative";
+		clientReceiveMaxBytes = to;
+		return this;
+	}
+
+	/**
+	 * Set how long (in milliseconds) operations may wait to be sent.  Once
+	 * the wait stays above this target for the queue delay interval,
+	 * operations are cancelled instead of sent until the wait is short
+	 * again.  Zero sends every operation however long it waited.
+	 */
+	public ConnectionFactoryBuilder setQueueDelayTarget(long to) {
+		assert to >= 0 : "Queue delay target must not be negative";
+		queueDelayTarget = to;
+		return this;
+	}
+
+	/**
+	 * Set how long (in milliseconds) the wait to send operations must stay
+	 * above its target before operations are shed.
+	 */
+	public ConnectionFactoryBuilder setQueueDelayInterval(long to) {
+		assert to > 0 : "Queue delay interval must be positive";
+		queueDelayInterval = to;
+		return this;
+	}
+
+	/**
+	 * Set the operations queued in the bulk lane besides those with bulk
+	 * priority.
+	 */
+	public ConnectionFactoryBuilder setBulkOperations(OperationSelector to) {
+		bulkOperations = to;
+		return this;
+	}
+
+	/**
+	 * Set how many interactive operations are sent for each bulk one while
+	 * both are waiting.  Zero queues all operations together in order.
+	 */
+	public ConnectionFactoryBuilder setInteractiveWeight(int to) {
+		assert to >= 0 : "Interactive weight must not be negative";
+		interactiveWeight = to;
+		return this;
+	}
+
+	/**
+	 * Set how long (in microseconds) operations for a node with nothing to
+	 * write may be held back so more of them are sent together.  Zero sends
+	 * them at once.
+	 */
+	public ConnectionFactoryBuilder setBatchWindow(long to) {
+		assert to >= 0 : "Batch window must not be negative";
+		batchWindow = to;
+		return this;
+	}
+
+	/**
+	 * Set how many held back operations for a node are sent without waiting
+	 * for the batch window to close.  Zero is no limit.
+	 */
+	public ConnectionFactoryBuilder setBatchWindowOps(int to) {
+		assert to >= 0 : "Batch window ops must not be negative";
+		batchWindowOps = to;
+		return this;
+	}
+
+	/**
+	 * Set how many bytes of held back operations for a node are sent without
+	 * waiting for the batch window to close.  Zero is no limit.
+	 */
+	public ConnectionFactoryBuilder setBatchWindowBytes(long to) {
+		assert to >= 0 : "Batch window bytes must not be negative";
+		batchWindowBytes = to;
+		return this;
+	}
+
     public Config getVBucketConfig() {
         return vBucketConfig;
     }
@@ -257,11 +541,23 @@ public class ConnectionFactoryBuilder {
 			public NodeLocator createLocator(List<MemcachedNode> nodes) {
 				switch(locator) {
 					case ARRAY_MOD:
-						return new ArrayModNodeLocator(nodes, getHashAlg());
+						return new ArrayModNodeLocator(nodes, getHashAlg(),
+							hashTag);
 					case CONSISTENT:
-						return new KetamaNodeLocator(nodes, getHashAlg());
+						return new KetamaNodeLocator(nodes, getHashAlg(),
+							new DefaultKetamaNodeLocatorConfiguration(), hashTag);
+					case CONSISTENT_BOUNDED_LOAD:
+						return new BoundedLoadKetamaNodeLocator(nodes,
+							getHashAlg(), loadBoundFactor, nodeWeights,
+							new DefaultKetamaNodeLocatorConfiguration(), hashTag);
+					case JUMP:
+						return new JumpNodeLocator(nodes, getHashAlg(), hashTag);
+					case RENDEZVOUS:
+						return new RendezvousNodeLocator(nodes, getHashAlg(),
+							nodeWeights, hashTag);
                     case VBUCKET:
-                        return new VBucketNodeLocator(nodes, getVBucketConfig());
+                        return new VBucketNodeLocator(nodes, getVBucketConfig(),
+                            hashTag);
 					default: throw new IllegalStateException(
 							"Unhandled locator type: " + locator);
 				}
@@ -316,6 +612,11 @@ public class ConnectionFactoryBuilder {
 				return shouldOptimize;
 			}
 
+			@Override
+			public boolean shouldWriteDirectly() {
+				return writeDirectly;
+			}
+
 			@Override
 			public boolean useNagleAlgorithm() {
 				return useNagle;
@@ -342,6 +643,101 @@ public class ConnectionFactoryBuilder {
 				return timeoutExceptionThreshold;
 			}
 
+			@Override
+			public int getVBucketRetryLimit() {
+				return vbucketRetryLimit;
+			}
+
+			@Override
+			public long getVBucketRetryDelay() {
+				return vbucketRetryDelay;
+			}
+
+			@Override
+			public double getHedgedReadPercentile() {
+				return hedgedReadPercentile;
+			}
+
+			@Override
+			public MemcachedEventLoop getEventLoop() {
+				return eventLoop;
+			}
+
+			@Override
+			public OperationSelector getReplayableOperations() {
+				return replayableOperations;
+			}
+
+			@Override
+			public int getMaxReplays() {
+				return maxReplays;
+			}
+
+			@Override
+			public long getHealthCheckInterval() {
+				return healthCheckInterval;
+			}
+
+			@Override
+			public int getInitialConcurrency() {
+				return initialConcurrency;
+			}
+
+			@Override
+			public long getOpQueueMaxBytes() {
+				return opQueueMaxBytes;
+			}
+
+			@Override
+			public long getClientOpQueueMaxBytes() {
+				return clientOpQueueMaxBytes;
+			}
+
+			@Override
+			public long getReceiveMaxBytes() {
+				return receiveMaxBytes;
+			}
+
+			@Override
+			public long getClientReceiveMaxBytes() {
+				return clientReceiveMaxBytes;
+			}
+
+			@Override
+			public long getQueueDelayTarget() {
+				return queueDelayTarget;
+			}
+
+			@Override
+			public long getQueueDelayInterval() {
+				return queueDelayInterval;
+			}
+
+			@Override
+			public OperationSelector getBulkOperations() {
+				return bulkOperations;
+			}
+
+			@Override
+			public int getInteractiveWeight() {
+				return interactiveWeight;
+			}
+
+			@Override
+			public long getBatchWindow() {
+				return batchWindow;
+			}
+
+			@Override
+			public int getBatchWindowOps() {
+				return batchWindowOps;
+			}
+
+			@Override
+			public long getBatchWindowBytes() {
+				return batchWindowBytes;
+			}
+
 		};
 
 	}
@@ -375,6 +771,27 @@ public class ConnectionFactoryBuilder {
 		 * hash algorithm.
 		 */
 		CONSISTENT,
+		/**
+		 * Consistent hash algorithm with bounded loads.
+		 *
+		 * Like CONSISTENT, but no node owns more than the load bound
+		 * factor times its fair share of keys.  Honors the weights given to
+		 * setNodeWeights.
+		 */
+		CONSISTENT_BOUNDED_LOAD,
+		/**
+		 * Jump consistent hash.
+		 *
+		 * Needs no ring and balances keys almost perfectly, but nodes
+		 * should only be added to or removed from the end of the list.
+		 */
+		JUMP,
+		/**
+		 * Weighted rendezvous (highest random weight) hashing.
+		 *
+		 * Honors the weights given to setNodeWeights.
+		 */
+		RENDEZVOUS,
         /**
          * VBucket support
          */
@@ -14,7 +14,15 @@ import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationLanes;
+import net.spy.memcached.ops.OperationSelector;
+import net.spy.memcached.ops.StatsOperation;
+import net.spy.memcached.protocol.ByteBudget;
+import net.spy.memcached.protocol.ConcurrencyLimit;
+import net.spy.memcached.protocol.ControlledDelay;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
@@ -78,6 +86,138 @@ public class DefaultConnectionFactory extends SpyObject
      */
     public static final long DEFAULT_MAX_RECONNECT_DELAY = 30;
 
+	/**
+	 * Default number of retries of an operation bounced for a vbucket its
+	 * server doesn't own.
+	 */
+	public static final int DEFAULT_VBUCKET_RETRY_LIMIT = 5;
+
+	/**
+	 * Default delay (in milliseconds) before the first retry of an operation
+	 * bounced for a vbucket its server doesn't own.
+	 */
+	public static final long DEFAULT_VBUCKET_RETRY_DELAY = 10;
+
+	/**
+	 * Default percentile of recent get latencies after which a hedged get
+	 * also asks a replica.
+	 */
+	public static final double DEFAULT_HEDGED_READ_PERCENTILE = 0.95;
+
+	/**
+	 * Operations that are safe to send again when their connection is lost
+	 * before they are answered, since reading twice has the same effect as
+	 * reading once.
+	 */
+	public static final OperationSelector IDEMPOTENT_OPERATIONS =
+		new OperationSelector() {
+			public boolean select(Operation op) {
+				return op instanceof GetOperation
+					|| op instanceof GetsOperation;
+			}
+		};
+
+	/**
+	 * Default maximum number of times an operation is sent again after
+	 * losing its connection.
+	 */
+	public static final int DEFAULT_MAX_REPLAYS = 2;
+
+	/**
+	 * Default idle time (in milliseconds) before a server is probed.  Idle
+	 * servers aren't probed by default.
+	 */
+	public static final long DEFAULT_HEALTH_CHECK_INTERVAL = 0;
+
+	/**
+	 * Default number of operations a new connection may have in flight
+	 * before the window grows with the server's answers.  Connections
+	 * aren't limited by default.
+	 */
+	public static final int DEFAULT_INITIAL_CONCURRENCY = 0;
+
+	/**
+	 * Default limit on the bytes of operations queued for one node.  Only
+	 * the operation queue length limits them by default.
+	 */
+	public static final long DEFAULT_OP_QUEUE_MAX_BYTES = 0;
+
+	/**
+	 * Default limit on the bytes of operations queued for all the nodes.
+	 * Only the operation queue length limits them by default.
+	 */
+	public static final long DEFAULT_CLIENT_OP_QUEUE_MAX_BYTES = 0;
+
+	/**
+	 * Default limit on the bytes of streamed responses from one node that
+	 * may wait to be consumed before the node isn't read from (16MB).
+	 */
+	public static final long DEFAULT_RECEIVE_MAX_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Default limit on the bytes of streamed responses from all the nodes
+	 * that may wait to be consumed (64MB).
+	 */
+	public static final long DEFAULT_CLIENT_RECEIVE_MAX_BYTES =
+		64 * 1024 * 1024;
+
+	/**
+	 * Default time (in milliseconds) operations may wait to be sent before
+	 * they're shed.  Operations aren't shed by default.
+	 */
+	public static final long DEFAULT_QUEUE_DELAY_TARGET = 0;
+
+	/**
+	 * Default time (in milliseconds) the wait must stay above its target
+	 * before operations are shed.
+	 */
+	public static final long DEFAULT_QUEUE_DELAY_INTERVAL = 100;
+
+	/**
+	 * Multi-gets of more keys than this go in the bulk lane by default.
+	 */
+	public static final int BULK_GET_MIN_KEYS = 100;
+
+	/**
+	 * Operations that go in the bulk lane besides those with bulk priority:
+	 * stats and multi-gets of more than {@link #BULK_GET_MIN_KEYS} keys.
+	 * Flushes stay in order with the operations around them.
+	 */
+	public static final OperationSelector BULK_OPERATIONS =
+		new OperationSelector() {
+			public boolean select(Operation op) {
+				return op instanceof StatsOperation
+					|| (op instanceof GetOperation
+						&& ((GetOperation)op).getKeys().size()
+							> BULK_GET_MIN_KEYS);
+			}
+		};
+
+	/**
+	 * Default number of interactive operations sent for each bulk one while
+	 * both are waiting.  All operations are queued together in order by
+	 * default.
+	 */
+	public static final int DEFAULT_INTERACTIVE_WEIGHT = 0;
+
+	/**
+	 * Default time (in microseconds) operations may be held back to be sent
+	 * together.  Operations aren't held back by default.
+	 */
+	public static final long DEFAULT_BATCH_WINDOW = 0;
+
+	/**
+	 * Default number of held back operations that are sent without waiting
+	 * for the batch window to close.
+	 */
+	public static final int DEFAULT_BATCH_WINDOW_OPS = 64;
+
+	/**
+	 * Default bytes of held back operations that are sent without waiting
+	 * for the batch window to close.
+	 */
+	public static final long DEFAULT_BATCH_WINDOW_BYTES = 16 * 1024;
+
     /**
      * Maximum number + 2 of timeout exception for shutdown connection
      */
@@ -86,6 +226,9 @@ public class DefaultConnectionFactory extends SpyObject
 	private final int opQueueLen;
 	private final int readBufSize;
 	private final HashAlgorithm hashAlg;
+	// Shared by the nodes of a client when limited, created on first use
+	private ByteBudget clientBudget=null;
+	private ByteBudget clientReceiveBudget=null;
 
 	/**
 	 * Construct a DefaultConnectionFactory with the given parameters.
@@ -123,9 +266,13 @@ public class DefaultConnectionFactory extends SpyObject
 		if(of instanceof AsciiOperationFactory) {
 			return new AsciiMemcachedNodeImpl(sa, c, bufSize,
 				createReadOperationQueue(),
-				createWriteOperationQueue(),
-				createOperationQueue(),
-				getOpQueueMaxBlockTime());
+				createWriteOperationLanes(),
+				createOperationLanes(),
+				getOpQueueMaxBlockTime(),
+				createConcurrencyLimit(),
+				createByteBudget(),
+				createReceiveBudget(),
+				createControlledDelay());
 		} else if(of instanceof BinaryOperationFactory) {
 			boolean doAuth = false;
 			if (getAuthDescriptor() != null) {
@@ -133,10 +280,14 @@ public class DefaultConnectionFactory extends SpyObject
 			}
 			return new BinaryMemcachedNodeImpl(sa, c, bufSize,
 					createReadOperationQueue(),
-					createWriteOperationQueue(),
-					createOperationQueue(),
+					createWriteOperationLanes(),
+					createOperationLanes(),
 					getOpQueueMaxBlockTime(),
-					doAuth);
+					doAuth,
+					createConcurrencyLimit(),
+					createByteBudget(),
+					createReceiveBudget(),
+					createControlledDelay());
 		} else {
 			throw new IllegalStateException(
 				"Unhandled operation factory type " + of);
@@ -159,6 +310,78 @@ public class DefaultConnectionFactory extends SpyObject
 		return DEFAULT_FAILURE_MODE;
 	}
 
+	/**
+	 * Create the limit on a new node's operations in flight, or null if
+	 * there's no limit.
+	 */
+	protected ConcurrencyLimit createConcurrencyLimit() {
+		int initial=getInitialConcurrency();
+		return initial > 0 ? new ConcurrencyLimit(initial) : null;
+	}
+
+	/**
+	 * Create the budget for the bytes of a new node's queued operations.
+	 * All the nodes this factory creates share the client limit.
+	 */
+	protected synchronized ByteBudget createByteBudget() {
+		long clientMax=getClientOpQueueMaxBytes();
+		if(clientMax > 0 && clientBudget == null) {
+			clientBudget=new ByteBudget(clientMax, null);
+		}
+		long max=getOpQueueMaxBytes();
+		return new ByteBudget(max > 0 ? max : Long.MAX_VALUE, clientBudget);
+	}
+
+	/**
+	 * Create the policy shedding a new node's operations that waited too
+	 * long to be sent, or null if they're all sent.
+	 */
+	protected ControlledDelay createControlledDelay() {
+		long target=getQueueDelayTarget();
+		return target > 0
+			? new ControlledDelay(target, getQueueDelayInterval()) : null;
+	}
+
+	/**
+	 * Create the budget for the bytes of a new node's responses waiting to
+	 * be consumed.  All the nodes this factory creates share the client
+	 * limit.
+	 */
+	protected synchronized ByteBudget createReceiveBudget() {
+		long clientMax=getClientReceiveMaxBytes();
+		if(clientMax > 0 && clientReceiveBudget == null) {
+			clientReceiveBudget=new ByteBudget(clientMax, null);
+		}
+		long max=getReceiveMaxBytes();
+		return new ByteBudget(max > 0 ? max : Long.MAX_VALUE,
+			clientReceiveBudget);
+	}
+
+	/**
+	 * Create the input queue for a new node: lanes for interactive and bulk
+	 * operations made of two operation queues, or a single operation queue
+	 * if operations aren't prioritized.
+	 */
+	protected BlockingQueue<Operation> createOperationLanes() {
+		int weight=getInteractiveWeight();
+		return weight > 0
+			? new OperationLanes(createOperationQueue(), createOperationQueue(),
+				getBulkOperations(), weight)
+			: createOperationQueue();
+	}
+
+	/**
+	 * Create the write queue for a new node: lanes for interactive and bulk
+	 * operations, or a single write queue if operations aren't prioritized.
+	 */
+	protected BlockingQueue<Operation> createWriteOperationLanes() {
+		int weight=getInteractiveWeight();
+		return weight > 0
+			? new OperationLanes(createWriteOperationQueue(),
+				createWriteOperationQueue(), getBulkOperations(), weight)
+			: createWriteOperationQueue();
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.ConnectionFactory#createOperationQueue()
 	 */
@@ -265,6 +488,13 @@ public class DefaultConnectionFactory extends SpyObject
 		return true;
 	}
 
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#shouldWriteDirectly()
+	 */
+	public boolean shouldWriteDirectly() {
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.ConnectionFactory#getMaxReconnectDelay()
 	 */
@@ -286,4 +516,137 @@ public class DefaultConnectionFactory extends SpyObject
 		return DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
 	}
 
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getVBucketRetryLimit()
+	 */
+	public int getVBucketRetryLimit() {
+		return DEFAULT_VBUCKET_RETRY_LIMIT;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getVBucketRetryDelay()
+	 */
+	public long getVBucketRetryDelay() {
+		return DEFAULT_VBUCKET_RETRY_DELAY;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getHedgedReadPercentile()
+	 */
+	public double getHedgedReadPercentile() {
+		return DEFAULT_HEDGED_READ_PERCENTILE;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getEventLoop()
+	 */
+	public MemcachedEventLoop getEventLoop() {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getReplayableOperations()
+	 */
+	public OperationSelector getReplayableOperations() {
+		return IDEMPOTENT_OPERATIONS;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getMaxReplays()
+	 */
+	public int getMaxReplays() {
+		return DEFAULT_MAX_REPLAYS;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getHealthCheckInterval()
+	 */
+	public long getHealthCheckInterval() {
+		return DEFAULT_HEALTH_CHECK_INTERVAL;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getInitialConcurrency()
+	 */
+	public int getInitialConcurrency() {
+		return DEFAULT_INITIAL_CONCURRENCY;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getOpQueueMaxBytes()
+	 */
+	public long getOpQueueMaxBytes() {
+		return DEFAULT_OP_QUEUE_MAX_BYTES;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getClientOpQueueMaxBytes()
+	 */
+	public long getClientOpQueueMaxBytes() {
+		return DEFAULT_CLIENT_OP_QUEUE_MAX_BYTES;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getReceiveMaxBytes()
+	 */
+	public long getReceiveMaxBytes() {
+		return DEFAULT_RECEIVE_MAX_BYTES;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getClientReceiveMaxBytes()
+	 */
+	public long getClientReceiveMaxBytes() {
+		return DEFAULT_CLIENT_RECEIVE_MAX_BYTES;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getQueueDelayTarget()
+	 */
+	public long getQueueDelayTarget() {
+		return DEFAULT_QUEUE_DELAY_TARGET;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getQueueDelayInterval()
+	 */
+	public long getQueueDelayInterval() {
+		return DEFAULT_QUEUE_DELAY_INTERVAL;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getBulkOperations()
+	 */
+	public OperationSelector getBulkOperations() {
+		return BULK_OPERATIONS;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getInteractiveWeight()
+	 */
+	public int getInteractiveWeight() {
+		return DEFAULT_INTERACTIVE_WEIGHT;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getBatchWindow()
+	 */
+	public long getBatchWindow() {
+		return DEFAULT_BATCH_WINDOW;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getBatchWindowOps()
+	 */
+	public int getBatchWindowOps() {
+		return DEFAULT_BATCH_WINDOW_OPS;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.ConnectionFactory#getBatchWindowBytes()
+	 */
+	public long getBatchWindowBytes() {
+		return DEFAULT_BATCH_WINDOW_BYTES;
+	}
+
 }
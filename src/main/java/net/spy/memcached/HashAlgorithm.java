@@ -1,5 +1,6 @@
 package net.spy.memcached;
 
+import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.CRC32;
@@ -46,7 +47,24 @@ public enum HashAlgorithm {
 	/**
 	 * MD5-based hash algorithm used by ketama.
 	 */
-	KETAMA_HASH;
+	KETAMA_HASH,
+	/**
+	 * 32-bit MurmurHash3 (x86 variant, seed 0) of the UTF-8 key bytes.
+	 *
+	 * @see <a href="http://code.google.com/p/smhasher/">smhasher</a>
+	 */
+	MURMUR3_HASH,
+	/**
+	 * Lower 32-bits of xxHash64 (seed 0) of the UTF-8 key bytes.
+	 *
+	 * @see <a href="http://code.google.com/p/xxhash/">xxhash</a>
+	 */
+	XXHASH64_HASH,
+	/**
+	 * CRC32C (Castagnoli polynomial) of the UTF-8 key bytes.  Unlike
+	 * CRC32_HASH, all 32 bits of the checksum are used.
+	 */
+	CRC32C_HASH;
 
 	private static final long FNV_64_INIT = 0xcbf29ce484222325L;
 	private static final long FNV_64_PRIME = 0x100000001b3L;
@@ -54,6 +72,30 @@ public enum HashAlgorithm {
 	private static final long FNV_32_INIT = 2166136261L;
 	private static final long FNV_32_PRIME = 16777619;
 
+	private static final int MURMUR3_C1 = 0xcc9e2d51;
+	private static final int MURMUR3_C2 = 0x1b873593;
+
+	private static final long XXH64_PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long XXH64_PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long XXH64_PRIME3 = 0x165667B19E3779F9L;
+	private static final long XXH64_PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long XXH64_PRIME5 = 0x27D4EB2F165667C5L;
+
+	private static final int[] CRC32C_TABLE = new int[256];
+
+	// Longest key encoded into the per-thread scratch buffer; memcached
+	// keys are at most 250 bytes.
+	private static final int MAX_SCRATCH_KEY = 256;
+
+	// Scratch space for encoding ASCII keys without allocating.
+	private static final ThreadLocal<byte[]> KEY_SCRATCH =
+		new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[MAX_SCRATCH_KEY];
+			}
+		};
+
 	private static MessageDigest MD5_DIGEST = null;
 
 	static {
@@ -62,6 +104,14 @@ public enum HashAlgorithm {
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("MD5 not supported", e);
 		}
+		// Reflected Castagnoli polynomial.
+		for(int i = 0; i < 256; i++) {
+			int c = i;
+			for(int j = 0; j < 8; j++) {
+				c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+			}
+			CRC32C_TABLE[i] = c;
+		}
 	}
 
 	/**
@@ -125,12 +175,192 @@ public enum HashAlgorithm {
 						| ((long) (bKey[1] & 0xFF) << 8)
 						| (bKey[0] & 0xFF);
 				break;
+			case MURMUR3_HASH:
+			case XXHASH64_HASH:
+			case CRC32C_HASH:
+				rv = hashAscii(k);
+				break;
 			default:
 				assert false;
 		}
 		return rv & 0xffffffffL; /* Truncate to 32-bits */
 	}
 
+	// ASCII keys are their own UTF-8 encoding, so they're copied into a
+	// reused buffer rather than encoded into a new one.
+	private long hashAscii(String k) {
+		int len = k.length();
+		if(len <= MAX_SCRATCH_KEY) {
+			byte[] b = KEY_SCRATCH.get();
+			int i = 0;
+			for(; i < len; i++) {
+				char c = k.charAt(i);
+				if(c >= 0x80) {
+					break;
+				}
+				b[i] = (byte)c;
+			}
+			if(i == len) {
+				return hash(b, len);
+			}
+		}
+		return hash(KeyUtil.getKeyBytes(k));
+	}
+
+	/**
+	 * Compute the hash for the given, already encoded, key.
+	 *
+	 * <p>
+	 * MURMUR3_HASH, XXHASH64_HASH and CRC32C_HASH work directly on the
+	 * given bytes without allocating anything, so callers that already
+	 * hold the UTF-8 form of a key should prefer this method.  The result
+	 * is the same as {@link #hash(String)} for the decoded key.
+	 * </p>
+	 *
+	 * @param k the UTF-8 bytes of the key
+	 * @return a positive integer hash
+	 */
+	public long hash(final byte[] k) {
+		return hash(k, k.length);
+	}
+
+	// Hash the first len bytes of the given buffer.
+	private long hash(final byte[] k, int len) {
+		long rv = 0;
+		switch (this) {
+			case MURMUR3_HASH:
+				rv = murmur3(k, 0, len);
+				break;
+			case XXHASH64_HASH:
+				rv = xxHash64(k, 0, len);
+				break;
+			case CRC32C_HASH:
+				rv = crc32c(k, 0, len);
+				break;
+			default:
+				try {
+					rv = hash(new String(k, 0, len, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new RuntimeException(e);
+				}
+		}
+		return rv & 0xffffffffL; /* Truncate to 32-bits */
+	}
+
+	private static int murmur3(byte[] b, int off, int len) {
+		int h = 0;
+		int end = off + (len & ~3);
+		for(int i = off; i < end; i += 4) {
+			int k = readIntLE(b, i);
+			k *= MURMUR3_C1;
+			k = Integer.rotateLeft(k, 15);
+			k *= MURMUR3_C2;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+		int tail = len & 3;
+		if(tail > 0) {
+			int k = b[end] & 0xff;
+			if(tail > 1) {
+				k |= (b[end + 1] & 0xff) << 8;
+			}
+			if(tail > 2) {
+				k |= (b[end + 2] & 0xff) << 16;
+			}
+			k *= MURMUR3_C1;
+			k = Integer.rotateLeft(k, 15);
+			k *= MURMUR3_C2;
+			h ^= k;
+		}
+		h ^= len;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static long xxHash64(byte[] b, int off, int len) {
+		final int end = off + len;
+		int i = off;
+		long h;
+		if(len >= 32) {
+			long v1 = XXH64_PRIME1 + XXH64_PRIME2;
+			long v2 = XXH64_PRIME2;
+			long v3 = 0;
+			long v4 = -XXH64_PRIME1;
+			final int limit = end - 32;
+			do {
+				v1 = xxh64Round(v1, readLongLE(b, i));
+				v2 = xxh64Round(v2, readLongLE(b, i + 8));
+				v3 = xxh64Round(v3, readLongLE(b, i + 16));
+				v4 = xxh64Round(v4, readLongLE(b, i + 24));
+				i += 32;
+			} while(i <= limit);
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+				+ Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = xxh64Merge(h, v1);
+			h = xxh64Merge(h, v2);
+			h = xxh64Merge(h, v3);
+			h = xxh64Merge(h, v4);
+		} else {
+			h = XXH64_PRIME5;
+		}
+		h += len;
+		for(; i + 8 <= end; i += 8) {
+			h ^= xxh64Round(0, readLongLE(b, i));
+			h = Long.rotateLeft(h, 27) * XXH64_PRIME1 + XXH64_PRIME4;
+		}
+		if(i + 4 <= end) {
+			h ^= (readIntLE(b, i) & 0xffffffffL) * XXH64_PRIME1;
+			h = Long.rotateLeft(h, 23) * XXH64_PRIME2 + XXH64_PRIME3;
+			i += 4;
+		}
+		for(; i < end; i++) {
+			h ^= (b[i] & 0xff) * XXH64_PRIME5;
+			h = Long.rotateLeft(h, 11) * XXH64_PRIME1;
+		}
+		h ^= h >>> 33;
+		h *= XXH64_PRIME2;
+		h ^= h >>> 29;
+		h *= XXH64_PRIME3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static long xxh64Round(long acc, long input) {
+		acc += input * XXH64_PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * XXH64_PRIME1;
+	}
+
+	private static long xxh64Merge(long acc, long val) {
+		acc ^= xxh64Round(0, val);
+		return acc * XXH64_PRIME1 + XXH64_PRIME4;
+	}
+
+	private static long readLongLE(byte[] b, int i) {
+		return (readIntLE(b, i) & 0xffffffffL)
+			| ((long)readIntLE(b, i + 4) << 32);
+	}
+
+	private static int readIntLE(byte[] b, int i) {
+		return (b[i] & 0xff)
+			| ((b[i + 1] & 0xff) << 8)
+			| ((b[i + 2] & 0xff) << 16)
+			| (b[i + 3] << 24);
+	}
+
+	private static int crc32c(byte[] b, int off, int len) {
+		int crc = 0xffffffff;
+		for(int i = off; i < off + len; i++) {
+			crc = (crc >>> 8) ^ CRC32C_TABLE[(crc ^ b[i]) & 0xff];
+		}
+		return ~crc;
+	}
+
 	/**
 	 * Get the md5 of the given key.
 	 */
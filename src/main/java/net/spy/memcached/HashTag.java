@@ -0,0 +1,79 @@
+package net.spy.memcached;
+
+/**
+ * Hash tag convention for co-locating related keys on one server.
+ *
+ * <p>
+ * When a key contains a tag, such as <code>user123</code> in
+ * <code>{user123}:profile</code>, locators hash only the tag, so every key
+ * with the same tag lives on the same server and a bulk get of them takes a
+ * single round trip.  The tag is the text between the first occurrence of
+ * the opening delimiter and the next occurrence of the closing delimiter.
+ * Keys without a tag, or with an empty one, are hashed whole.
+ * </p>
+ */
+public final class HashTag {
+
+	/**
+	 * No hash tags; keys are always hashed whole.
+	 */
+	public static final HashTag NONE = new HashTag();
+
+	/**
+	 * Tags delimited by curly braces, as in <code>{user123}:profile</code>.
+	 */
+	public static final HashTag BRACES = new HashTag("{", "}");
+
+	private final String open;
+	private final String close;
+
+	private HashTag() {
+		super();
+		open=null;
+		close=null;
+	}
+
+	/**
+	 * Construct a hash tag convention with the given delimiters.
+	 *
+	 * @param o the string opening a tag
+	 * @param c the string closing a tag
+	 */
+	public HashTag(String o, String c) {
+		super();
+		if(o == null || o.length() == 0 || c == null || c.length() == 0) {
+			throw new IllegalArgumentException(
+				"Hash tag delimiters must not be empty");
+		}
+		open=o;
+		close=c;
+	}
+
+	/**
+	 * Get the part of the given key locators should hash.
+	 *
+	 * @param key the key
+	 * @return the key's tag, or the key itself if it has none
+	 */
+	public String getHashKey(String key) {
+		if(open == null) {
+			return key;
+		}
+		int start=key.indexOf(open);
+		if(start < 0) {
+			return key;
+		}
+		start += open.length();
+		int end=key.indexOf(close, start);
+		if(end <= start) {
+			return key;
+		}
+		return key.substring(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return open == null ? "{HashTag none}"
+			: "{HashTag " + open + "..." + close + "}";
+	}
+}
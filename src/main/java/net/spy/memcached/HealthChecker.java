@@ -0,0 +1,125 @@
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Decides when idle nodes are probed, and which probes went unanswered.
+ *
+ * <p>
+ * A node is idle once nothing has happened on its connection for an
+ * interval.  An idle node gets a probe, and a node that hasn't answered
+ * its probe within another interval is considered dead.  Nodes with
+ * traffic are never probed; timeouts of their operations show whether
+ * they're alive.
+ * </p>
+ *
+ * <p>
+ * This is only to be used from the IO thread.
+ * </p>
+ */
+class HealthChecker {
+
+	private final long interval;
+	private long nextCheck=0;
+	// When each node last had IO
+	private final Map<MemcachedNode, Long> lastActive=
+		new IdentityHashMap<MemcachedNode, Long>();
+	// When each outstanding probe was sent
+	private final Map<MemcachedNode, Long> probes=
+		new IdentityHashMap<MemcachedNode, Long>();
+
+	/**
+	 * Construct a health checker.
+	 *
+	 * @param i the idle interval in milliseconds
+	 */
+	HealthChecker(long i) {
+		super();
+		assert i > 0 : "Health check interval must be positive";
+		interval=i;
+	}
+
+	/**
+	 * Note IO on the given node.
+	 */
+	void active(MemcachedNode node, long now) {
+		lastActive.put(node, now);
+	}
+
+	/**
+	 * True if the nodes are due for checking.
+	 */
+	boolean isDue(long now) {
+		return now >= nextCheck;
+	}
+
+	/**
+	 * Get the time the nodes are next due for checking.
+	 */
+	long getNextCheck() {
+		return nextCheck;
+	}
+
+	/**
+	 * Choose the idle nodes among the given ones that should be probed now,
+	 * and note their probes as sent.
+	 */
+	Collection<MemcachedNode> startProbes(Collection<MemcachedNode> nodes,
+			long now) {
+		// Checking a few times an interval finds idle nodes soon enough.
+		nextCheck=now + Math.max(interval / 4, 1);
+		Collection<MemcachedNode> rv=new ArrayList<MemcachedNode>();
+		for(MemcachedNode node : nodes) {
+			if(!node.isActive() || node.hasReadOp() || node.hasWriteOp()
+					|| probes.containsKey(node)) {
+				continue;
+			}
+			Long last=lastActive.get(node);
+			if(last == null) {
+				// Start counting from the first time the node is seen.
+				lastActive.put(node, now);
+			} else if(now - last >= interval) {
+				probes.put(node, now);
+				rv.add(node);
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Note the answer to a node's probe.
+	 */
+	void probeAnswered(MemcachedNode node, long now) {
+		probes.remove(node);
+		lastActive.put(node, now);
+	}
+
+	/**
+	 * Remove and return the nodes whose probes have gone unanswered for an
+	 * interval.
+	 */
+	Collection<MemcachedNode> removeUnresponsive(long now) {
+		Collection<MemcachedNode> rv=new ArrayList<MemcachedNode>();
+		for(Iterator<Map.Entry<MemcachedNode, Long>> i=
+				probes.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<MemcachedNode, Long> me=i.next();
+			if(now - me.getValue() >= interval) {
+				rv.add(me.getKey());
+				i.remove();
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Stop watching the given node, and abandon its probe.
+	 */
+	void forget(MemcachedNode node) {
+		lastActive.remove(node);
+		probes.remove(node);
+	}
+}
@@ -0,0 +1,139 @@
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * NodeLocator implementation using Lamping and Veach's jump consistent hash.
+ *
+ * <p>
+ * Jump hashing needs no ring or lookup table, spreads keys almost perfectly
+ * evenly across the nodes and only moves the keys that have to move when
+ * nodes are appended to (or removed from the end of) the node list.  Lookups
+ * do not allocate.
+ * </p>
+ *
+ * <p>
+ * Backup nodes are found by jumping again with a rehashed key over the
+ * remaining nodes, so the load of a failed node is spread across all of the
+ * others rather than falling on its neighbor.
+ * </p>
+ *
+ * @see <a href="http://arxiv.org/abs/1406.2294">A Fast, Minimal Memory,
+ *      Consistent Hash Algorithm</a>
+ */
+public final class JumpNodeLocator implements NodeLocator {
+
+	private static final long JUMP_MULTIPLIER = 2862933555777941757L;
+
+	final MemcachedNode[] nodes;
+
+	private final HashAlgorithm hashAlg;
+	private final HashTag hashTag;
+
+	/**
+	 * Construct a JumpNodeLocator over the given nodes using the given hash
+	 * algorithm.
+	 *
+	 * @param n the nodes
+	 * @param alg the hash algorithm
+	 */
+	public JumpNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
+		this(n, alg, HashTag.NONE);
+	}
+
+	/**
+	 * Construct a JumpNodeLocator that hashes only the tag of tagged keys.
+	 *
+	 * @param n the nodes
+	 * @param alg the hash algorithm
+	 * @param tag the hash tag convention
+	 */
+	public JumpNodeLocator(List<MemcachedNode> n, HashAlgorithm alg,
+			HashTag tag) {
+		this(n.toArray(new MemcachedNode[n.size()]), alg, tag);
+	}
+
+	private JumpNodeLocator(MemcachedNode[] n, HashAlgorithm alg,
+			HashTag tag) {
+		super();
+		nodes=n;
+		hashAlg=alg;
+		hashTag=tag;
+	}
+
+	public Collection<MemcachedNode> getAll() {
+		return Arrays.asList(nodes);
+	}
+
+	public MemcachedNode getPrimary(String k) {
+		return nodes[jump(hashAlg.hash(hashTag.getHashKey(k)), nodes.length)];
+	}
+
+	public Iterator<MemcachedNode> getSequence(String k) {
+		return new JumpIterator(hashAlg.hash(hashTag.getHashKey(k)));
+	}
+
+	public NodeLocator getReadonlyCopy() {
+		MemcachedNode[] n=new MemcachedNode[nodes.length];
+		for(int i=0; i<nodes.length; i++) {
+			n[i] = new MemcachedNodeROImpl(nodes[i]);
+		}
+		return new JumpNodeLocator(n, hashAlg, hashTag);
+	}
+
+	/**
+	 * Map the given key onto one of the given number of buckets.
+	 *
+	 * @param key the key hash
+	 * @param buckets the number of buckets (must be positive)
+	 * @return a bucket in the range [0, buckets)
+	 */
+	static int jump(long key, int buckets) {
+		assert buckets > 0 : "Invalid bucket count " + buckets;
+		long b=-1;
+		long j=0;
+		while(j < buckets) {
+			b=j;
+			key=key * JUMP_MULTIPLIER + 1;
+			j=(long)((b + 1) * ((double)(1L << 31) / (double)((key >>> 33) + 1)));
+		}
+		return (int)b;
+	}
+
+	class JumpIterator implements Iterator<MemcachedNode> {
+
+		private final int primary;
+		private long hashVal;
+		private int remainingTries;
+
+		public JumpIterator(long h) {
+			super();
+			hashVal=h;
+			primary=jump(h, nodes.length);
+			remainingTries=nodes.length - 1;
+		}
+
+		public boolean hasNext() {
+			return remainingTries > 0;
+		}
+
+		public MemcachedNode next() {
+			remainingTries--;
+			// Rehash, then pick among every node other than the primary.
+			hashVal=hashVal * JUMP_MULTIPLIER + 1;
+			int rv=jump(hashVal, nodes.length - 1);
+			if(rv >= primary) {
+				rv++;
+			}
+			return nodes[rv];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("Can't remove a node");
+		}
+
+	}
+}
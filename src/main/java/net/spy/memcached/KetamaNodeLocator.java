@@ -18,6 +18,7 @@ import net.spy.memcached.util.KetamaNodeLocatorConfiguration;
  * hashing is considered separate from node location.
  *
  * Note that this implementation does not currently supported weighted nodes.
+ * See {@link BoundedLoadKetamaNodeLocator} for a variant that does.
  *
  * @see <a href="http://www.last.fm/user/RJ/journal/2007/04/10/392555/">RJ's blog post</a>
  */
@@ -29,6 +30,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 
 	final HashAlgorithm hashAlg;
     final KetamaNodeLocatorConfiguration config;
+	final HashTag hashTag;
 
 
 	public KetamaNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg) {
@@ -36,44 +38,69 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 	}
 
     public KetamaNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg, KetamaNodeLocatorConfiguration conf) {
+		this(nodes, alg, conf, HashTag.NONE);
+	}
+
+	/**
+	 * Construct a KetamaNodeLocator that hashes only the tag of tagged keys.
+	 *
+	 * @param nodes the nodes
+	 * @param alg the hash algorithm
+	 * @param conf the continuum configuration
+	 * @param tag the hash tag convention
+	 */
+	public KetamaNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg,
+			KetamaNodeLocatorConfiguration conf, HashTag tag) {
 		super();
 		allNodes = nodes;
 		hashAlg = alg;
 		ketamaNodes=new TreeMap<Long, MemcachedNode>();
         config= conf;
+		hashTag = tag;
 
         int numReps= config.getNodeRepetitions();
 		for(MemcachedNode node : nodes) {
-			// Ketama does some special work with md5 where it reuses chunks.
-			if(alg == HashAlgorithm.KETAMA_HASH) {
-				for(int i=0; i<numReps / 4; i++) {
-					byte[] digest=HashAlgorithm.computeMd5(config.getKeyForNode(node, i));
-					for(int h=0;h<4;h++) {
-						Long k = ((long)(digest[3+h*4]&0xFF) << 24)
-							| ((long)(digest[2+h*4]&0xFF) << 16)
-							| ((long)(digest[1+h*4]&0xFF) << 8)
-							| (digest[h*4]&0xFF);
-						ketamaNodes.put(k, node);
-					}
+			addPoints(ketamaNodes, node, numReps, alg, config);
+		}
+		assert ketamaNodes.size() == numReps * nodes.size();
+    }
 
+	/**
+	 * Add the given number of continuum points for a node to a continuum.
+	 */
+	static void addPoints(SortedMap<Long, MemcachedNode> continuum,
+			MemcachedNode node, int numReps, HashAlgorithm alg,
+			KetamaNodeLocatorConfiguration conf) {
+		// Ketama does some special work with md5 where it reuses chunks.
+		if(alg == HashAlgorithm.KETAMA_HASH) {
+			for(int i=0; i<numReps / 4; i++) {
+				byte[] digest=HashAlgorithm.computeMd5(conf.getKeyForNode(node, i));
+				for(int h=0;h<4;h++) {
+					Long k = ((long)(digest[3+h*4]&0xFF) << 24)
+						| ((long)(digest[2+h*4]&0xFF) << 16)
+						| ((long)(digest[1+h*4]&0xFF) << 8)
+						| (digest[h*4]&0xFF);
+					continuum.put(k, node);
 				}
-			} else {
-				for(int i=0; i<numReps; i++) {
 
-					ketamaNodes.put(hashAlg.hash(config.getKeyForNode(node, i)), node);
-				}
+			}
+		} else {
+			for(int i=0; i<numReps; i++) {
+
+				continuum.put(alg.hash(conf.getKeyForNode(node, i)), node);
 			}
 		}
-		assert ketamaNodes.size() == numReps * nodes.size();
-    }
+	}
 
-	private KetamaNodeLocator(SortedMap<Long, MemcachedNode> smn,
-			Collection<MemcachedNode> an, HashAlgorithm alg, KetamaNodeLocatorConfiguration conf) {
+	KetamaNodeLocator(SortedMap<Long, MemcachedNode> smn,
+			Collection<MemcachedNode> an, HashAlgorithm alg, KetamaNodeLocatorConfiguration conf,
+			HashTag tag) {
 		super();
 		ketamaNodes=smn;
 		allNodes=an;
 		hashAlg=alg;
         config=conf;
+		hashTag=tag;
 	}
 
 	public Collection<MemcachedNode> getAll() {
@@ -81,7 +108,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 	}
 
 	public MemcachedNode getPrimary(final String k) {
-		MemcachedNode rv=getNodeForKey(hashAlg.hash(k));
+		MemcachedNode rv=getNodeForKey(hashAlg.hash(hashTag.getHashKey(k)));
 		assert rv != null : "Found no node for key " + k;
 		return rv;
 	}
@@ -107,7 +134,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 	}
 
 	public Iterator<MemcachedNode> getSequence(String k) {
-		return new KetamaIterator(k, allNodes.size());
+		return new KetamaIterator(hashTag.getHashKey(k), allNodes.size());
 	}
 
 	public NodeLocator getReadonlyCopy() {
@@ -125,7 +152,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 			an.add(new MemcachedNodeROImpl(n));
 		}
 
-		return new KetamaNodeLocator(smn, an, hashAlg, config);
+		return new KetamaNodeLocator(smn, an, hashAlg, config, hashTag);
 	}
 
 	class KetamaIterator implements Iterator<MemcachedNode> {
@@ -2,6 +2,7 @@
 
 package net.spy.memcached;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -21,9 +22,12 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -31,9 +35,11 @@ import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.AuthThreadMonitor;
 import net.spy.memcached.auth.PlainCallbackHandler;
 import net.spy.memcached.compat.SpyThread;
+import net.spy.memcached.internal.BasicThreadFactory;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
 import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.HedgedGetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
 import net.spy.memcached.ops.CASOperationStatus;
@@ -45,15 +51,21 @@ import net.spy.memcached.ops.GetsOperation;
 import net.spy.memcached.ops.Mutator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationPriority;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatsOperation;
+import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.transcoders.TranscodeService;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.LatencyTracker;
+import net.spy.memcached.vbucket.BucketConfigurationCache;
 import net.spy.memcached.vbucket.ConfigurationProvider;
+import net.spy.memcached.vbucket.ConfigurationRefresher;
 import net.spy.memcached.vbucket.ConfigurationProviderHTTP;
 import net.spy.memcached.vbucket.Reconfigurable;
+import net.spy.memcached.vbucket.VBucketNodeLocator;
 import net.spy.memcached.vbucket.config.Bucket;
 
 import javax.naming.ConfigurationException;
@@ -127,9 +139,23 @@ public class MemcachedClient extends SpyThread
 
 	final AuthDescriptor authDescriptor;
 
+	// Shared IO thread, or null if this client runs its own
+	private final MemcachedEventLoop eventLoop;
+
 	private final AuthThreadMonitor authMonitor = new AuthThreadMonitor();
     private volatile boolean reconfiguring = false;
     private ConfigurationProvider configurationProvider;
+    private final AtomicBoolean refreshingConfig = new AtomicBoolean(false);
+
+	// Hedged gets wait this long for the master until enough latencies
+	// have been seen to estimate the percentile.
+	private static final long MIN_HEDGE_SAMPLES = 100;
+	private static final long DEFAULT_HEDGE_DELAY_MICROS = 10000;
+
+	private final double hedgedReadPercentile;
+	private final LatencyTracker hedgedLatencies = new LatencyTracker();
+	private final Object hedgeLock = new Object();
+	private ScheduledExecutorService hedgeExecutor = null;
 
     /**
 	 * Get a memcache client operating on the specified memcached locations.
@@ -175,34 +201,78 @@ public class MemcachedClient extends SpyThread
 			throw new IllegalArgumentException(
 				"Operation timeout must be positive.");
 		}
-		tcService = new TranscodeService(cf.isDaemon());
+		eventLoop = cf.getEventLoop();
+		tcService = eventLoop == null ? new TranscodeService(cf.isDaemon())
+			: eventLoop.getTranscodeService();
 		transcoder=cf.getDefaultTranscoder();
 		opFact=cf.getOperationFactory();
 		assert opFact != null : "Connection factory failed to make op factory";
 		conn=cf.createConnection(addrs);
 		assert conn != null : "Connection factory failed to make a connection";
 		operationTimeout = cf.getOperationTimeout();
+		hedgedReadPercentile = cf.getHedgedReadPercentile();
 		authDescriptor = cf.getAuthDescriptor();
 		if(authDescriptor != null) {
 			addObserver(this);
 		}
 		setName("Memcached IO over " + conn);
 		setDaemon(cf.isDaemon());
-		start();
+		if(eventLoop == null) {
+			start();
+		}
 	}
 
     public MemcachedClient(final List<URI> baseList,
                            final String bucketName,
                            final String usr, final String pwd,
                            final boolean isVBucketAware) throws IOException, ConfigurationException {
+        this(baseList, bucketName, usr, pwd, isVBucketAware, null);
+    }
+
+    /**
+     * Get a memcache client for a bucket, starting from a locally cached
+     * configuration when there is one.
+     *
+     * <p>
+     * With a usable cached configuration the client connects to its servers
+     * and takes requests at once.  The live configuration is then fetched in
+     * the background and applied through {@link #reconfigure(Bucket)}.
+     * Without one, the client waits for the server as usual.  Either way,
+     * every configuration the server streams afterwards is saved to the
+     * cache file.
+     * </p>
+     *
+     * @param baseList the base URIs of the configuration service
+     * @param bucketName the bucket to use
+     * @param usr the user name, or null
+     * @param pwd the password, or null
+     * @param isVBucketAware whether to locate keys by vbucket
+     * @param configCache the cache file, or null for no cache
+     * @throws IOException if connections cannot be established
+     * @throws ConfigurationException if the configuration can't be read
+     */
+    public MemcachedClient(final List<URI> baseList,
+                           final String bucketName,
+                           final String usr, final String pwd,
+                           final boolean isVBucketAware,
+                           final File configCache) throws IOException, ConfigurationException {
         for (URI bu : baseList) {
             if (!bu.isAbsolute()) {
                 throw new IllegalArgumentException("The base URI must be absolute");
             }
         }
 
-        this.configurationProvider = new ConfigurationProviderHTTP(baseList, usr, pwd);
-        Bucket bucket = this.configurationProvider.getBucketConfiguration(bucketName);
+        ConfigurationProviderHTTP provider = new ConfigurationProviderHTTP(baseList, usr, pwd);
+        this.configurationProvider = provider;
+        Bucket bucket = null;
+        if (configCache != null) {
+            provider.setConfigurationCache(new BucketConfigurationCache(configCache));
+            bucket = provider.getCachedBucketConfiguration(bucketName);
+        }
+        final boolean warmStart = bucket != null;
+        if (!warmStart) {
+            bucket = this.configurationProvider.getBucketConfiguration(bucketName);
+        }
         ConnectionFactoryBuilder cfb = new ConnectionFactoryBuilder();
         if (isVBucketAware) {
             cfb.setFailureMode(FailureMode.Retry)
@@ -239,21 +309,97 @@ public class MemcachedClient extends SpyThread
             throw new IllegalArgumentException(
                 "Operation timeout must be positive.");
         }
-        tcService = new TranscodeService(cf.isDaemon());
+        eventLoop = cf.getEventLoop();
+        tcService = eventLoop == null ? new TranscodeService(cf.isDaemon())
+            : eventLoop.getTranscodeService();
         transcoder=cf.getDefaultTranscoder();
         opFact=cf.getOperationFactory();
         assert opFact != null : "Connection factory failed to make op factory";
         conn=cf.createConnection(addrs);
         assert conn != null : "Connection factory failed to make a connection";
         operationTimeout = cf.getOperationTimeout();
+        hedgedReadPercentile = cf.getHedgedReadPercentile();
         authDescriptor = cf.getAuthDescriptor();
         if(authDescriptor != null) {
             addObserver(this);
         }
         setName("Memcached IO over " + conn);
         setDaemon(cf.isDaemon());
-        this.configurationProvider.subscribe(bucketName, this);
-        start();
+        if (!warmStart) {
+            this.configurationProvider.subscribe(bucketName, this);
+        }
+        if (isVBucketAware) {
+            conn.setConfigurationRefresher(new ConfigurationRefresher() {
+                public void requestConfigurationUpdate() {
+                    refreshConfiguration(bucketName);
+                }
+            });
+        }
+        if (eventLoop == null) {
+            start();
+        }
+        if (warmStart) {
+            fetchLiveConfiguration(bucketName);
+        }
+    }
+
+    // Replace a cached configuration with the live one and subscribe to
+    // its updates, retrying until the server answers.
+    private void fetchLiveConfiguration(final String bucketName) {
+        Thread t = new Thread("Memcached config fetch for " + bucketName) {
+            @Override
+            public void run() {
+                long delay = 100;
+                while (!shuttingDown) {
+                    try {
+                        reconfigure(configurationProvider
+                            .refreshBucketConfiguration(bucketName));
+                        configurationProvider.subscribe(bucketName,
+                            MemcachedClient.this);
+                        return;
+                    } catch (ConfigurationException e) {
+                        getLogger().warn("Failed to fetch configuration,"
+                            + " retrying in %dms", delay, e);
+                    } catch (RuntimeException e) {
+                        getLogger().warn("Failed to fetch configuration,"
+                            + " retrying in %dms", delay, e);
+                    }
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    delay = Math.min(delay * 2, 30000);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Fetch the bucket configuration in the background, at most one fetch
+    // at a time.
+    private void refreshConfiguration(final String bucketName) {
+        if (!refreshingConfig.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread("Memcached config refresh for " + bucketName) {
+            @Override
+            public void run() {
+                try {
+                    reconfigure(configurationProvider
+                        .refreshBucketConfiguration(bucketName));
+                } catch (ConfigurationException e) {
+                    getLogger().warn("Failed to refresh configuration", e);
+                } catch (RuntimeException e) {
+                    getLogger().warn("Failed to refresh configuration", e);
+                } finally {
+                    refreshingConfig.set(false);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
     }
 
     public void reconfigure(Bucket bucket) {
@@ -263,6 +409,48 @@ public class MemcachedClient extends SpyThread
 
     }
 
+    /**
+     * Get the number of operations retried because they were sent to a
+     * server that didn't own their vbucket, by vbucket.
+     */
+    public Map<Integer, Long> getVBucketRetryCounts() {
+        return conn.getVBucketRetryCounts();
+    }
+
+    /**
+     * Add servers to this client.
+     *
+     * <p>
+     * Only keys whose server changes are affected; operations queued for
+     * them are moved to their new server.  Not available for vbucket
+     * clients, whose servers follow the bucket configuration.
+     * </p>
+     *
+     * @param addrs the servers to add
+     * @throws IOException if a connection to a new server can't be created
+     */
+    public void addServers(Collection<InetSocketAddress> addrs)
+        throws IOException {
+        conn.addServers(addrs);
+    }
+
+    /**
+     * Remove servers from this client.
+     *
+     * <p>
+     * Operations already sent to a removed server complete normally;
+     * operations still queued for it are moved to the keys' new server.
+     * Not available for vbucket clients.
+     * </p>
+     *
+     * @param addrs the servers to remove
+     * @throws IOException if the reconfiguration fails
+     */
+    public void removeServers(Collection<? extends SocketAddress> addrs)
+        throws IOException {
+        conn.removeServers(addrs);
+    }
+
     /**
 	 * Get the addresses of available servers.
 	 *
@@ -346,7 +534,7 @@ public class MemcachedClient extends SpyThread
 		if(shuttingDown) {
 			throw new IllegalStateException("Shutting down");
 		}
-		assert isAlive() : "IO Thread is not running.";
+		assert eventLoop != null || isAlive() : "IO Thread is not running.";
 	}
 
 	/**
@@ -384,11 +572,19 @@ public class MemcachedClient extends SpyThread
 
 	private <T> Future<Boolean> asyncStore(StoreType storeType, String key,
 						   int exp, T value, Transcoder<T> tc) {
-		CachedData co=tc.encode(value);
 		final CountDownLatch latch=new CountDownLatch(1);
 		final OperationFuture<Boolean> rv=new OperationFuture<Boolean>(latch,
 				operationTimeout);
-		Operation op=opFact.store(storeType, key, co.getFlags(),
+		addOp(key, storeOp(storeType, key, exp, value, tc, rv, latch));
+		return rv;
+	}
+
+	// Create a store operation reporting to the given future.
+	private <T> StoreOperation storeOp(StoreType storeType, String key,
+			int exp, T value, Transcoder<T> tc,
+			final OperationFuture<Boolean> rv, final CountDownLatch latch) {
+		CachedData co=tc.encode(value);
+		StoreOperation op=opFact.store(storeType, key, co.getFlags(),
 				exp, co.getData(), new OperationCallback() {
 					public void receivedStatus(OperationStatus val) {
 						rv.set(val.isSuccess());
@@ -397,8 +593,7 @@ public class MemcachedClient extends SpyThread
 						latch.countDown();
 					}});
 		rv.setOperation(op);
-		addOp(key, op);
-		return rv;
+		return op;
 	}
 
 	private Future<Boolean> asyncStore(StoreType storeType,
@@ -777,6 +972,59 @@ public class MemcachedClient extends SpyThread
 		return asyncStore(StoreType.set, key, exp, o, transcoder);
 	}
 
+	/**
+	 * Set many objects in the cache at once.
+	 *
+	 * <p>
+	 * The operations are handed to the IO thread together, once for each
+	 * server rather than once for each key, which saves a lot of overhead
+	 * when storing many values.  See {@link #set(String, int, Object)} for
+	 * how <code>exp</code> is interpreted.
+	 * </p>
+	 *
+	 * @param <T>
+	 * @param values the objects to store, by the keys to store them under
+	 * @param exp the expiration of the objects
+	 * @param tc the transcoder to serialize the objects
+	 * @return a future representing the processing of each operation, by key
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> Map<String, Future<Boolean>> setBulk(
+			Map<String, ? extends T> values, int exp, Transcoder<T> tc) {
+		Map<String, Future<Boolean>> rv=
+			new HashMap<String, Future<Boolean>>(values.size());
+		Collection<StoreOperation> ops=
+			new ArrayList<StoreOperation>(values.size());
+		for(Map.Entry<String, ? extends T> me : values.entrySet()) {
+			String key=me.getKey();
+			validateKey(key);
+			CountDownLatch latch=new CountDownLatch(1);
+			OperationFuture<Boolean> f=new OperationFuture<Boolean>(latch,
+				operationTimeout);
+			ops.add(storeOp(StoreType.set, key, exp, me.getValue(), tc,
+				f, latch));
+			rv.put(key, f);
+		}
+		checkState();
+		conn.addOperations(ops);
+		return rv;
+	}
+
+	/**
+	 * Set many objects in the cache at once, using the default transcoder.
+	 *
+	 * @param values the objects to store, by the keys to store them under
+	 * @param exp the expiration of the objects
+	 * @return a future representing the processing of each operation, by key
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Map<String, Future<Boolean>> setBulk(Map<String, ?> values,
+			int exp) {
+		return setBulk(values, exp, transcoder);
+	}
+
 	/**
 	 * Replace an object with the given value iff there is already a value
 	 * for the given key.
@@ -1025,6 +1273,323 @@ public class MemcachedClient extends SpyThread
 		return get(key, transcoder);
 	}
 
+	/**
+	 * Get the given key asynchronously, reading as given by the read
+	 * preference.
+	 *
+	 * @param <T>
+	 * @param key the key to fetch
+	 * @param tc the transcoder to serialize and unserialize value
+	 * @param pref where to read from
+	 * @return a future that will hold the return value of the fetch
+	 * @throws UnsupportedOperationException if the preference isn't
+	 *         {@link ReadPreference#Master} and this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> Future<T> asyncGet(final String key, final Transcoder<T> tc,
+			ReadPreference pref) {
+		switch(pref) {
+			case Master:
+				return asyncGet(key, tc);
+			case Replica:
+				return asyncGetFromReplica(key, tc);
+			case Hedged:
+				return asyncHedgedGet(key, tc);
+			default:
+				throw new IllegalArgumentException(
+					"Unhandled read preference: " + pref);
+		}
+	}
+
+	/**
+	 * Get the given key asynchronously, reading as given by the read
+	 * preference, and decode with the default transcoder.
+	 *
+	 * @param key the key to fetch
+	 * @param pref where to read from
+	 * @return a future that will hold the return value of the fetch
+	 * @throws UnsupportedOperationException if the preference isn't
+	 *         {@link ReadPreference#Master} and this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Future<Object> asyncGet(final String key, ReadPreference pref) {
+		return asyncGet(key, transcoder, pref);
+	}
+
+	/**
+	 * Get with a single key, reading as given by the read preference.
+	 *
+	 * @param <T>
+	 * @param key the key to get
+	 * @param tc the transcoder to serialize and unserialize value
+	 * @param pref where to read from
+	 * @return the result from the cache (null if there is none)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws UnsupportedOperationException if the preference isn't
+	 *         {@link ReadPreference#Master} and this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> T get(String key, Transcoder<T> tc, ReadPreference pref) {
+		try {
+			return asyncGet(key, tc, pref).get(
+				operationTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted waiting for value", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Exception waiting for value", e);
+		} catch (TimeoutException e) {
+			throw new OperationTimeoutException("Timeout waiting for value", e);
+		}
+	}
+
+	/**
+	 * Get with a single key, reading as given by the read preference, and
+	 * decode using the default transcoder.
+	 *
+	 * @param key the key to get
+	 * @param pref where to read from
+	 * @return the result from the cache (null if there is none)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws UnsupportedOperationException if the preference isn't
+	 *         {@link ReadPreference#Master} and this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Object get(String key, ReadPreference pref) {
+		return get(key, transcoder, pref);
+	}
+
+	/**
+	 * Get the given key asynchronously from a replica of its vbucket.
+	 *
+	 * <p>
+	 * Replicas are updated asynchronously, so the value may be stale.  If
+	 * no replica is available, the master is read instead.
+	 * </p>
+	 *
+	 * @param <T>
+	 * @param key the key to fetch
+	 * @param tc the transcoder to serialize and unserialize value
+	 * @return a future that will hold the return value of the fetch
+	 * @throws UnsupportedOperationException if this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> Future<T> asyncGetFromReplica(final String key,
+			final Transcoder<T> tc) {
+
+		final CountDownLatch latch=new CountDownLatch(1);
+		final GetFuture<T> rv=new GetFuture<T>(latch, operationTimeout);
+
+		Operation op=addReplicaGet(key,
+				new GetOperation.Callback() {
+			private Future<T> val=null;
+			public void receivedStatus(OperationStatus status) {
+				rv.set(val);
+			}
+			public void gotData(String k, int flags, byte[] data) {
+				assert key.equals(k) : "Wrong key returned";
+				val=tcService.decode(tc,
+					new CachedData(flags, data, tc.getMaxSize()));
+			}
+			public void complete() {
+				latch.countDown();
+			}});
+		rv.setOperation(op);
+		return rv;
+	}
+
+	/**
+	 * Get the given key asynchronously from a replica of its vbucket and
+	 * decode with the default transcoder.
+	 *
+	 * @param key the key to fetch
+	 * @return a future that will hold the return value of the fetch
+	 * @throws UnsupportedOperationException if this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Future<Object> asyncGetFromReplica(final String key) {
+		return asyncGetFromReplica(key, transcoder);
+	}
+
+	/**
+	 * Get with a single key from a replica of its vbucket.
+	 *
+	 * @param <T>
+	 * @param key the key to get
+	 * @param tc the transcoder to serialize and unserialize value
+	 * @return the result from the cache (null if there is none)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws UnsupportedOperationException if this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> T getFromReplica(String key, Transcoder<T> tc) {
+		return get(key, tc, ReadPreference.Replica);
+	}
+
+	/**
+	 * Get with a single key from a replica of its vbucket and decode using
+	 * the default transcoder.
+	 *
+	 * @param key the key to get
+	 * @return the result from the cache (null if there is none)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws UnsupportedOperationException if this client isn't connected
+	 *         to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Object getFromReplica(String key) {
+		return get(key, transcoder, ReadPreference.Replica);
+	}
+
+	private VBucketNodeLocator getVBucketLocator() {
+		NodeLocator locator=conn.getLocator();
+		if(!(locator instanceof VBucketNodeLocator)) {
+			throw new UnsupportedOperationException(
+				"Replica reads are only available for vbucket buckets");
+		}
+		return (VBucketNodeLocator)locator;
+	}
+
+	private MemcachedNode getActiveReplica(VBucketNodeLocator vbl,
+			int vbucket) {
+		// Prefer the replica with the lowest measured latency.
+		MemcachedNode rv=null;
+		long best=Long.MAX_VALUE;
+		for(MemcachedNode n : vbl.getReplicas(vbucket)) {
+			if(n.isActive()) {
+				long latency=n.getLatencyEstimate();
+				if(rv == null || (latency >= 0 && latency < best)) {
+					rv=n;
+					best=latency >= 0 ? latency : Long.MAX_VALUE;
+				}
+			}
+		}
+		return rv;
+	}
+
+	// Send a get for the key to an active replica of its vbucket, or to
+	// its master if no replica is available.
+	private GetOperation addReplicaGet(String key, GetOperation.Callback cb) {
+		validateKey(key);
+		VBucketNodeLocator vbl=getVBucketLocator();
+		int vbucket=vbl.getVBucketIndex(key);
+		MemcachedNode node=getActiveReplica(vbl, vbucket);
+		GetOperation rv;
+		checkState();
+		if(node == null) {
+			rv=opFact.get(key, cb);
+			conn.addOperation(key, rv);
+		} else {
+			rv=opFact.replicaGet(key, cb);
+			rv.setVBucket(key, vbucket);
+			conn.addOperation(node, rv);
+		}
+		return rv;
+	}
+
+	private <T> Future<T> asyncHedgedGet(final String key,
+			final Transcoder<T> tc) {
+		getVBucketLocator();
+		final HedgedGetFuture<T> rv=new HedgedGetFuture<T>(operationTimeout);
+		Operation op=opFact.get(key,
+			new HedgedGetCallback<T>(key, tc, rv, true));
+		rv.addOperation(op);
+		addOp(key, op);
+
+		long delay=DEFAULT_HEDGE_DELAY_MICROS;
+		if(hedgedLatencies.getSampleCount() >= MIN_HEDGE_SAMPLES) {
+			delay=hedgedLatencies.getPercentile(hedgedReadPercentile);
+		}
+		getHedgeExecutor().schedule(new Runnable() {
+			public void run() {
+				if(rv.isDone() || shuttingDown) {
+					return;
+				}
+				VBucketNodeLocator vbl=getVBucketLocator();
+				int vbucket=vbl.getVBucketIndex(key);
+				MemcachedNode node=getActiveReplica(vbl, vbucket);
+				if(node != null) {
+					GetOperation hedge=opFact.replicaGet(key,
+						new HedgedGetCallback<T>(key, tc, rv, false));
+					hedge.setVBucket(key, vbucket);
+					// The master may have finished since the check above.
+					if(rv.addOperation(hedge)) {
+						conn.addOperation(node, hedge);
+					}
+				}
+			}}, delay, TimeUnit.MICROSECONDS);
+		return rv;
+	}
+
+	private ScheduledExecutorService getHedgeExecutor() {
+		synchronized(hedgeLock) {
+			if(hedgeExecutor == null) {
+				hedgeExecutor=Executors.newSingleThreadScheduledExecutor(
+					new BasicThreadFactory("Memcached hedged reads", true));
+			}
+			return hedgeExecutor;
+		}
+	}
+
+	// Callback for either operation of a hedged get.  Any value answers
+	// the get, but only the master is trusted about a missing key.
+	private class HedgedGetCallback<T> implements GetOperation.Callback {
+		private final String key;
+		private final Transcoder<T> tc;
+		private final HedgedGetFuture<T> rv;
+		private final boolean master;
+		private final long start=System.nanoTime();
+		private Future<T> val=null;
+
+		public HedgedGetCallback(String k, Transcoder<T> t,
+				HedgedGetFuture<T> f, boolean m) {
+			super();
+			key=k;
+			tc=t;
+			rv=f;
+			master=m;
+		}
+
+		public void receivedStatus(OperationStatus status) {
+			boolean notFound=status instanceof CASOperationStatus
+				&& ((CASOperationStatus)status).getCASResponse()
+					== CASResponse.NOT_FOUND;
+			if(status.isSuccess() || (master && notFound)) {
+				if(master) {
+					hedgedLatencies.record(
+						(System.nanoTime() - start) / 1000);
+				}
+				rv.answer(val);
+			}
+		}
+		public void gotData(String k, int flags, byte[] data) {
+			assert key.equals(k) : "Wrong key returned";
+			val=tcService.decode(tc,
+				new CachedData(flags, data, tc.getMaxSize()));
+		}
+		public void complete() {
+			rv.operationComplete();
+		}
+	}
+
 	/**
 	 * Asynchronously get a bunch of objects from the cache.
 	 *
@@ -1057,23 +1622,7 @@ public class MemcachedClient extends SpyThread
 			String key=key_iter.next();
 			tc_map.put(key, tc_iter.next());
 			validateKey(key);
-			final MemcachedNode primaryNode=locator.getPrimary(key);
-			MemcachedNode node=null;
-			if(primaryNode.isActive()) {
-				node=primaryNode;
-			} else {
-				for(Iterator<MemcachedNode> i=locator.getSequence(key);
-					node == null && i.hasNext();) {
-					MemcachedNode n=i.next();
-					if(n.isActive()) {
-						node=n;
-					}
-				}
-				if(node == null) {
-					node=primaryNode;
-				}
-			}
-			assert node != null : "Didn't find a node for " + key;
+			MemcachedNode node=getBulkNode(locator, key);
 			Collection<String> ks=chunks.get(node);
 			if(ks == null) {
 				ks=new ArrayList<String>();
@@ -1119,6 +1668,92 @@ public class MemcachedClient extends SpyThread
 		return new BulkGetFuture<T>(m, ops, latch);
 	}
 
+	// Find the node a bulk get should ask for the given key: its primary
+	// if that's active, or else the first active node in its sequence.
+	private MemcachedNode getBulkNode(NodeLocator locator, String key) {
+		final MemcachedNode primaryNode=locator.getPrimary(key);
+		MemcachedNode node=null;
+		if(primaryNode.isActive()) {
+			node=primaryNode;
+		} else {
+			for(Iterator<MemcachedNode> i=locator.getSequence(key);
+				node == null && i.hasNext();) {
+				MemcachedNode n=i.next();
+				if(n.isActive()) {
+					node=n;
+				}
+			}
+			if(node == null) {
+				node=primaryNode;
+			}
+		}
+		assert node != null : "Didn't find a node for " + key;
+		return node;
+	}
+
+	/**
+	 * Get a bunch of objects from the cache, handing them over one at a
+	 * time as they arrive.
+	 *
+	 * <p>
+	 * Values aren't gathered up, and a server isn't read from while too
+	 * many of its values wait to be taken, so getting more data than fits
+	 * on the heap is safe as long as the caller keeps up.  The stream must
+	 * be read to the end or cancelled.
+	 * </p>
+	 *
+	 * @param <T>
+	 * @param keys the keys to request
+	 * @param tc the transcoder to unserialize values
+	 * @return the stream of values found
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> BulkGetStream<T> asyncGetBulkStream(Collection<String> keys,
+		Transcoder<T> tc) {
+		final Map<MemcachedNode, Collection<String>> chunks
+			=new HashMap<MemcachedNode, Collection<String>>();
+		final NodeLocator locator=conn.getLocator();
+		for(String key : keys) {
+			validateKey(key);
+			MemcachedNode node=getBulkNode(locator, key);
+			Collection<String> ks=chunks.get(node);
+			if(ks == null) {
+				ks=new ArrayList<String>();
+				chunks.put(node, ks);
+			}
+			ks.add(key);
+		}
+
+		BulkGetStream<T> rv=new BulkGetStream<T>(conn, tc, chunks.size());
+		final Map<MemcachedNode, Operation> mops=
+			new HashMap<MemcachedNode, Operation>();
+		for(Map.Entry<MemcachedNode, Collection<String>> me
+				: chunks.entrySet()) {
+			Operation op=opFact.get(me.getValue(), rv.callback(me.getKey()));
+			// Streams are for fetching lots of data in the background.
+			op.setPriority(OperationPriority.BULK);
+			mops.put(me.getKey(), op);
+		}
+		rv.setOperations(new ArrayList<Operation>(mops.values()));
+		checkState();
+		conn.addOperations(mops);
+		return rv;
+	}
+
+	/**
+	 * Get a bunch of objects from the cache with the default transcoder,
+	 * handing them over one at a time as they arrive.
+	 *
+	 * @param keys the keys to request
+	 * @return the stream of values found
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public BulkGetStream<Object> asyncGetBulkStream(Collection<String> keys) {
+		return asyncGetBulkStream(keys, transcoder);
+	}
+
 	/**
 	 * Asynchronously get a bunch of objects from the cache.
 	 *
@@ -1245,6 +1880,144 @@ public class MemcachedClient extends SpyThread
 		return getBulk(Arrays.asList(keys), transcoder);
 	}
 
+	/**
+	 * Asynchronously get a bunch of objects from the cache, reading as
+	 * given by the read preference.
+	 *
+	 * <p>
+	 * Hedging is only available for single key gets.
+	 * </p>
+	 *
+	 * @param <T>
+	 * @param keys the keys to request
+	 * @param tc the transcoder to serialize and unserialize values
+	 * @param pref where to read from
+	 * @return a Future result of that fetch
+	 * @throws IllegalArgumentException if the preference is
+	 *         {@link ReadPreference#Hedged}
+	 * @throws UnsupportedOperationException if the preference is
+	 *         {@link ReadPreference#Replica} and this client isn't
+	 *         connected to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+		final Transcoder<T> tc, ReadPreference pref) {
+		if(pref == ReadPreference.Master) {
+			return asyncGetBulk(keys, tc);
+		}
+		if(pref != ReadPreference.Replica) {
+			throw new IllegalArgumentException(
+				"Bulk gets can't use read preference " + pref);
+		}
+		getVBucketLocator();
+		for(String key : keys) {
+			validateKey(key);
+		}
+
+		final Map<String, Future<T>> m=new ConcurrentHashMap<String, Future<T>>();
+		final CountDownLatch latch=new CountDownLatch(keys.size());
+		final Collection<Operation> ops=new ArrayList<Operation>();
+
+		// Replica gets can't be merged, so each key gets its own operation.
+		GetOperation.Callback cb=new GetOperation.Callback() {
+				@SuppressWarnings("synthetic-access")
+				public void receivedStatus(OperationStatus status) {
+					if(!status.isSuccess()) {
+						getLogger().warn("Unsuccessful get:  %s", status);
+					}
+				}
+				public void gotData(String k, int flags, byte[] data) {
+					m.put(k, tcService.decode(tc,
+							new CachedData(flags, data, tc.getMaxSize())));
+				}
+				public void complete() {
+					latch.countDown();
+				}
+		};
+		for(String key : keys) {
+			ops.add(addReplicaGet(key, cb));
+		}
+		return new BulkGetFuture<T>(m, ops, latch);
+	}
+
+	/**
+	 * Asynchronously get a bunch of objects from the cache, reading as
+	 * given by the read preference, and decode them with the default
+	 * transcoder.
+	 *
+	 * @param keys the keys to request
+	 * @param pref where to read from
+	 * @return a Future result of that fetch
+	 * @throws IllegalArgumentException if the preference is
+	 *         {@link ReadPreference#Hedged}
+	 * @throws UnsupportedOperationException if the preference is
+	 *         {@link ReadPreference#Replica} and this client isn't
+	 *         connected to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public BulkFuture<Map<String, Object>> asyncGetBulk(Collection<String> keys,
+		ReadPreference pref) {
+		return asyncGetBulk(keys, transcoder, pref);
+	}
+
+	/**
+	 * Get the values for multiple keys from the cache, reading as given by
+	 * the read preference.
+	 *
+	 * @param <T>
+	 * @param keys the keys
+	 * @param tc the transcoder to serialize and unserialize value
+	 * @param pref where to read from
+	 * @return a map of the values (for each value that exists)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws IllegalArgumentException if the preference is
+	 *         {@link ReadPreference#Hedged}
+	 * @throws UnsupportedOperationException if the preference is
+	 *         {@link ReadPreference#Replica} and this client isn't
+	 *         connected to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public <T> Map<String, T> getBulk(Collection<String> keys,
+			Transcoder<T> tc, ReadPreference pref) {
+		try {
+			return asyncGetBulk(keys, tc, pref).get(
+				operationTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted getting bulk values", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed getting bulk values", e);
+		} catch (TimeoutException e) {
+			throw new OperationTimeoutException(
+				"Timeout waiting for bulkvalues", e);
+		}
+	}
+
+	/**
+	 * Get the values for multiple keys from the cache, reading as given by
+	 * the read preference.
+	 *
+	 * @param keys the keys
+	 * @param pref where to read from
+	 * @return a map of the values (for each value that exists)
+	 * @throws OperationTimeoutException if the global operation timeout is
+	 *		   exceeded
+	 * @throws IllegalArgumentException if the preference is
+	 *         {@link ReadPreference#Hedged}
+	 * @throws UnsupportedOperationException if the preference is
+	 *         {@link ReadPreference#Replica} and this client isn't
+	 *         connected to a vbucket bucket
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public Map<String, Object> getBulk(Collection<String> keys,
+			ReadPreference pref) {
+		return getBulk(keys, transcoder, pref);
+	}
+
 	/**
 	 * Get the versions of all of the connected memcacheds.
 	 *
@@ -1754,7 +2527,14 @@ public class MemcachedClient extends SpyThread
 				running=false;
 				conn.shutdown();
 				setName(baseName + " - SHUTTING DOWN (informed client)");
-				tcService.shutdown();
+				if(eventLoop == null) {
+					tcService.shutdown();
+				}
+				synchronized(hedgeLock) {
+					if(hedgeExecutor != null) {
+						hedgeExecutor.shutdownNow();
+					}
+				}
 			} catch (IOException e) {
 				getLogger().warn("exception while shutting down", e);
 			}
@@ -1795,6 +2575,32 @@ public class MemcachedClient extends SpyThread
 		}
 	}
 
+	/**
+	 * Start batching the operations this thread submits.
+	 *
+	 * <p>
+	 * Until {@link #flushBatch()} is called, operations submitted from this
+	 * thread are held rather than queued, and then queued together with one
+	 * hand off to the IO thread for each server.  This saves a lot of
+	 * overhead when submitting many operations in a row.  Don't wait for an
+	 * operation to complete before flushing the batch it's in.
+	 * </p>
+	 */
+	public void startBatch() {
+		conn.startBatch();
+	}
+
+	/**
+	 * Queue the operations batched by this thread, and stop batching.
+	 *
+	 * @throws IllegalStateException in the rare circumstance where queue
+	 *         is too full to accept any more requests
+	 */
+	public void flushBatch() {
+		checkState();
+		conn.flushBatch();
+	}
+
 	/**
 	 * Add a connection observer.
 	 *
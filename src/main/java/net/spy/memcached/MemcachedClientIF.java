@@ -57,6 +57,11 @@ public interface MemcachedClientIF {
 
 	Future<Boolean> set(String key, int exp, Object o);
 
+	<T> Map<String, Future<Boolean>> setBulk(Map<String, ? extends T> values,
+			int exp, Transcoder<T> tc);
+
+	Map<String, Future<Boolean>> setBulk(Map<String, ?> values, int exp);
+
 	<T> Future<Boolean> replace(String key, int exp, T o,
 		Transcoder<T> tc);
 
@@ -94,6 +99,11 @@ public interface MemcachedClientIF {
 
 	BulkFuture<Map<String, Object>> asyncGetBulk(String... keys);
 
+	<T> BulkGetStream<T> asyncGetBulkStream(Collection<String> keys,
+		Transcoder<T> tc);
+
+	BulkGetStream<Object> asyncGetBulkStream(Collection<String> keys);
+
 	<T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc)
 		throws OperationTimeoutException;
 
@@ -144,6 +154,10 @@ public interface MemcachedClientIF {
 
 	boolean waitForQueues(long timeout, TimeUnit unit);
 
+	void startBatch();
+
+	void flushBatch();
+
 	boolean addObserver(ConnectionObserver obs);
 
 	boolean removeObserver(ConnectionObserver obs);
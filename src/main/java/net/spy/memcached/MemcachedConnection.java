@@ -14,27 +14,38 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.compat.log.LoggerFactory;
+import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationSelector;
 import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.VBucketAware;
+import net.spy.memcached.protocol.ByteBudget;
+import net.spy.memcached.vbucket.ConfigDifference;
+import net.spy.memcached.vbucket.ConfigurationRefresher;
 import net.spy.memcached.vbucket.VBucketNodeLocator;
+import net.spy.memcached.vbucket.VBucketRetryQueue;
 import net.spy.memcached.vbucket.Reconfigurable;
 import net.spy.memcached.vbucket.config.Bucket;
 import org.apache.commons.lang.StringUtils;
@@ -56,8 +67,13 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	private volatile boolean shutDown=false;
 	// If true, optimization will collapse multiple sequential get ops
 	private final boolean shouldOptimize;
+	// If true, callers write operations for idle nodes themselves
+	private final boolean writeDirectly;
 	private Selector selector=null;
-	private final NodeLocator locator;
+	// Shared IO thread and selector, or null if the client drives IO
+	private final MemcachedEventLoop eventLoop;
+	// Replaced as a whole whenever the set of servers changes.
+	private volatile NodeLocator locator;
 	private final FailureMode failureMode;
 	// maximum amount of time to wait between reconnect attempts
 	private final long maxDelay;
@@ -67,16 +83,38 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	// AddedQueue is used to track the QueueAttachments for which operations
 	// have recently been queued.
 	private final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
-	// reconnectQueue contains the attachments that need to be reconnected
-	// The key is the time at which they are eligible for reconnect
-	private final SortedMap<Long, MemcachedNode> reconnectQueue;
+	// True once the selector's been woken since the IO thread last looked
+	// at the added queue.
+	private final AtomicBoolean wokenUp=new AtomicBoolean(false);
+	// How many times the selector's been woken for added operations
+	private final AtomicInteger wakeups=new AtomicInteger();
+	// Operations each thread is batching, by node, or null if it isn't
+	private final ThreadLocal<Map<MemcachedNode, List<Operation>>> batches=
+		new ThreadLocal<Map<MemcachedNode, List<Operation>>>();
+	// The nodes that need to be reconnected, and when
+	private final ReconnectScheduler reconnectQueue;
 
 	private final Collection<ConnectionObserver> connObservers =
 		new ConcurrentLinkedQueue<ConnectionObserver>();
 	private final OperationFactory opFact;
 	private final int timeoutExceptionThreshold;
-    private final Collection<Operation> retryOps;
+	// Operations that may be resent when their connection is lost
+	private final OperationSelector replayableOps;
+	private final int maxReplays;
+	// Probes idle nodes, or null if they aren't probed
+	private final HealthChecker healthChecker;
+	// Holds back operations so more go out together, or null if they aren't
+	private final BatchWindow batchWindow;
+    // Operations bounced with NOT_MY_VBUCKET, waiting to be retried
+    private final VBucketRetryQueue retryQueue;
+    private volatile ConfigurationRefresher configRefresher = null;
     private final ConcurrentLinkedQueue<MemcachedNode> nodesToShutdown;
+    // Nodes added by a reconfiguration that the IO thread has yet to connect
+    private final ConcurrentLinkedQueue<MemcachedNode> nodesToConnect;
+    // Locator swaps whose queued operations have yet to be moved
+    private final ConcurrentLinkedQueue<LocatorChange> locatorChanges;
+    // Serializes reconfigurations against each other
+    private final Object reconfigureLock = new Object();
 
 	/**
 	 * Construct a memcached connection.
@@ -92,62 +130,102 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 			FailureMode fm, OperationFactory opfactory)
 		throws IOException {
 		connObservers.addAll(obs);
-		reconnectQueue=new TreeMap<Long, MemcachedNode>();
 		addedQueue=new ConcurrentLinkedQueue<MemcachedNode>();
 		failureMode = fm;
 		shouldOptimize = f.shouldOptimize();
+		writeDirectly = f.shouldWriteDirectly();
 		maxDelay = f.getMaxReconnectDelay();
+		reconnectQueue=new ReconnectScheduler(
+			ReconnectScheduler.DEFAULT_MIN_DELAY,
+			TimeUnit.SECONDS.toMillis(maxDelay), new Random());
 		opFact = opfactory;
 		timeoutExceptionThreshold = f.getTimeoutExceptionThreshold();
-		selector=Selector.open();
-        retryOps = new ArrayList<Operation>();
+		replayableOps = f.getReplayableOperations();
+		maxReplays = f.getMaxReplays();
+		healthChecker = f.getHealthCheckInterval() > 0
+			? new HealthChecker(f.getHealthCheckInterval()) : null;
+		batchWindow = f.getBatchWindow() > 0
+			? new BatchWindow(f.getBatchWindow(), f.getBatchWindowOps(),
+				f.getBatchWindowBytes()) : null;
+		eventLoop = f.getEventLoop();
+		selector=eventLoop == null ? Selector.open() : eventLoop.getSelector();
+        retryQueue = new VBucketRetryQueue(f.getVBucketRetryLimit(),
+            f.getVBucketRetryDelay());
         nodesToShutdown = new ConcurrentLinkedQueue<MemcachedNode>();
+        nodesToConnect = new ConcurrentLinkedQueue<MemcachedNode>();
+        locatorChanges = new ConcurrentLinkedQueue<LocatorChange>();
         this.bufSize = bufSize;
         this.connectionFactory = f;
         List<MemcachedNode> connections = createConnections(a);
         locator=f.createLocator(connections);
+        if (eventLoop != null) {
+            eventLoop.register(this);
+        }
 	}
     private List<MemcachedNode> createConnections(final Collection<InetSocketAddress> a)
         throws IOException {
-        List<MemcachedNode> connections=new ArrayList<MemcachedNode>(a.size());
+        List<MemcachedNode> connections=createNodes(a);
+        for(MemcachedNode qa : connections) {
+            if (eventLoop == null) {
+                connectNode(qa);
+            } else {
+                // Registering with a selector blocks while another thread
+                // selects on it, so let the event loop connect.
+                nodesToConnect.offer(qa);
+            }
+        }
+        return connections;
+    }
+
+    private List<MemcachedNode> createNodes(final Collection<InetSocketAddress> a)
+        throws IOException {
+        List<MemcachedNode> nodes=new ArrayList<MemcachedNode>(a.size());
         for(SocketAddress sa : a) {
             SocketChannel ch=SocketChannel.open();
             ch.configureBlocking(false);
             MemcachedNode qa=this.connectionFactory.createMemcachedNode(sa, ch, bufSize);
-            int ops=0;
             ch.socket().setTcpNoDelay(!this.connectionFactory.useNagleAlgorithm());
-            // Initially I had attempted to skirt this by queueing every
-            // connect, but it considerably slowed down start time.
-            try {
-                if(ch.connect(sa)) {
-                    getLogger().info("Connected to %s immediately", qa);
-                    connected(qa);
-                } else {
-                    getLogger().info("Added %s to connect queue", qa);
-                    ops=SelectionKey.OP_CONNECT;
-                }
-                qa.setSk(ch.register(selector, ops, qa));
-                assert ch.isConnected()
-                    || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
-                    : "Not connected, and not wanting to connect";
-            } catch(SocketException e) {
-                getLogger().warn("Socket error on initial connect", e);
-                queueReconnect(qa);
+            if (eventLoop != null) {
+                eventLoop.setOwner(qa, this);
             }
-            connections.add(qa);
+            nodes.add(qa);
         }
-        return connections;
+        return nodes;
     }
 
-    public void reconfigure(Bucket bucket) {
+    // Start connecting the given node's channel and register it with the
+    // selector.
+    private void connectNode(MemcachedNode qa) throws IOException {
+        SocketChannel ch=qa.getChannel();
+        SocketAddress sa=qa.getSocketAddress();
+        int ops=0;
+        // Initially I had attempted to skirt this by queueing every
+        // connect, but it considerably slowed down start time.
         try {
-            if (!(this.locator instanceof VBucketNodeLocator)) {
-                return;
+            if(ch.connect(sa)) {
+                getLogger().info("Connected to %s immediately", qa);
+                connected(qa);
+            } else {
+                getLogger().info("Added %s to connect queue", qa);
+                ops=SelectionKey.OP_CONNECT;
             }
+            qa.setSk(ch.register(selector, ops, qa));
+            assert ch.isConnected()
+                || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
+                : "Not connected, and not wanting to connect";
+        } catch(SocketException e) {
+            getLogger().warn("Socket error on initial connect", e);
+            queueReconnect(qa);
+        }
+    }
 
+    public void reconfigure(Bucket bucket) {
+        if (!(this.locator instanceof VBucketNodeLocator)) {
+            return;
+        }
+        try {
             // get a new collection of addresses from the received config
             List<String> servers = bucket.getVbuckets().getServers();
-            Collection<SocketAddress> newServerAddresses = new HashSet<SocketAddress>();
             List<InetSocketAddress> newServers = new ArrayList<InetSocketAddress>();
             for (String server : servers) {
                 int finalColon = server.lastIndexOf(':');
@@ -159,45 +237,179 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
                 String hostPart = server.substring(0, finalColon);
                 String portNum = server.substring(finalColon + 1);
 
-                InetSocketAddress address = new InetSocketAddress(hostPart,
-                        Integer.parseInt(portNum));
-                // add parsed address to our collections
-                newServerAddresses.add(address);
-                newServers.add(address);
+                newServers.add(new InetSocketAddress(hostPart,
+                        Integer.parseInt(portNum)));
+            }
+            updateNodes(newServers, bucket);
+        } catch (IOException e) {
+            getLogger().error("Connection reconfiguration failed", e);
+        }
+    }
+
+    /**
+     * Add servers to the set this connection distributes keys over.
+     *
+     * <p>
+     * The new locator is built on the calling thread and replaces the
+     * current one in a single step.  Queued operations whose keys now
+     * belong to a different server are moved there; nothing else is
+     * disturbed.
+     * </p>
+     *
+     * @param addrs the servers to add; servers already present are ignored
+     * @throws IOException if a connection to a new server can't be created
+     */
+    public void addServers(Collection<InetSocketAddress> addrs)
+        throws IOException {
+        synchronized(reconfigureLock) {
+            List<InetSocketAddress> servers = getServers();
+            for (InetSocketAddress sa : addrs) {
+                if (!servers.contains(sa)) {
+                    servers.add(sa);
+                }
+            }
+            updateServers(servers);
+        }
+    }
+
+    /**
+     * Remove servers from the set this connection distributes keys over.
+     *
+     * <p>
+     * Operations already sent to a removed server are allowed to complete
+     * before its connection is closed.  Operations still queued for it are
+     * moved to the keys' new servers.
+     * </p>
+     *
+     * @param addrs the servers to remove
+     * @throws IOException never, but declared for symmetry with addServers
+     */
+    public void removeServers(Collection<? extends SocketAddress> addrs)
+        throws IOException {
+        synchronized(reconfigureLock) {
+            List<InetSocketAddress> servers = getServers();
+            servers.removeAll(addrs);
+            if (servers.isEmpty()) {
+                throw new IllegalArgumentException(
+                    "Can't remove every server");
+            }
+            updateServers(servers);
+        }
+    }
+
+    /**
+     * Replace the set of servers this connection distributes keys over.
+     *
+     * @param addrs the complete new list of servers
+     * @throws IOException if a connection to a new server can't be created
+     */
+    public void updateServers(List<InetSocketAddress> addrs)
+        throws IOException {
+        if (this.locator instanceof VBucketNodeLocator) {
+            throw new UnsupportedOperationException(
+                "vbucket servers follow the bucket configuration");
+        }
+        updateNodes(addrs, null);
+    }
+
+    private List<InetSocketAddress> getServers() {
+        List<InetSocketAddress> rv = new ArrayList<InetSocketAddress>();
+        for (MemcachedNode node : this.locator.getAll()) {
+            rv.add((InetSocketAddress) node.getSocketAddress());
+        }
+        return rv;
+    }
 
+    private void updateNodes(List<InetSocketAddress> newServers, Bucket bucket)
+        throws IOException {
+        synchronized(reconfigureLock) {
+            NodeLocator current = this.locator;
+            ConfigDifference diff = null;
+            if (bucket != null) {
+                diff = ConfigDifference.compare(
+                    ((VBucketNodeLocator) current).getConfig(),
+                    bucket.getVbuckets());
+                if (diff.isEmpty()) {
+                    getLogger().debug("Configuration unchanged");
+                    return;
+                }
             }
+            Collection<SocketAddress> newServerAddresses =
+                new HashSet<SocketAddress>(newServers);
 
             // split current nodes to "odd nodes" and "stay nodes"
             Collection<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
-            Collection<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
-            Collection<InetSocketAddress> stayServers = new ArrayList<InetSocketAddress>();
-            for (MemcachedNode current : this.locator.getAll()) {
-                if (newServerAddresses.contains(current.getSocketAddress())) {
-                    stayNodes.add(current);
-                    stayServers.add((InetSocketAddress) current.getSocketAddress());
+            List<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
+            Collection<SocketAddress> stayServers = new HashSet<SocketAddress>();
+            for (MemcachedNode node : current.getAll()) {
+                if (newServerAddresses.contains(node.getSocketAddress())) {
+                    stayNodes.add(node);
+                    stayServers.add(node.getSocketAddress());
                 } else {
-                    oddNodes.add(current);
+                    oddNodes.add(node);
                 }
             }
 
-            // prepare a collection of addresses for new nodes
-            newServers.removeAll(stayServers);
-
-            // create a collection of new nodes
-            List<MemcachedNode> newNodes = createConnections(newServers);
+            // create nodes for the remaining addresses, preserving order
+            List<InetSocketAddress> toCreate = new ArrayList<InetSocketAddress>();
+            for (InetSocketAddress sa : newServers) {
+                if (!stayServers.contains(sa) && !toCreate.contains(sa)) {
+                    toCreate.add(sa);
+                }
+            }
+            List<MemcachedNode> newNodes = createNodes(toCreate);
 
             // merge stay nodes with new nodes
             List<MemcachedNode> mergedNodes = new ArrayList<MemcachedNode>();
             mergedNodes.addAll(stayNodes);
             mergedNodes.addAll(newNodes);
 
-            // call update locator with new nodes list and vbucket config
-            ((VBucketNodeLocator) this.locator).updateLocator(mergedNodes, bucket.getVbuckets());
+            NodeLocator next = bucket == null
+                ? this.connectionFactory.createLocator(mergedNodes)
+                : new VBucketNodeLocator(mergedNodes, bucket.getVbuckets(),
+                    ((VBucketNodeLocator) current).getHashTag());
 
-            // schedule shutdown for the oddNodes
+            // Publish the new locator, then let the IO thread connect the new
+            // nodes, move what is queued and retire the odd nodes.
+            this.locator = next;
+            if (bucket != null) {
+                retryQueue.configUpdated();
+            }
+            nodesToConnect.addAll(newNodes);
+            if (diff == null) {
+                locatorChanges.offer(new LocatorChange(stayNodes,
+                    new PrimaryChanged(current, next)));
+            } else if (diff.getVBucketsMovedCount() > 0) {
+                locatorChanges.offer(new LocatorChange(stayNodes,
+                    new VBucketsMoved(diff)));
+            }
             nodesToShutdown.addAll(oddNodes);
-        } catch (IOException e) {
-            getLogger().error("Connection reconfiguration failed", e);
+            Selector s=selector.wakeup();
+            assert s == selector : "Wakeup returned the wrong selector.";
+            getLogger().info("Reconfigured to %s (added %s, removed %s%s)",
+                    mergedNodes, newNodes, oddNodes,
+                    diff == null ? "" : ", " + diff);
+        }
+    }
+
+    // Connect nodes added by reconfigurations and move queued operations
+    // whose keys changed hands.
+    private void handleLocatorChanges() throws IOException {
+        MemcachedNode qa;
+        while ((qa = nodesToConnect.poll()) != null) {
+            connectNode(qa);
+        }
+        LocatorChange change;
+        while ((change = locatorChanges.poll()) != null) {
+            for (MemcachedNode node : change.stayNodes) {
+                Collection<Operation> moved =
+                    node.removeQueuedOps(change.moved);
+                if (!moved.isEmpty()) {
+                    getLogger().debug("Moving %d operations off %s",
+                        moved.size(), node);
+                    redistributeOperations(moved);
+                }
+            }
         }
     }
 
@@ -216,6 +428,19 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 					if(qa.getBytesRemainingToWrite() > 0) {
 						expected |= SelectionKey.OP_WRITE;
 					}
+					if(qa.getReceiveBudget() != null) {
+						// Reads may be paused for responses waiting to be
+						// consumed, and resume from another thread at any
+						// time.
+						sops |= expected & SelectionKey.OP_READ;
+					}
+					if(writeDirectly) {
+						// A caller may have written an operation since the
+						// ops were last fixed up, leaving a read to wait
+						// for or bytes to write that this thread hasn't
+						// seen the added queue for yet.
+						sops |= expected;
+					}
 					assert sops == expected : "Invalid ops:  "
 						+ qa + ", expected " + expected + ", got " + sops;
 				} else {
@@ -234,26 +459,14 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	 * MemcachedClient calls this method to handle IO over the connections.
 	 */
 	public void handleIO() throws IOException {
-		if(shutDown) {
-			throw new IOException("No IO while shut down");
-		}
-		// Deal with all of the stuff that's been added, but may not be marked
-		// writable.
-		handleInputQueue();
-		getLogger().debug("Done dealing with queue.");
-
-		long delay=0;
-		if(!reconnectQueue.isEmpty()) {
-			long now=System.currentTimeMillis();
-			long then=reconnectQueue.firstKey();
-			delay=Math.max(then-now, 1);
+		if(eventLoop != null) {
+			throw new IllegalStateException("IO is handled by " + eventLoop);
 		}
-		getLogger().debug("Selecting with delay of %sms", delay);
-		assert selectorsMakeSense() : "Selectors don't make sense.";
-		int selected=selector.select(delay);
+		long delay=prepareIO();
+		int selected=delay < 0 ? selector.selectNow() : selector.select(delay);
 		Set<SelectionKey> selectedKeys=selector.selectedKeys();
 
-		if(selectedKeys.isEmpty() && !shutDown) {
+		if(selectedKeys.isEmpty() && !shutDown && delay >= 0) {
 			getLogger().debug("No selectors ready, interrupted: "
 					+ Thread.interrupted());
 			if(++emptySelects > DOUBLE_CHECK_EMPTY) {
@@ -282,13 +495,75 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 			selectedKeys.clear();
 		}
 
+		finishIO();
+	}
+
+	/**
+	 * Do the work due before selecting.
+	 *
+	 * @return how long the select may wait in milliseconds, 0 for as long
+	 *         as it takes, or less than 0 to not wait at all
+	 */
+	long prepareIO() throws IOException {
+		if(shutDown) {
+			throw new IOException("No IO while shut down");
+		}
+		// Whatever's added from here on is either seen by handleInputQueue
+		// or wakes up the coming select.
+		wokenUp.set(false);
+		handleLocatorChanges();
+		// Deal with all of the stuff that's been added, but may not be marked
+		// writable.
+		handleInputQueue();
+		getLogger().debug("Done dealing with queue.");
 
+		long delay=0;
+		long now=System.currentTimeMillis();
+		if(!reconnectQueue.isEmpty()) {
+			long then=reconnectQueue.getNextTime();
+			delay=Math.max(then-now, 1);
+		}
+		long retryAt=retryQueue.getNextRelease();
+		if(retryAt != Long.MAX_VALUE) {
+			long retryDelay=Math.max(retryAt-now, 1);
+			delay=delay == 0 ? retryDelay : Math.min(delay, retryDelay);
+		}
+		if(healthChecker != null) {
+			long checkDelay=Math.max(healthChecker.getNextCheck()-now, 1);
+			delay=delay == 0 ? checkDelay : Math.min(delay, checkDelay);
+		}
+		if(batchWindow != null) {
+			long release=batchWindow.getNextRelease();
+			if(release != Long.MAX_VALUE) {
+				// Selecting only waits whole milliseconds, so a window
+				// closing sooner than that is waited out by polling.
+				long batchDelay=TimeUnit.NANOSECONDS.toMillis(
+					release - System.nanoTime());
+				if(batchDelay < 1) {
+					delay=-1;
+				} else {
+					delay=delay == 0 ? batchDelay : Math.min(delay, batchDelay);
+				}
+			}
+		}
+		getLogger().debug("Selecting with delay of %sms", delay);
+		assert selectorsMakeSense() : "Selectors don't make sense.";
+		return delay;
+	}
+
+	/**
+	 * Do the work due after selecting and handling the selected keys.
+	 */
+	void finishIO() throws IOException {
 		// see if any connections blew up with large number of timeouts
-		for(SelectionKey sk : selector.keys()) {
-			MemcachedNode mn = (MemcachedNode)sk.attachment();
-			if (mn.getContinuousTimeout() > timeoutExceptionThreshold)
+		Collection<MemcachedNode> nodes=new ArrayList<MemcachedNode>(
+			locator.getAll());
+		nodes.addAll(nodesToShutdown);
+		for(MemcachedNode mn : nodes) {
+			if (mn.getSk() != null && mn.getSk().isValid()
+				&& mn.getContinuousTimeout() > timeoutExceptionThreshold)
 			{
-				getLogger().warn("%s exceeded continuous timeout threshold", sk);
+				getLogger().warn("%s exceeded continuous timeout threshold", mn);
 				lostConnection(mn);
 			}
 		}
@@ -296,14 +571,28 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 		if(!shutDown && !reconnectQueue.isEmpty()) {
 			attemptReconnects();
 		}
-        // rehash operations that in retry state
-        redistributeOperations(retryOps);
-        retryOps.clear();
+		checkHealth();
+        // rehash operations bounced for the wrong vbucket that may now be
+        // retried
+        redistributeOperations(retryQueue.release(System.currentTimeMillis()));
 
         // try to shutdown odd nodes
         for (MemcachedNode qa : nodesToShutdown) {
             if (!addedQueue.contains(qa)) {
+                // Move whatever hasn't been sent, but let what has been sent
+                // complete before closing the connection.
+                redistributeOperations(qa.removeQueuedOps(ALL_OPS));
+                if (qa.isActive() && (qa.hasReadOp() || qa.hasWriteOp())) {
+                    continue;
+                }
                 nodesToShutdown.remove(qa);
+                reconnectQueue.forget(qa);
+                if (healthChecker != null) {
+                    healthChecker.forget(qa);
+                }
+                if (batchWindow != null) {
+                    batchWindow.forget(qa);
+                }
                 Collection<Operation> notCompletedOperations = qa.destroyInputQueue();
                 if (qa.getChannel() != null) {
                     qa.getChannel().close();
@@ -316,6 +605,9 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
                     getLogger().debug("Shut down channel %s", qa.getChannel());
                 }
                 redistributeOperations(notCompletedOperations);
+                if (eventLoop != null) {
+                    eventLoop.removeOwner(qa);
+                }
             }
         }
 	}
@@ -339,7 +631,12 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 			}
 
 			// Now process the queue.
+			long now=System.nanoTime();
 			for(MemcachedNode qa : todo) {
+				if(batchWindow != null && batchWindow.hold(qa, now)) {
+					toAdd.add(qa);
+					continue;
+				}
 				boolean readyForIO=false;
 				if(qa.isActive()) {
 					if(qa.getCurrentWriteOp() != null) {
@@ -402,8 +699,11 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 
 	// Handle IO for a specific selector.  Any IOException will cause a
 	// reconnect
-	private void handleIO(SelectionKey sk) {
+	void handleIO(SelectionKey sk) {
 		MemcachedNode qa=(MemcachedNode)sk.attachment();
+		if(healthChecker != null) {
+			healthChecker.active(qa, System.currentTimeMillis());
+		}
 		try {
 			getLogger().debug(
 					"Handling IO for:  %s (r=%s, w=%s, c=%s, op=%s)",
@@ -507,16 +807,55 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
                     Operation op=qa.removeCurrentReadOp();
                     assert op == currentOp
                     : "Expected to pop " + currentOp + " got " + op;
-                    retryOps.add(currentOp);
+                    handleNotMyVBucket(currentOp);
                     currentOp=qa.getCurrentReadOp();
-
                 }
 			}
 			rbuf.clear();
+			ByteBudget rb=qa.getReceiveBudget();
+			if(rb != null && rb.isExhausted()) {
+				// Leave the rest in the socket until consumers catch up.
+				getLogger().debug("Pausing reads from %s", qa);
+				break;
+			}
 			read=channel.read(rbuf);
 		}
 	}
 
+	// Park an operation bounced for the wrong vbucket and ask for a fresh
+	// configuration, or give up on it if it's out of retries.
+	private void handleNotMyVBucket(Operation op) {
+		if(!(op instanceof KeyedOperation)) {
+			op.cancel();
+			return;
+		}
+		if(retryQueue.park((KeyedOperation)op, System.currentTimeMillis())) {
+			ConfigurationRefresher r=configRefresher;
+			if(r != null) {
+				r.requestConfigurationUpdate();
+			}
+		} else {
+			getLogger().warn("Giving up on %s after %d NOT_MY_VBUCKET responses",
+				op, ((KeyedOperation)op).getVBucketRetries());
+			op.cancel();
+		}
+	}
+
+	/**
+	 * Set the object asked for a new vbucket configuration whenever an
+	 * operation is sent to a server that doesn't own its vbucket.
+	 */
+	public void setConfigurationRefresher(ConfigurationRefresher to) {
+		configRefresher=to;
+	}
+
+	/**
+	 * Get the number of NOT_MY_VBUCKET retries, by vbucket.
+	 */
+	public Map<Integer, Long> getVBucketRetryCounts() {
+		return retryQueue.getRetryCounts();
+	}
+
 	// Make a debug string out of the given buffer's values
 	static String dbgBuffer(ByteBuffer b, int size) {
 		StringBuilder sb=new StringBuilder();
@@ -537,60 +876,143 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 		if(!shutDown) {
 			getLogger().warn("Closing, and reopening %s, attempt %d.",
 					qa, qa.getReconnectCount());
-			if(qa.getSk() != null) {
-				qa.getSk().cancel();
-				assert !qa.getSk().isValid() : "Cancelled selection key is valid";
-			}
-			qa.reconnecting();
+			// Wait out any direct write, which may otherwise add to the
+			// operations in flight after they've been taken.
+			boolean claimed=qa.claimWrites();
+			Collection<Operation> inFlight;
 			try {
-				if(qa.getChannel() != null && qa.getChannel().socket() != null) {
-					qa.getChannel().socket().close();
-				} else {
-					getLogger().info("The channel or socket was null for %s",
-						qa);
+				if(qa.getSk() != null) {
+					qa.getSk().cancel();
+					assert !qa.getSk().isValid()
+						: "Cancelled selection key is valid";
 				}
-			} catch(IOException e) {
-				getLogger().warn("IOException trying to close a socket", e);
-			}
-			qa.setChannel(null);
-
-			long delay = (long)Math.min(maxDelay,
-					Math.pow(2, qa.getReconnectCount())) * 1000;
-			long reconTime = System.currentTimeMillis() + delay;
-
-			// Avoid potential condition where two connections are scheduled
-			// for reconnect at the exact same time.  This is expected to be
-			// a rare situation.
-			while(reconnectQueue.containsKey(reconTime)) {
-				reconTime++;
+				qa.reconnecting();
+				if(healthChecker != null) {
+					healthChecker.forget(qa);
+				}
+				if(batchWindow != null) {
+					batchWindow.forget(qa);
+				}
+				try {
+					if(qa.getChannel() != null
+							&& qa.getChannel().socket() != null) {
+						qa.getChannel().socket().close();
+					} else {
+						getLogger().info(
+							"The channel or socket was null for %s", qa);
+					}
+				} catch(IOException e) {
+					getLogger().warn("IOException trying to close a socket", e);
+				}
+				qa.setChannel(null);
+
+				long now=System.currentTimeMillis();
+				long reconTime=reconnectQueue.schedule(qa, now);
+				getLogger().debug("Reconnecting %s in %dms", qa,
+					reconTime - now);
+
+				// Need to do a little queue management.
+				inFlight=removeInFlightOperations(qa);
+				qa.setupResend();
+			} finally {
+				qa.releaseWrites(claimed);
 			}
 
-			reconnectQueue.put(reconTime, qa);
-
-			// Need to do a little queue management.
-			qa.setupResend();
-
 			if(failureMode == FailureMode.Redistribute) {
+				redistributeOperations(inFlight);
 				redistributeOperations(qa.destroyInputQueue());
 			} else if(failureMode == FailureMode.Cancel) {
+				cancelOperations(inFlight);
 				cancelOperations(qa.destroyInputQueue());
+			} else {
+				replayOperations(qa, inFlight);
 			}
 		}
 	}
 
+	// Take the operations that were sent on a lost connection but not
+	// answered.  Those that may be sent again are returned, and the others
+	// are cancelled.  The operation being written is left for setupResend.
+	private Collection<Operation> removeInFlightOperations(MemcachedNode qa) {
+		Collection<Operation> rv=new ArrayList<Operation>();
+		Operation current=qa.getCurrentWriteOp();
+		while(qa.hasReadOp()) {
+			Operation op=qa.removeCurrentReadOp();
+			if(op == current || op.isCancelled() || op.hasErrored()) {
+				continue;
+			}
+			if(op instanceof KeyedOperation && replayableOps.select(op)
+					&& ((KeyedOperation)op).getReplays() < maxReplays) {
+				KeyedOperation ko=(KeyedOperation)op;
+				ko.setReplays(ko.getReplays() + 1);
+				getLogger().debug("Replaying %s (attempt %d)",
+					op, ko.getReplays());
+				rv.add(op);
+			} else {
+				getLogger().warn("Discarding partially completed op: %s", op);
+				op.cancel();
+			}
+		}
+		return rv;
+	}
+
+	// Send operations that were in flight on a lost connection again, ahead
+	// of everything queued for the node and in their original order.
+	private void replayOperations(MemcachedNode qa,
+			Collection<Operation> ops) {
+		if(ops.isEmpty()) {
+			return;
+		}
+		final NodeLocator locator=this.locator;
+		List<Operation> replays=new ArrayList<Operation>(ops.size());
+		for(Operation op : ops) {
+			KeyedOperation ko=(KeyedOperation)op;
+			// A multi-get goes out again as a single multi-get.
+			Collection<Operation> clones=ko instanceof GetOperation
+				&& ko.getKeys().size() > 1
+				? opFact.clone((GetOperation)ko,
+					Collections.singletonList(ko.getKeys()))
+				: opFact.clone(ko);
+			for(Operation newop : clones) {
+				KeyedOperation nko=(KeyedOperation)newop;
+				nko.setVBucketRetries(ko.getVBucketRetries());
+				nko.setReplays(ko.getReplays());
+				if(locator instanceof VBucketNodeLocator) {
+					VBucketNodeLocator vbl=(VBucketNodeLocator)locator;
+					for(String k : nko.getKeys()) {
+						nko.setVBucket(k, vbl.getVBucketIndex(k));
+					}
+				}
+				newop.setHandlingNode(qa);
+				newop.initialize();
+				replays.add(newop);
+			}
+		}
+		qa.insertOps(replays);
+		addedQueue.offer(qa);
+	}
+
 	private void cancelOperations(Collection<Operation> ops) {
 		for(Operation op : ops) {
 			op.cancel();
 		}
 	}
 
-	private void redistributeOperations(Collection<Operation> ops) {
+	private void redistributeOperations(Collection<? extends Operation> ops) {
 		for(Operation op : ops) {
-			if(op instanceof KeyedOperation) {
+			if(op instanceof GetOperation
+					&& ((GetOperation)op).getKeys().size() > 1) {
+				redistributeMultiGet((GetOperation)op);
+			} else if(op instanceof KeyedOperation) {
 				KeyedOperation ko = (KeyedOperation)op;
 				int added = 0;
 				for(String k : ko.getKeys()) {
 					for(Operation newop : opFact.clone(ko)) {
+						if(newop instanceof KeyedOperation) {
+							KeyedOperation nko=(KeyedOperation)newop;
+							nko.setVBucketRetries(ko.getVBucketRetries());
+							nko.setReplays(ko.getReplays());
+						}
 						addOperation(k, newop);
 						added++;
 					}
@@ -604,35 +1026,103 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 		}
 	}
 
+	// Regroup the keys of a multi-get by the node each now maps to, so a
+	// failed multi-get becomes one multi-get per surviving node.
+	private void redistributeMultiGet(GetOperation op) {
+		final NodeLocator locator=this.locator;
+		Map<MemcachedNode, Collection<String>> groups=
+			new LinkedHashMap<MemcachedNode, Collection<String>>();
+		for(String k : op.getKeys()) {
+			// Keys with no node to go to are grouped under null.
+			MemcachedNode node=findNode(locator, k);
+			Collection<String> ks=groups.get(node);
+			if(ks == null) {
+				ks=new ArrayList<String>();
+				groups.put(node, ks);
+			}
+			ks.add(k);
+		}
+		Map<MemcachedNode, Operation> mops=
+			new HashMap<MemcachedNode, Operation>();
+		Iterator<MemcachedNode> nodes=groups.keySet().iterator();
+		for(Operation newop : opFact.clone(op, groups.values())) {
+			MemcachedNode node=nodes.next();
+			if(newop instanceof KeyedOperation) {
+				KeyedOperation nko=(KeyedOperation)newop;
+				nko.setVBucketRetries(op.getVBucketRetries());
+				nko.setReplays(op.getReplays());
+			}
+			if(node == null) {
+				newop.cancel();
+			} else {
+				mops.put(node, newop);
+			}
+		}
+		assert !nodes.hasNext()
+			: "Didn't add an operation for every node when redistributing";
+		getLogger().debug("Redistributed %d keys of %s to %d nodes",
+			op.getKeys().size(), op, mops.size());
+		addOperations(mops);
+	}
+
+	// Reconnect nodes that didn't answer their probes, and probe the nodes
+	// that have been idle for too long.
+	private void checkHealth() {
+		long now=System.currentTimeMillis();
+		if(healthChecker == null || shutDown || !healthChecker.isDue(now)) {
+			return;
+		}
+		for(MemcachedNode qa : healthChecker.removeUnresponsive(now)) {
+			if(qa.isActive()) {
+				getLogger().warn("%s didn't answer a health check", qa);
+				lostConnection(qa);
+			}
+		}
+		for(MemcachedNode qa : healthChecker.startProbes(
+				locator.getAll(), now)) {
+			sendProbe(qa);
+		}
+	}
+
+	private void sendProbe(final MemcachedNode qa) {
+		final long start=System.nanoTime();
+		OperationCallback cb=new OperationCallback() {
+			private boolean answered=false;
+			public void receivedStatus(OperationStatus status) {
+				answered=true;
+			}
+			@SuppressWarnings("synthetic-access")
+			public void complete() {
+				// A probe is cancelled when its connection is lost.
+				if(answered) {
+					qa.recordLatency((System.nanoTime() - start) / 1000);
+					healthChecker.probeAnswered(qa,
+						System.currentTimeMillis());
+				}
+			}
+		};
+		getLogger().debug("Probing idle %s", qa);
+		insertOperation(qa, opFact.noop(cb));
+	}
+
 	private void attemptReconnects() throws IOException {
 		final long now=System.currentTimeMillis();
-		final Map<MemcachedNode, Boolean> seen=
-			new IdentityHashMap<MemcachedNode, Boolean>();
 		final List<MemcachedNode> rereQueue=new ArrayList<MemcachedNode>();
 		SocketChannel ch = null;
-		for(Iterator<MemcachedNode> i=
-				reconnectQueue.headMap(now).values().iterator(); i.hasNext();) {
-			final MemcachedNode qa=i.next();
-			i.remove();
+		for(MemcachedNode qa : reconnectQueue.release(now)) {
 			try {
-				if(!seen.containsKey(qa)) {
-					seen.put(qa, Boolean.TRUE);
-					getLogger().info("Reconnecting %s", qa);
-					ch=SocketChannel.open();
-					ch.configureBlocking(false);
-					int ops=0;
-					if(ch.connect(qa.getSocketAddress())) {
-						getLogger().info("Immediately reconnected to %s", qa);
-						assert ch.isConnected();
-					} else {
-						ops=SelectionKey.OP_CONNECT;
-					}
-					qa.registerChannel(ch, ch.register(selector, ops, qa));
-					assert qa.getChannel() == ch : "Channel was lost.";
+				getLogger().info("Reconnecting %s", qa);
+				ch=SocketChannel.open();
+				ch.configureBlocking(false);
+				int ops=0;
+				if(ch.connect(qa.getSocketAddress())) {
+					getLogger().info("Immediately reconnected to %s", qa);
+					assert ch.isConnected();
 				} else {
-					getLogger().debug(
-						"Skipping duplicate reconnect request for %s", qa);
+					ops=SelectionKey.OP_CONNECT;
 				}
+				qa.registerChannel(ch, ch.register(selector, ops, qa));
+				assert qa.getChannel() == ch : "Channel was lost.";
 			} catch(SocketException e) {
 				getLogger().warn("Error on reconnect", e);
 				rereQueue.add(qa);
@@ -673,13 +1163,39 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	 * @param o the operation
 	 */
 	public void addOperation(final String key, final Operation o) {
+		// Use one snapshot of the locator for the whole placement.
+		final NodeLocator locator=this.locator;
+		MemcachedNode placeIn=findNode(locator, key);
+		if(placeIn == null) {
+			o.cancel();
+		}
+
+		assert o.isCancelled() || placeIn != null
+			: "No node found for key " + key;
+		if(placeIn != null) {
+            if (locator instanceof VBucketNodeLocator && o instanceof VBucketAware) {
+                int vbucketIndex = ((VBucketNodeLocator) locator).getVBucketIndex(key);
+                ((VBucketAware) o).setVBucket(key, vbucketIndex);
+            }
+			addOperation(placeIn, o);
+		} else {
+			assert o.isCancelled() : "No not found for "
+				+ key + " (and not immediately cancelled)";
+		}
+	}
+
+	/**
+	 * Find the node an operation on the given key goes to under the failure
+	 * mode.
+	 *
+	 * @return the node, or null if the operation should be cancelled
+	 */
+	private MemcachedNode findNode(NodeLocator locator, String key) {
 		MemcachedNode placeIn=null;
 		MemcachedNode primary = locator.getPrimary(key);
 		if(primary.isActive() || failureMode == FailureMode.Retry) {
 			placeIn=primary;
-		} else if(failureMode == FailureMode.Cancel) {
-			o.cancel();
-		} else {
+		} else if(failureMode != FailureMode.Cancel) {
 			// Look for another node in sequence that is ready.
 			for(Iterator<MemcachedNode> i=locator.getSequence(key);
 				placeIn == null && i.hasNext(); ) {
@@ -694,56 +1210,187 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 				placeIn = primary;
 			}
 		}
+		return placeIn;
+	}
 
-		assert o.isCancelled() || placeIn != null
-			: "No node found for key " + key;
-		if(placeIn != null) {
-            //ToDo add the vbucketIndex to the operation
-            if (locator instanceof VBucketNodeLocator) {
-                int vbucketIndex = ((VBucketNodeLocator) locator).getVBucketIndex(key);
-                if (o instanceof VBucketAware) {
-                    ((VBucketAware) o).setVBucket(vbucketIndex);
-                }
-            }
-			addOperation(placeIn, o);
-		} else {
-			assert o.isCancelled() : "No not found for "
-				+ key + " (and not immediately cancelled)";
+	/**
+	 * Resume reading from nodes paused for their responses waiting to be
+	 * consumed.  Call this once a receive budget is no longer exhausted.
+	 */
+	public void resumeReads() {
+		addedQueue.addAll(locator.getAll());
+		wakeUpSelector();
+	}
+
+	// Wake up the selector, unless it's already been woken and the IO thread
+	// has yet to look at the added queue.
+	private void wakeUpSelector() {
+		if(wokenUp.compareAndSet(false, true)) {
+			wakeups.incrementAndGet();
+			Selector s=selector.wakeup();
+			assert s == selector : "Wakeup returned the wrong selector.";
 		}
 	}
 
+	/**
+	 * Get the nodes waiting for the IO thread to look at their operations.
+	 * This is exposed for testing.
+	 */
+	Collection<MemcachedNode> getAddedQueue() {
+		return addedQueue;
+	}
+
+	/**
+	 * Get how many times the selector's been woken for added operations.
+	 * This is exposed for testing.
+	 */
+	int getWakeups() {
+		return wakeups.get();
+	}
+
 	public void insertOperation(final MemcachedNode node, final Operation o) {
 		o.setHandlingNode(node);
 		o.initialize();
 		node.insertOp(o);
 		addedQueue.offer(node);
-		Selector s=selector.wakeup();
-		assert s == selector : "Wakeup returned the wrong selector.";
+		wakeUpSelector();
 		getLogger().debug("Added %s to %s", o, node);
 	}
 
 	public void addOperation(final MemcachedNode node, final Operation o) {
 		o.setHandlingNode(node);
 		o.initialize();
+		Map<MemcachedNode, List<Operation>> batch=batches.get();
+		if(batch != null) {
+			batched(batch, node).add(o);
+			getLogger().debug("Batched %s for %s", o, node);
+			return;
+		}
+		if(writeDirectly && writeDirect(node, o)) {
+			// The IO thread still has to read the response, and write
+			// whatever didn't fit in the socket buffer.
+			addedQueue.offer(node);
+			wakeUpSelector();
+			return;
+		}
 		node.addOp(o);
 		addedQueue.offer(node);
-		Selector s=selector.wakeup();
-		assert s == selector : "Wakeup returned the wrong selector.";
+		wakeUpSelector();
 		getLogger().debug("Added %s to %s", o, node);
 	}
 
-	public void addOperations(final Map<MemcachedNode, Operation> ops) {
+	// Try writing an operation directly, falling back to queueing it if that
+	// goes wrong before the operation was handed over.
+	private boolean writeDirect(MemcachedNode node, Operation o) {
+		try {
+			return node.writeDirect(o);
+		} catch(RuntimeException e) {
+			getLogger().warn("Direct write of %s failed, queueing it", o, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Add many single key operations at once, each to the node of its key.
+	 * Each node is handed to the IO thread once, however many operations it
+	 * gets.  If the calling thread is batching, the operations join its batch.
+	 *
+	 * @param ops the operations
+	 */
+	public void addOperations(final Collection<? extends KeyedOperation> ops) {
+		final NodeLocator locator=this.locator;
+		Map<MemcachedNode, List<Operation>> batch=batches.get();
+		Map<MemcachedNode, List<Operation>> byNode=batch != null ? batch
+			: new LinkedHashMap<MemcachedNode, List<Operation>>();
+		for(KeyedOperation o : ops) {
+			assert o.getKeys().size() == 1 : "Not a single key operation " + o;
+			String key=o.getKeys().iterator().next();
+			MemcachedNode node=findNode(locator, key);
+			if(node == null) {
+				o.cancel();
+				continue;
+			}
+			if(locator instanceof VBucketNodeLocator) {
+				o.setVBucket(key,
+					((VBucketNodeLocator)locator).getVBucketIndex(key));
+			}
+			o.setHandlingNode(node);
+			o.initialize();
+			batched(byNode, node).add(o);
+		}
+		if(batch == null) {
+			enqueue(byNode);
+		}
+	}
 
+	/**
+	 * Start batching the operations the calling thread adds.  They're held
+	 * until {@link #flushBatch()}, and then handed to the IO thread with one
+	 * hand off for each node.  Starting a batch that's already started does
+	 * nothing.
+	 */
+	public void startBatch() {
+		if(batches.get() == null) {
+			batches.set(new LinkedHashMap<MemcachedNode, List<Operation>>());
+		}
+	}
+
+	/**
+	 * Queue the operations batched by the calling thread, and stop batching.
+	 */
+	public void flushBatch() {
+		Map<MemcachedNode, List<Operation>> batch=batches.get();
+		if(batch != null) {
+			batches.remove();
+			enqueue(batch);
+		}
+	}
+
+	private static List<Operation> batched(
+			Map<MemcachedNode, List<Operation>> batch, MemcachedNode node) {
+		List<Operation> rv=batch.get(node);
+		if(rv == null) {
+			rv=new ArrayList<Operation>();
+			batch.put(node, rv);
+		}
+		return rv;
+	}
+
+	// Queue initialized operations with one offer for each node and at most
+	// one wakeup.
+	private void enqueue(Map<MemcachedNode, List<Operation>> byNode) {
+		for(Map.Entry<MemcachedNode, List<Operation>> me : byNode.entrySet()) {
+			MemcachedNode node=me.getKey();
+			for(Operation o : me.getValue()) {
+				node.addOp(o);
+			}
+			addedQueue.offer(node);
+		}
+		if(!byNode.isEmpty()) {
+			wakeUpSelector();
+		}
+	}
+
+	public void addOperations(final Map<MemcachedNode, Operation> ops) {
+		final NodeLocator locator=this.locator;
 		for(Map.Entry<MemcachedNode, Operation> me : ops.entrySet()) {
 			final MemcachedNode node=me.getKey();
 			Operation o=me.getValue();
+			// Each key of a multi-key operation carries its own vbucket.
+			if(locator instanceof VBucketNodeLocator
+					&& o instanceof KeyedOperation) {
+				VBucketNodeLocator vbl=(VBucketNodeLocator)locator;
+				KeyedOperation ko=(KeyedOperation)o;
+				for(String k : ko.getKeys()) {
+					ko.setVBucket(k, vbl.getVBucketIndex(k));
+				}
+			}
 			o.setHandlingNode(node);
 			o.initialize();
 			node.addOp(o);
 			addedQueue.offer(node);
 		}
-		Selector s=selector.wakeup();
-		assert s == selector : "Wakeup returned the wrong selector.";
+		wakeUpSelector();
 	}
 
 	/**
@@ -758,7 +1405,7 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	 */
 	public CountDownLatch broadcastOperation(final BroadcastOpFactory of,
 			Collection<MemcachedNode> nodes) {
-		final CountDownLatch latch=new CountDownLatch(locator.getAll().size());
+		final CountDownLatch latch=new CountDownLatch(nodes.size());
 		for(MemcachedNode node : nodes) {
 			Operation op = of.newOp(node, latch);
 			op.initialize();
@@ -766,8 +1413,7 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 			op.setHandlingNode(node);
 			addedQueue.offer(node);
 		}
-		Selector s=selector.wakeup();
-		assert s == selector : "Wakeup returned the wrong selector.";
+		wakeUpSelector();
 		return latch;
 	}
 
@@ -776,9 +1422,17 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 	 */
 	public void shutdown() throws IOException {
 		shutDown=true;
+		if(eventLoop != null) {
+			// Waits out IO the loop's thread is doing for this connection,
+			// so the channels aren't closed from under it.
+			eventLoop.unregister(this);
+		}
 		Selector s=selector.wakeup();
 		assert s == selector : "Wakeup returned the wrong selector.";
-		for(MemcachedNode qa : locator.getAll()) {
+		Collection<MemcachedNode> all=new ArrayList<MemcachedNode>(
+				locator.getAll());
+		all.addAll(nodesToShutdown);
+		for(MemcachedNode qa : all) {
 			if(qa.getChannel() != null) {
 				qa.getChannel().close();
 				qa.setSk(null);
@@ -790,8 +1444,83 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
 				getLogger().debug("Shut down channel %s", qa.getChannel());
 			}
 		}
-		selector.close();
-		getLogger().debug("Shut down selector %s", selector);
+		if(eventLoop == null) {
+			selector.close();
+			getLogger().debug("Shut down selector %s", selector);
+		}
+	}
+
+	/**
+	 * True once this connection has been shut down.
+	 */
+	boolean isShutDown() {
+		return shutDown;
+	}
+
+	// Selects every operation.
+	private static final OperationSelector ALL_OPS = new OperationSelector() {
+		public boolean select(Operation op) {
+			return true;
+		}
+	};
+
+	// Operations on the given nodes that need moving after a
+	// reconfiguration.
+	private static final class LocatorChange {
+		final Collection<MemcachedNode> stayNodes;
+		final OperationSelector moved;
+
+		LocatorChange(Collection<MemcachedNode> s, OperationSelector m) {
+			stayNodes=s;
+			moved=m;
+		}
+	}
+
+	// Selects the keyed operations with a key whose primary node differs
+	// between two locators.
+	private static final class PrimaryChanged implements OperationSelector {
+		private final NodeLocator from;
+		private final NodeLocator to;
+
+		PrimaryChanged(NodeLocator f, NodeLocator t) {
+			from=f;
+			to=t;
+		}
+
+		public boolean select(Operation op) {
+			if(!(op instanceof KeyedOperation) || op.isCancelled()) {
+				return false;
+			}
+			for(String k : ((KeyedOperation)op).getKeys()) {
+				if(from.getPrimary(k) != to.getPrimary(k)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// Selects the keyed operations with a key in a vbucket whose master
+	// changed.
+	private static final class VBucketsMoved implements OperationSelector {
+		private final ConfigDifference diff;
+
+		VBucketsMoved(ConfigDifference d) {
+			diff=d;
+		}
+
+		public boolean select(Operation op) {
+			if(!(op instanceof KeyedOperation) || op.isCancelled()) {
+				return false;
+			}
+			KeyedOperation ko=(KeyedOperation)op;
+			for(String k : ko.getKeys()) {
+				if(diff.isMoved(ko.getVBucket(k))) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 
 	@Override
@@ -841,6 +1570,12 @@ public final class MemcachedConnection extends SpyObject implements Reconfigurab
             }
             else {
                 node.setContinuousTimeout(isTimeout);
+                // Only an operation the server was sent says anything about
+                // how much it can take; one still queued behind the
+                // concurrency limit timing out must not shrink the limit.
+                if (isTimeout && op.getState() == OperationState.READING) {
+                    node.responseTimedOut();
+                }
             }
         } catch (Exception e) {
             LoggerFactory.getLogger(MemcachedConnection.class).error(e.getMessage());
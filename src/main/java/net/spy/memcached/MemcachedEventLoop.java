@@ -0,0 +1,278 @@
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.spy.memcached.compat.SpyThread;
+import net.spy.memcached.transcoders.TranscodeService;
+
+/**
+ * An IO thread shared by several clients.
+ *
+ * <p>
+ * Normally every client has its own IO thread, selector and transcoding
+ * pool.  Clients whose connection factory supplies an event loop instead
+ * register their connections with it, and a single thread and selector
+ * handle the IO of all of them.  Their values are decoded by the event
+ * loop's transcoding pool.
+ * </p>
+ *
+ * <pre>
+ *	MemcachedEventLoop loop=new MemcachedEventLoop();
+ *	ConnectionFactory cf=new ConnectionFactoryBuilder()
+ *		.setEventLoop(loop).build();
+ *	MemcachedClient c1=new MemcachedClient(cf, servers1);
+ *	MemcachedClient c2=new MemcachedClient(cf, servers2);
+ *	...
+ *	c1.shutdown();
+ *	c2.shutdown();
+ *	loop.shutdown();
+ * </pre>
+ *
+ * <p>
+ * A connection's work runs on the event loop's thread, so a slow callback
+ * delays every client sharing it.  An exception handling one connection is
+ * logged, and doesn't stop the IO of the others.
+ * </p>
+ */
+public final class MemcachedEventLoop extends SpyThread {
+
+	private final Selector selector;
+	private final TranscodeService tcService;
+	private final CopyOnWriteArrayList<MemcachedConnection> connections=
+		new CopyOnWriteArrayList<MemcachedConnection>();
+	// The connection each registered node belongs to
+	private final ConcurrentMap<MemcachedNode, MemcachedConnection> owners=
+		new ConcurrentHashMap<MemcachedNode, MemcachedConnection>();
+	private volatile boolean running=true;
+	// Iterations of the loop started so far, guarded by iterationLock
+	private long iterations=0;
+	private final Object iterationLock=new Object();
+
+	/**
+	 * Start an event loop on a daemon thread.
+	 *
+	 * @throws IOException if the selector can't be opened
+	 */
+	public MemcachedEventLoop() throws IOException {
+		this(true);
+	}
+
+	/**
+	 * Start an event loop.
+	 *
+	 * @param daemon whether the IO and transcoding threads are daemons
+	 * @throws IOException if the selector can't be opened
+	 */
+	public MemcachedEventLoop(boolean daemon) throws IOException {
+		super("Memcached shared IO");
+		selector=Selector.open();
+		tcService=new TranscodeService(daemon);
+		setDaemon(daemon);
+		start();
+	}
+
+	/**
+	 * Get the selector shared by the registered connections.
+	 */
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Get the transcoding pool shared by the clients.
+	 */
+	public TranscodeService getTranscodeService() {
+		return tcService;
+	}
+
+	/**
+	 * Start handling IO for the given connection.
+	 */
+	void register(MemcachedConnection conn) {
+		if(!running) {
+			throw new IllegalStateException("Event loop is shut down");
+		}
+		connections.add(conn);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stop handling IO for the given connection.  Unless called from the
+	 * event loop's own thread, this waits for the loop to finish any work
+	 * it had started for the connection, so the connection's channels may
+	 * be closed once it returns.
+	 */
+	void unregister(MemcachedConnection conn) {
+		connections.remove(conn);
+		for(Iterator<MemcachedConnection> i=owners.values().iterator();
+				i.hasNext();) {
+			if(i.next() == conn) {
+				i.remove();
+			}
+		}
+		if(Thread.currentThread() == this) {
+			// Called back from the loop itself, which skips connections
+			// shut down for the rest of the iteration.
+			selector.wakeup();
+			return;
+		}
+		synchronized(iterationLock) {
+			long current=iterations;
+			selector.wakeup();
+			try {
+				// The next iteration no longer sees the connection.
+				while(running && isAlive() && iterations == current) {
+					iterationLock.wait(100);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Record the connection the given node belongs to.
+	 */
+	void setOwner(MemcachedNode node, MemcachedConnection conn) {
+		owners.put(node, conn);
+	}
+
+	/**
+	 * Forget a node that was shut down.
+	 */
+	void removeOwner(MemcachedNode node) {
+		owners.remove(node);
+	}
+
+	/**
+	 * Get the number of connections handled by this event loop.
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * Stop the event loop.  Clients using it should be shut down first.
+	 */
+	public void shutdown() {
+		if(!connections.isEmpty()) {
+			getLogger().warn("Shutting down with %d connections registered",
+				connections.size());
+		}
+		running=false;
+		selector.wakeup();
+		synchronized(iterationLock) {
+			iterationLock.notifyAll();
+		}
+		tcService.shutdown();
+	}
+
+	/**
+	 * Handle the IO of every registered connection until shut down.
+	 */
+	@Override
+	public void run() {
+		while(running) {
+			synchronized(iterationLock) {
+				iterations++;
+				iterationLock.notifyAll();
+			}
+			try {
+				handleIO();
+			} catch(IOException e) {
+				logRunException(e);
+			} catch(ClosedSelectorException e) {
+				logRunException(e);
+			}
+		}
+		try {
+			selector.close();
+		} catch(IOException e) {
+			getLogger().warn("Problem closing the selector", e);
+		}
+		getLogger().info("Shut down memcached event loop");
+	}
+
+	private void handleIO() throws IOException {
+		long delay=0;
+		for(MemcachedConnection conn : connections) {
+			if(conn.isShutDown()) {
+				continue;
+			}
+			try {
+				long d=conn.prepareIO();
+				if(d < 0) {
+					delay=-1;
+				} else if(d > 0 && delay >= 0) {
+					delay=delay == 0 ? d : Math.min(delay, d);
+				}
+			} catch(IOException e) {
+				logRunException(conn, e);
+			} catch(RuntimeException e) {
+				// Keep going for the other connections.
+				logRunException(conn, e);
+			}
+		}
+		if(delay < 0) {
+			selector.selectNow();
+		} else {
+			selector.select(delay);
+		}
+		Set<SelectionKey> selectedKeys=selector.selectedKeys();
+		for(SelectionKey sk : selectedKeys) {
+			MemcachedConnection conn=owners.get(sk.attachment());
+			if(conn != null && !conn.isShutDown()) {
+				try {
+					conn.handleIO(sk);
+				} catch(RuntimeException e) {
+					logRunException(conn, e);
+				}
+			} else {
+				// Left over from a connection that was shut down.
+				sk.cancel();
+			}
+		}
+		selectedKeys.clear();
+		for(MemcachedConnection conn : connections) {
+			if(conn.isShutDown()) {
+				continue;
+			}
+			try {
+				conn.finishIO();
+			} catch(IOException e) {
+				logRunException(conn, e);
+			} catch(RuntimeException e) {
+				logRunException(conn, e);
+			}
+		}
+	}
+
+	private void logRunException(Exception e) {
+		if(!running) {
+			getLogger().debug("Exception occurred during shutdown", e);
+		} else {
+			getLogger().warn("Problem handling memcached IO", e);
+		}
+	}
+
+	private void logRunException(MemcachedConnection conn, Exception e) {
+		if(conn.isShutDown()) {
+			getLogger().debug("Exception occurred during shutdown", e);
+		} else {
+			getLogger().warn("Problem handling memcached IO for " + conn, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "{MemcachedEventLoop connections=" + connections.size() + "}";
+	}
+}
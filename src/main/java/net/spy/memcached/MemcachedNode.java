@@ -8,6 +8,8 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationSelector;
+import net.spy.memcached.protocol.ByteBudget;
 
 /**
  * Interface defining a connection to a memcached server.
@@ -27,6 +29,16 @@ public interface MemcachedNode {
 	 */
 	Collection<Operation> destroyInputQueue();
 
+	/**
+	 * Remove the queued operations that have not started writing and are
+	 * chosen by the given selector.
+	 *
+	 * This must only be invoked from the IO thread.
+	 *
+	 * @return the removed operations in queue order
+	 */
+	Collection<Operation> removeQueuedOps(OperationSelector s);
+
 	/**
 	 * Clear the queue of currently processing operations by either cancelling
 	 * them or setting them up to be reapplied after a reconnect.
@@ -91,6 +103,14 @@ public interface MemcachedNode {
 	 */
 	void insertOp(Operation o);
 
+	/**
+	 * Insert operations to the beginning of the queue, in order.  Operations
+	 * that don't fit in the queue are cancelled.
+	 *
+	 * This method is meant to be invoked rarely.
+	 */
+	void insertOps(Collection<Operation> ops);
+
 	/**
 	 * Compute the appropriate selection operations for the channel this
 	 * MemcachedNode holds to the server.
@@ -170,6 +190,36 @@ public interface MemcachedNode {
 	 */
 	int writeSome() throws IOException;
 
+	/**
+	 * Write an initialized operation straight to the connection from the
+	 * calling thread, if nothing else is waiting to be written.  Whatever
+	 * doesn't fit in the socket buffer is left for the IO thread to write,
+	 * and the IO thread reads the response as usual.
+	 *
+	 * @param op the operation
+	 * @return true if the operation was written, false if it must be added
+	 *         the usual way
+	 */
+	boolean writeDirect(Operation op);
+
+	/**
+	 * Claim the write side of the connection, waiting out any direct write
+	 * in progress.  Claims are reentrant.
+	 *
+	 * This is only to be used from the IO thread.
+	 *
+	 * @return true if the claim was taken, false if this thread already
+	 *         had it
+	 */
+	boolean claimWrites();
+
+	/**
+	 * Give up a claim on the write side of the connection.
+	 *
+	 * @param claimed what {@link #claimWrites()} returned
+	 */
+	void releaseWrites(boolean claimed);
+
 	/**
 	 * Fix up the selection ops on the selection key.
 	 */
@@ -197,4 +247,42 @@ public interface MemcachedNode {
 	void setContinuousTimeout(boolean timedOut);
 
 	int getContinuousTimeout();
+
+	/**
+	 * Note that a caller gave up on an operation this node had written and
+	 * was still waiting for the server to answer.
+	 */
+	void responseTimedOut();
+
+	/**
+	 * Record the round trip time of a health check.
+	 *
+	 * @param micros the round trip time in microseconds
+	 */
+	void recordLatency(long micros);
+
+	/**
+	 * Get the estimated round trip time to this node, a moving average of
+	 * its health checks.
+	 *
+	 * @return the estimate in microseconds, or -1 if there is none yet
+	 */
+	long getLatencyEstimate();
+
+	/**
+	 * Get the bytes of the operations waiting to be written, whether still
+	 * in the input queue or already in the write queue.
+	 */
+	long getQueuedBytes();
+
+	/**
+	 * Get the number of operations waiting in the input queue.
+	 */
+	int getInputQueueSize();
+
+	/**
+	 * Get the budget for the bytes of this node's responses waiting to be
+	 * consumed.  The node isn't read from while it's exhausted.
+	 */
+	ByteBudget getReceiveBudget();
 }
\ No newline at end of file
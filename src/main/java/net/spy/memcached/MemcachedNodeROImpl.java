@@ -11,6 +11,8 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationSelector;
+import net.spy.memcached.protocol.ByteBudget;
 
 class MemcachedNodeROImpl implements MemcachedNode {
 
@@ -34,6 +36,10 @@ class MemcachedNodeROImpl implements MemcachedNode {
 		throw new UnsupportedOperationException();
 	}
 
+	public void insertOps(Collection<Operation> ops) {
+		throw new UnsupportedOperationException();
+	}
+
 	public void connected() {
 		throw new UnsupportedOperationException();
 	}
@@ -138,10 +144,26 @@ class MemcachedNodeROImpl implements MemcachedNode {
 		throw new UnsupportedOperationException();
 	}
 
+	public boolean writeDirect(Operation op) {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean claimWrites() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void releaseWrites(boolean claimed) {
+		throw new UnsupportedOperationException();
+	}
+
 	public Collection<Operation> destroyInputQueue() {
 		throw new UnsupportedOperationException();
 	}
 
+	public Collection<Operation> removeQueuedOps(OperationSelector s) {
+		throw new UnsupportedOperationException();
+	}
+
 	public void authComplete() {
 		throw new UnsupportedOperationException();
 	}
@@ -157,4 +179,28 @@ class MemcachedNodeROImpl implements MemcachedNode {
 	public void setContinuousTimeout(boolean isIncrease) {
 		throw new UnsupportedOperationException();
 	}
+
+	public void responseTimedOut() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void recordLatency(long micros) {
+		throw new UnsupportedOperationException();
+	}
+
+	public long getLatencyEstimate() {
+		return root.getLatencyEstimate();
+	}
+
+	public long getQueuedBytes() {
+		return root.getQueuedBytes();
+	}
+
+	public int getInputQueueSize() {
+		return root.getInputQueueSize();
+	}
+
+	public ByteBudget getReceiveBudget() {
+		throw new UnsupportedOperationException();
+	}
 }
\ No newline at end of file
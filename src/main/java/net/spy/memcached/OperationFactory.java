@@ -66,6 +66,20 @@ public interface OperationFactory {
 	 */
 	GetOperation get(String key, GetOperation.Callback callback);
 
+	/**
+	 * Create a get operation reading from a replica.
+	 *
+	 * <p>
+	 * The operation must be sent to a node holding a replica of the key's
+	 * vbucket.
+	 * </p>
+	 *
+	 * @param key the key to get
+	 * @param callback the callback that will contain the results
+	 * @return a new GetOperation
+	 */
+	GetOperation replicaGet(String key, GetOperation.Callback callback);
+
 	/**
 	 * Create a gets operation.
 	 *
@@ -193,4 +207,21 @@ public interface OperationFactory {
 	 * @return a new operation for each key in the original operation
 	 */
 	Collection<Operation> clone(KeyedOperation op);
+
+	/**
+	 * Clone a multi-key get into one multi-get per group of its keys.
+	 *
+	 * <p>
+	 *   This is used when a multi-get is requeued after a server is found to
+	 *   be down, so the keys bound for each new server are fetched together
+	 *   rather than one operation at a time.  The original callback is
+	 *   completed once, after every clone completes.
+	 * </p>
+	 *
+	 * @param op the get operation to clone
+	 * @param keyGroups the groups the operation's keys are divided into
+	 * @return an operation for each group, in the order of the groups
+	 */
+	Collection<Operation> clone(GetOperation op,
+			Collection<? extends Collection<String>> keyGroups);
 }
@@ -0,0 +1,36 @@
+package net.spy.memcached;
+
+/**
+ * Where gets on a vbucket bucket read from.
+ */
+public enum ReadPreference {
+
+	/**
+	 * Read from the vbucket's master.
+	 */
+	Master,
+
+	/**
+	 * Read from one of the vbucket's replicas.
+	 *
+	 * <p>
+	 *  Replicas are updated asynchronously, so a replica read may return a
+	 *  stale value or miss a recently stored one.  If the vbucket has no
+	 *  available replica, the read goes to the master.
+	 * </p>
+	 */
+	Replica,
+
+	/**
+	 * Read from the master, and also from a replica if the master takes
+	 * longer than usual to answer.
+	 *
+	 * <p>
+	 *  The replica is asked once the master has been outstanding for longer
+	 *  than the configured percentile of recent master latencies.  Whichever
+	 *  value arrives first is returned.
+	 * </p>
+	 */
+	Hedged
+
+}
@@ -0,0 +1,147 @@
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Schedules reconnects to lost nodes.
+ *
+ * <p>
+ * Delays follow a decorrelated jitter backoff: each delay is drawn at
+ * random between the minimum delay and three times the node's previous
+ * delay, capped at the maximum.  Clients that lose their connections at
+ * the same moment therefore spread their reconnects out rather than all
+ * coming back at once, while a node that stays down is still tried less
+ * and less often.
+ * </p>
+ *
+ * <p>
+ * A node is scheduled at most once; scheduling it again replaces its
+ * earlier reconnect.  This is only to be used from the IO thread.
+ * </p>
+ */
+class ReconnectScheduler {
+
+	/**
+	 * Minimum delay before a reconnect, in milliseconds.
+	 */
+	static final long DEFAULT_MIN_DELAY = 100;
+
+	private final long minDelay;
+	private final long maxDelay;
+	private final Random random;
+
+	private final PriorityQueue<Reconnect> queue=new PriorityQueue<Reconnect>();
+	// The reconnect currently scheduled for each node
+	private final Map<MemcachedNode, Reconnect> scheduled=
+		new IdentityHashMap<MemcachedNode, Reconnect>();
+	// The last delay chosen for each node
+	private final Map<MemcachedNode, Long> delays=
+		new IdentityHashMap<MemcachedNode, Long>();
+
+	/**
+	 * Construct a reconnect scheduler.
+	 *
+	 * @param min the minimum delay in milliseconds
+	 * @param max the maximum delay in milliseconds
+	 * @param r the source of jitter
+	 */
+	ReconnectScheduler(long min, long max, Random r) {
+		super();
+		assert min > 0 : "Minimum delay must be positive";
+		minDelay=min;
+		maxDelay=Math.max(min, max);
+		random=r;
+	}
+
+	/**
+	 * Schedule a reconnect to the given node.
+	 *
+	 * @param node the node
+	 * @param now the current time in milliseconds
+	 * @return the time the node is due for reconnecting
+	 */
+	long schedule(MemcachedNode node, long now) {
+		// The backoff starts over with the first attempt after connecting.
+		Long prev=node.getReconnectCount() > 1 ? delays.get(node) : null;
+		long upper=Math.min(maxDelay, (prev == null ? minDelay : prev) * 3);
+		long delay=minDelay
+			+ (long)(random.nextDouble() * (upper - minDelay));
+		delays.put(node, delay);
+		remove(node);
+		Reconnect r=new Reconnect(node, now + delay);
+		scheduled.put(node, r);
+		queue.add(r);
+		return r.time;
+	}
+
+	/**
+	 * Stop reconnecting the given node.
+	 *
+	 * @return true if a reconnect was scheduled
+	 */
+	boolean remove(MemcachedNode node) {
+		Reconnect r=scheduled.remove(node);
+		if(r != null) {
+			queue.remove(r);
+		}
+		return r != null;
+	}
+
+	/**
+	 * Forget the given node altogether, including its backoff.
+	 */
+	void forget(MemcachedNode node) {
+		remove(node);
+		delays.remove(node);
+	}
+
+	/**
+	 * True if no reconnect is scheduled.
+	 */
+	boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/**
+	 * Get the time the next reconnect is due, or Long.MAX_VALUE if none is
+	 * scheduled.
+	 */
+	long getNextTime() {
+		Reconnect r=queue.peek();
+		return r == null ? Long.MAX_VALUE : r.time;
+	}
+
+	/**
+	 * Remove and return the nodes due for reconnecting, earliest first.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	Collection<MemcachedNode> release(long now) {
+		Collection<MemcachedNode> rv=new ArrayList<MemcachedNode>();
+		while(!queue.isEmpty() && queue.peek().time <= now) {
+			Reconnect r=queue.poll();
+			scheduled.remove(r.node);
+			rv.add(r.node);
+		}
+		return rv;
+	}
+
+	private static final class Reconnect implements Comparable<Reconnect> {
+		final MemcachedNode node;
+		final long time;
+
+		Reconnect(MemcachedNode n, long t) {
+			node=n;
+			time=t;
+		}
+
+		public int compareTo(Reconnect o) {
+			return time < o.time ? -1 : (time == o.time ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NodeLocator implementation using weighted rendezvous (highest random
+ * weight) hashing.
+ *
+ * <p>
+ * Every node scores every key and the node with the highest score owns it.
+ * Adding or removing a node only moves the keys that node wins or owned,
+ * and the nodes in descending score order make up a natural failover
+ * sequence.  Nodes may be given weights, in which case each receives a share
+ * of the keys proportional to its weight.  Lookups do not allocate.
+ * </p>
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Rendezvous_hashing">rendezvous
+ *      hashing at wikipedia</a>
+ */
+public final class RendezvousNodeLocator implements NodeLocator {
+
+	final MemcachedNode[] nodes;
+
+	// Per-node hash seeds derived from the node address, and weights.
+	private final long[] seeds;
+	private final double[] weights;
+	private final boolean weighted;
+
+	private final HashAlgorithm hashAlg;
+	private final HashTag hashTag;
+
+	/**
+	 * Construct a RendezvousNodeLocator over the given nodes with all nodes
+	 * weighted equally.
+	 *
+	 * @param n the nodes
+	 * @param alg the hash algorithm
+	 */
+	public RendezvousNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
+		this(n, alg, Collections.<SocketAddress, Integer>emptyMap());
+	}
+
+	/**
+	 * Construct a RendezvousNodeLocator over the given nodes with the given
+	 * weights.
+	 *
+	 * @param n the nodes
+	 * @param alg the hash algorithm
+	 * @param w the weight of each server by address; servers not present
+	 *          have a weight of 1
+	 */
+	public RendezvousNodeLocator(List<MemcachedNode> n, HashAlgorithm alg,
+			Map<? extends SocketAddress, Integer> w) {
+		this(n, alg, w, HashTag.NONE);
+	}
+
+	/**
+	 * Construct a weighted RendezvousNodeLocator that hashes only the tag of
+	 * tagged keys.
+	 *
+	 * @param n the nodes
+	 * @param alg the hash algorithm
+	 * @param w the weight of each server by address; servers not present
+	 *          have a weight of 1
+	 * @param tag the hash tag convention
+	 */
+	public RendezvousNodeLocator(List<MemcachedNode> n, HashAlgorithm alg,
+			Map<? extends SocketAddress, Integer> w, HashTag tag) {
+		super();
+		nodes=n.toArray(new MemcachedNode[n.size()]);
+		hashAlg=alg;
+		hashTag=tag;
+		seeds=new long[nodes.length];
+		weights=new double[nodes.length];
+		boolean hasWeights=false;
+		for(int i=0; i<nodes.length; i++) {
+			String addr=String.valueOf(nodes[i].getSocketAddress());
+			if(addr.startsWith("/")) {
+				addr=addr.substring(1);
+			}
+			seeds[i]=mix(alg.hash(addr) * 0x9E3779B97F4A7C15L);
+			Integer nw=w.get(nodes[i].getSocketAddress());
+			if(nw == null) {
+				weights[i]=1;
+			} else {
+				if(nw <= 0) {
+					throw new IllegalArgumentException("Invalid weight " + nw
+						+ " for " + nodes[i].getSocketAddress());
+				}
+				weights[i]=nw;
+			}
+			hasWeights |= weights[i] != weights[0];
+		}
+		weighted=hasWeights;
+	}
+
+	private RendezvousNodeLocator(MemcachedNode[] n, long[] s, double[] w,
+			boolean isWeighted, HashAlgorithm alg, HashTag tag) {
+		super();
+		nodes=n;
+		seeds=s;
+		weights=w;
+		weighted=isWeighted;
+		hashAlg=alg;
+		hashTag=tag;
+	}
+
+	public Collection<MemcachedNode> getAll() {
+		return Arrays.asList(nodes);
+	}
+
+	public MemcachedNode getPrimary(String k) {
+		final long h=hashAlg.hash(hashTag.getHashKey(k));
+		int best=0;
+		double bestScore=score(h, 0);
+		for(int i=1; i<nodes.length; i++) {
+			double s=score(h, i);
+			if(s > bestScore) {
+				best=i;
+				bestScore=s;
+			}
+		}
+		return nodes[best];
+	}
+
+	public Iterator<MemcachedNode> getSequence(String k) {
+		return new RendezvousIterator(hashAlg.hash(hashTag.getHashKey(k)));
+	}
+
+	public NodeLocator getReadonlyCopy() {
+		MemcachedNode[] n=new MemcachedNode[nodes.length];
+		for(int i=0; i<nodes.length; i++) {
+			n[i] = new MemcachedNodeROImpl(nodes[i]);
+		}
+		return new RendezvousNodeLocator(n, seeds, weights, weighted, hashAlg,
+			hashTag);
+	}
+
+	// Score of the given node for the given key hash.  Higher wins.
+	private double score(long h, int node) {
+		long x=mix(h ^ seeds[node]);
+		if(!weighted) {
+			// Equal weights preserve the order of the raw hashes, so skip
+			// the logarithm.
+			return x >>> 11;
+		}
+		// Uniform value in (0, 1), then the weighted score -w / ln(u).
+		double u=((x >>> 11) + 0.5) / (1L << 53);
+		return -weights[node] / Math.log(u);
+	}
+
+	// 64-bit finalizer from MurmurHash3.
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	// Walks the nodes in descending score order, skipping the primary.  Each
+	// step rescans the nodes rather than sorting them up front.
+	class RendezvousIterator implements Iterator<MemcachedNode> {
+
+		private final long hashVal;
+		private double lastScore=Double.POSITIVE_INFINITY;
+		private int lastNode=-1;
+		private int remaining;
+
+		public RendezvousIterator(long h) {
+			super();
+			hashVal=h;
+			remaining=nodes.length;
+			// Position past the primary.
+			advance();
+		}
+
+		private int advance() {
+			int best=-1;
+			double bestScore=Double.NEGATIVE_INFINITY;
+			for(int i=0; i<nodes.length; i++) {
+				double s=score(hashVal, i);
+				boolean belowLast=s < lastScore
+					|| (s == lastScore && i > lastNode);
+				if(belowLast && (best == -1 || s > bestScore)) {
+					best=i;
+					bestScore=s;
+				}
+			}
+			lastNode=best;
+			lastScore=bestScore;
+			remaining--;
+			return best;
+		}
+
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		public MemcachedNode next() {
+			return nodes[advance()];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("Can't remove a node");
+		}
+
+	}
+}
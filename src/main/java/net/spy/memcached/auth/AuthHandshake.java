@@ -0,0 +1,109 @@
+package net.spy.memcached.auth;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Authenticates a newly established connection.
+ *
+ * <p>
+ * Each SASL step is sent as soon as the server answers the previous one,
+ * from the callback of the operation carrying it.  The handshake therefore
+ * runs on the IO thread and needs no thread or waiting of its own, however
+ * many connections authenticate at once.
+ * </p>
+ */
+public class AuthHandshake extends SpyObject implements OperationCallback {
+
+	private final MemcachedConnection conn;
+	private final OperationFactory opFact;
+	private final AuthDescriptor authDescriptor;
+	private final MemcachedNode node;
+
+	private volatile Operation current=null;
+	private volatile OperationStatus status=null;
+	private volatile boolean done=false;
+
+	public AuthHandshake(MemcachedConnection c, OperationFactory o,
+			AuthDescriptor a, MemcachedNode n) {
+		super();
+		conn = c;
+		opFact = o;
+		authDescriptor = a;
+		node = n;
+	}
+
+	/**
+	 * Send the first step of the handshake.
+	 */
+	public void start() {
+		send(null);
+	}
+
+	/**
+	 * Abandon the handshake.
+	 */
+	public void cancel() {
+		done=true;
+		Operation op=current;
+		if(op != null) {
+			op.cancel();
+		}
+	}
+
+	/**
+	 * True once the handshake succeeded, failed or was abandoned.
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	public void receivedStatus(OperationStatus val) {
+		status=val;
+	}
+
+	public void complete() {
+		OperationStatus st=status;
+		Operation op=current;
+		if(done || st == null || (op != null && op.isCancelled())) {
+			// Cancelled, most likely because the connection was lost.
+			done=true;
+			return;
+		}
+		if(st.getMessage().length() == 0) {
+			// An empty status means there are no more steps.
+			done=true;
+			node.authComplete();
+			getLogger().info("Authenticated to " + node.getSocketAddress());
+		} else if(!st.isSuccess()) {
+			done=true;
+			getLogger().warn("Authentication failed to "
+					+ node.getSocketAddress() + ": " + st.getMessage());
+		} else {
+			send(st);
+		}
+	}
+
+	private void send(OperationStatus prior) {
+		status=null;
+		Operation op;
+		if(prior == null) {
+			op=opFact.saslAuth(authDescriptor.mechs,
+					node.getSocketAddress().toString(), null,
+					authDescriptor.cbh, this);
+		} else {
+			op=opFact.saslStep(authDescriptor.mechs,
+					KeyUtil.getKeyBytes(prior.getMessage()),
+					node.getSocketAddress().toString(), null,
+					authDescriptor.cbh, this);
+		}
+		current=op;
+		conn.insertOperation(node, op);
+	}
+}
@@ -13,6 +13,13 @@ import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationStatus;
 
+/**
+ * Authenticates a connection from a thread of its own.
+ *
+ * @deprecated connections are authenticated on the IO thread by
+ *             {@link AuthHandshake}
+ */
+@Deprecated
 public class AuthThread extends SpyThread {
 
 	private final MemcachedConnection conn;
@@ -8,15 +8,15 @@ import net.spy.memcached.OperationFactory;
 import net.spy.memcached.compat.SpyObject;
 
 /**
- * This will ensure no more than one AuthThread will exist for a given
- * MemcachedNode.
+ * This will ensure no more than one authentication is in progress for a
+ * given MemcachedNode.
  */
 public class AuthThreadMonitor extends SpyObject {
 
-	private Map<Object, AuthThread> nodeMap;
+	private Map<Object, AuthHandshake> nodeMap;
 
 	public AuthThreadMonitor() {
-		nodeMap = new HashMap<Object, AuthThread>();
+		nodeMap = new HashMap<Object, AuthHandshake>();
 	}
 
 	/**
@@ -36,21 +36,18 @@ public class AuthThreadMonitor extends SpyObject {
 	public synchronized void authConnection(MemcachedConnection conn,
 		OperationFactory opFact, AuthDescriptor authDescriptor, MemcachedNode node) {
 			interruptOldAuth(node);
-			AuthThread newSASLAuthenticator = new AuthThread(conn, opFact,
+			AuthHandshake handshake = new AuthHandshake(conn, opFact,
 				authDescriptor, node);
-			nodeMap.put(node, newSASLAuthenticator);
+			nodeMap.put(node, handshake);
+			handshake.start();
 	}
 
 	private void interruptOldAuth(MemcachedNode nodeToStop) {
-		AuthThread toStop = nodeMap.get(nodeToStop);
-		if (toStop != null) {
-			if (toStop.isAlive()) {
-				getLogger().warn("Incomplete authentication interrupted for node " +
-					nodeToStop);
-				toStop.interrupt();
-			}
-
-			nodeMap.remove(nodeToStop);
+		AuthHandshake toStop = nodeMap.remove(nodeToStop);
+		if (toStop != null && !toStop.isDone()) {
+			getLogger().warn("Incomplete authentication interrupted for node " +
+				nodeToStop);
+			toStop.cancel();
 		}
 	}
 }
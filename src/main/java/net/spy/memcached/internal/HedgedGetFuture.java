@@ -0,0 +1,156 @@
+package net.spy.memcached.internal;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+
+/**
+ * Future for a get that may be sent to more than one server.
+ *
+ * <p>
+ * The first operation to answer supplies the value.  If every operation
+ * completes without answering, the future completes with the outcome of
+ * the primary operation.
+ * </p>
+ *
+ * Not intended for general use.
+ *
+ * @param <T> Type of object returned from the get
+ */
+public class HedgedGetFuture<T> implements Future<T> {
+
+	private final CountDownLatch latch=new CountDownLatch(1);
+	private final AtomicReference<Future<T>> objRef=
+		new AtomicReference<Future<T>>(null);
+	private final AtomicInteger outstanding=new AtomicInteger();
+	private final Collection<Operation> ops=
+		new ConcurrentLinkedQueue<Operation>();
+	private final long timeout;
+	private volatile Operation primary;
+	private volatile boolean answered=false;
+	private volatile boolean cancelled=false;
+
+	public HedgedGetFuture(long opTimeout) {
+		super();
+		timeout=opTimeout;
+	}
+
+	/**
+	 * Add an operation whose answer this future will accept.  The first
+	 * operation added is the primary.  Once the future's done, because it
+	 * was answered or every operation already completed, further operations
+	 * are refused and shouldn't be sent.
+	 *
+	 * @return true if the operation was added
+	 */
+	public boolean addOperation(Operation op) {
+		int n;
+		do {
+			n=outstanding.get();
+			if(isDone() || (n == 0 && primary != null)) {
+				return false;
+			}
+		} while(!outstanding.compareAndSet(n, n + 1));
+		if(primary == null) {
+			primary=op;
+		}
+		ops.add(op);
+		if(cancelled) {
+			op.cancel();
+		}
+		return true;
+	}
+
+	/**
+	 * Get the primary operation.
+	 */
+	public Operation getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * Supply the answer, if no other operation did already.
+	 *
+	 * @return true if this was the first answer
+	 */
+	public boolean answer(Future<T> val) {
+		synchronized(objRef) {
+			if(answered) {
+				return false;
+			}
+			objRef.set(val);
+			answered=true;
+		}
+		latch.countDown();
+		return true;
+	}
+
+	/**
+	 * Note that one of the operations completed.
+	 */
+	public void operationComplete() {
+		if(outstanding.decrementAndGet() == 0) {
+			latch.countDown();
+		}
+	}
+
+	public boolean cancel(boolean ign) {
+		assert primary != null : "No operation";
+		cancelled=true;
+		for(Operation op : ops) {
+			op.cancel();
+		}
+		// This isn't exactly correct, but it's close enough.  If we're in
+		// a writing state, we *probably* haven't started.
+		return primary.getState() == OperationState.WRITING;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		try {
+			return get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new RuntimeException(
+				"Timed out waiting for operation", e);
+		}
+	}
+
+	public T get(long duration, TimeUnit units)
+		throws InterruptedException, TimeoutException, ExecutionException {
+		if(!latch.await(duration, units)) {
+			MemcachedConnection.opTimedOut(primary);
+			throw new CheckedOperationTimeoutException(
+					"Timed out waiting for operation", primary);
+		} else {
+			MemcachedConnection.opSucceeded(primary);
+		}
+		if(!answered) {
+			if(primary.hasErrored()) {
+				throw new ExecutionException(primary.getException());
+			}
+			if(cancelled || primary.isCancelled()) {
+				throw new ExecutionException(
+					new RuntimeException("Cancelled"));
+			}
+		}
+		Future<T> v=objRef.get();
+		return v == null ? null : v.get();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDone() {
+		return latch.getCount() == 0 || cancelled;
+	}
+}
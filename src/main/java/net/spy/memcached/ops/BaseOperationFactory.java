@@ -20,7 +20,7 @@ public abstract class BaseOperationFactory implements OperationFactory {
 	}
 
 	public Collection<Operation> clone(KeyedOperation op) {
-		assert op.getState() == OperationState.WRITING || op.getState() == OperationState.RETRY
+		assert op.getState() != OperationState.COMPLETE
 			: "Who passed me an operation in the " + op.getState() + "state?";
 		assert !op.isCancelled() : "Attempted to clone a canceled op";
 		assert !op.hasErrored() : "Attempted to clone an errored op";
@@ -62,6 +62,22 @@ public abstract class BaseOperationFactory implements OperationFactory {
 		return rv;
 	}
 
+	public Collection<Operation> clone(GetOperation op,
+			Collection<? extends Collection<String>> keyGroups) {
+		assert op.getState() != OperationState.COMPLETE
+			: "Who passed me an operation in the " + op.getState() + "state?";
+		assert !op.isCancelled() : "Attempted to clone a canceled op";
+		assert !op.hasErrored() : "Attempted to clone an errored op";
+
+		Collection<Operation> rv = new ArrayList<Operation>(keyGroups.size());
+		GetOperation.Callback callback = new MultiGetOperationCallback(
+				op.getCallback(), keyGroups.size());
+		for(Collection<String> keys : keyGroups) {
+			rv.add(get(keys, callback));
+		}
+		return rv;
+	}
+
 	protected abstract Collection<? extends Operation> cloneGet(
 			KeyedOperation op);
 
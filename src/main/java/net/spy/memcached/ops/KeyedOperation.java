@@ -12,4 +12,16 @@ public interface KeyedOperation extends Operation, VBucketAware {
 	 */
 	Collection<String> getKeys();
 
+	/**
+	 * Get the number of times this operation was sent again after losing
+	 * its connection.
+	 */
+	int getReplays();
+
+	/**
+	 * Set the number of times this operation was sent again after losing
+	 * its connection.
+	 */
+	void setReplays(int to);
+
 }
@@ -80,4 +80,37 @@ public interface Operation {
 	 * @param to a memcached node
 	 */
 	void setHandlingNode(MemcachedNode to);
+
+	/**
+	 * Get the {@link System#nanoTime()} at which this operation was queued
+	 * by a caller, or 0 if it wasn't.
+	 */
+	long getEnqueueTime();
+
+	/**
+	 * Note the {@link System#nanoTime()} at which this operation was queued.
+	 */
+	void setEnqueueTime(long to);
+
+	/**
+	 * Get the bytes this operation is charged against its node's budget
+	 * until it's written, or 0 if it isn't charged.
+	 */
+	long getQueuedBytes();
+
+	/**
+	 * Set the bytes this operation is charged against its node's budget.
+	 */
+	void setQueuedBytes(long to);
+
+	/**
+	 * Get the priority class of this operation.  It defaults to the
+	 * priority of the thread that created it.
+	 */
+	OperationPriority getPriority();
+
+	/**
+	 * Set the priority class of this operation.
+	 */
+	void setPriority(OperationPriority to);
 }
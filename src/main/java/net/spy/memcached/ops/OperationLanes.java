@@ -0,0 +1,270 @@
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An operation queue with separate lanes for interactive and bulk
+ * operations.
+ *
+ * <p>
+ * Operations come out in weighted fair order: while both lanes have
+ * operations, one bulk operation is let through for every few interactive
+ * ones.  Either lane has the queue to itself while the other is empty.
+ * Each lane is bounded by the queue it's made of, so a full bulk lane only
+ * holds up bulk callers.
+ * </p>
+ *
+ * <p>
+ * Only one thread may take operations out.  What {@link #peek()} returns
+ * stays at the head until it's taken out, whatever is added in between,
+ * so an operation can be written a piece at a time.
+ * </p>
+ */
+public class OperationLanes extends AbstractQueue<Operation>
+	implements BlockingQueue<Operation> {
+
+	private final BlockingQueue<Operation> interactive;
+	private final BlockingQueue<Operation> bulk;
+	private final OperationSelector bulkOps;
+	private final int weight;
+	// Interactive operations taken since the last bulk one
+	private int served=0;
+	// The lane of the operation peek last returned, until it's taken out.
+	// A partly written operation must stay at the head.
+	private BlockingQueue<Operation> pinned=null;
+	// Threads waiting for an operation to be added; only changed while
+	// holding this queue's lock.
+	private volatile int waiting=0;
+
+	/**
+	 * Construct operation lanes.
+	 *
+	 * @param i the queue for interactive operations
+	 * @param b the queue for bulk operations
+	 * @param s selects operations for the bulk lane besides those with bulk
+	 *          priority; may be null
+	 * @param w the interactive operations taken for each bulk one
+	 */
+	public OperationLanes(BlockingQueue<Operation> i,
+			BlockingQueue<Operation> b, OperationSelector s, int w) {
+		super();
+		if(w < 1) {
+			throw new IllegalArgumentException("Invalid weight " + w);
+		}
+		interactive=i;
+		bulk=b;
+		bulkOps=s;
+		weight=w;
+	}
+
+	private BlockingQueue<Operation> laneFor(Operation op) {
+		return op.getPriority() == OperationPriority.BULK
+			|| (bulkOps != null && bulkOps.select(op)) ? bulk : interactive;
+	}
+
+	// The lane the next operation comes out of.
+	private BlockingQueue<Operation> nextLane() {
+		if(pinned != null && !pinned.isEmpty()) {
+			return pinned;
+		}
+		if(bulk.isEmpty()) {
+			return interactive;
+		}
+		return interactive.isEmpty() || served >= weight ? bulk : interactive;
+	}
+
+	private void took(BlockingQueue<Operation> lane) {
+		if(lane == bulk || bulk.isEmpty()) {
+			served=0;
+		} else {
+			served++;
+		}
+	}
+
+	// Wake up anyone waiting for the operation just added.  A waiter is
+	// counted before it looks at the lanes, so either it sees the
+	// operation or it's counted here.
+	private void added() {
+		if(waiting > 0) {
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+	}
+
+	public boolean offer(Operation op) {
+		boolean rv=laneFor(op).offer(op);
+		if(rv) {
+			added();
+		}
+		return rv;
+	}
+
+	public boolean offer(Operation op, long timeout, TimeUnit unit)
+		throws InterruptedException {
+		boolean rv=laneFor(op).offer(op, timeout, unit);
+		if(rv) {
+			added();
+		}
+		return rv;
+	}
+
+	public void put(Operation op) throws InterruptedException {
+		laneFor(op).put(op);
+		added();
+	}
+
+	public synchronized Operation poll() {
+		BlockingQueue<Operation> lane=nextLane();
+		Operation rv=lane.poll();
+		if(rv != null) {
+			took(lane);
+		}
+		pinned=null;
+		return rv;
+	}
+
+	public synchronized Operation peek() {
+		BlockingQueue<Operation> lane=nextLane();
+		Operation rv=lane.peek();
+		pinned=rv == null ? null : lane;
+		return rv;
+	}
+
+	public synchronized Operation poll(long timeout, TimeUnit unit)
+		throws InterruptedException {
+		long end=System.nanoTime() + unit.toNanos(timeout);
+		waiting++;
+		try {
+			Operation rv=poll();
+			long left=end - System.nanoTime();
+			while(rv == null && left > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+				rv=poll();
+				left=end - System.nanoTime();
+			}
+			return rv;
+		} finally {
+			waiting--;
+		}
+	}
+
+	public synchronized Operation take() throws InterruptedException {
+		waiting++;
+		try {
+			Operation rv=poll();
+			while(rv == null) {
+				wait();
+				rv=poll();
+			}
+			return rv;
+		} finally {
+			waiting--;
+		}
+	}
+
+	public int drainTo(Collection<? super Operation> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	public synchronized int drainTo(Collection<? super Operation> c,
+			int max) {
+		int rv=0;
+		Operation op=null;
+		while(rv < max && (op=poll()) != null) {
+			c.add(op);
+			rv++;
+		}
+		return rv;
+	}
+
+	/**
+	 * Move operations to another queue in the order they'd be taken out,
+	 * for as long as it accepts them.  A lane whose next operation is
+	 * refused keeps it and everything behind it, while the other lane goes
+	 * on, so a full bulk lane downstream doesn't hold up interactive
+	 * operations.
+	 *
+	 * @param to the queue to move operations to
+	 * @param max the most operations to move
+	 * @return the number of operations moved
+	 */
+	public synchronized int transferTo(BlockingQueue<Operation> to,
+			int max) {
+		int rv=0;
+		boolean interactiveOpen=true;
+		boolean bulkOpen=true;
+		while(rv < max && (interactiveOpen || bulkOpen)) {
+			BlockingQueue<Operation> lane=!bulkOpen ? interactive
+				: !interactiveOpen ? bulk : nextLane();
+			Operation op=lane.peek();
+			if(op == null) {
+				break;
+			}
+			if(to.offer(op)) {
+				Operation taken=lane.poll();
+				assert taken == op : "Expected " + op + ", took " + taken;
+				took(lane);
+				rv++;
+			} else if(lane == bulk) {
+				bulkOpen=false;
+			} else {
+				interactiveOpen=false;
+			}
+		}
+		pinned=null;
+		return rv;
+	}
+
+	public int remainingCapacity() {
+		// Either lane might have to take all of them.  Use
+		// transferTo to fill each lane as far as it goes.
+		return Math.min(interactive.remainingCapacity(),
+			bulk.remainingCapacity());
+	}
+
+	@Override
+	public int size() {
+		return interactive.size() + bulk.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return interactive.isEmpty() && bulk.isEmpty();
+	}
+
+	@Override
+	public Iterator<Operation> iterator() {
+		return new Iterator<Operation>() {
+			private Iterator<Operation> current=interactive.iterator();
+			// The iterator the last operation came from
+			private Iterator<Operation> last=current;
+			private boolean inBulk=false;
+
+			public boolean hasNext() {
+				if(!current.hasNext() && !inBulk) {
+					current=bulk.iterator();
+					inBulk=true;
+				}
+				return current.hasNext();
+			}
+
+			public Operation next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				last=current;
+				return current.next();
+			}
+
+			public void remove() {
+				last.remove();
+			}
+		};
+	}
+}
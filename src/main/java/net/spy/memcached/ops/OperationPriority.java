@@ -0,0 +1,50 @@
+package net.spy.memcached.ops;
+
+/**
+ * Priority classes of operations.
+ *
+ * <p>
+ * Each node queues bulk operations in a lane of their own, and sends them
+ * only in between interactive ones, so bulk traffic doesn't hold up the
+ * operations callers are waiting on.
+ * </p>
+ */
+public enum OperationPriority {
+
+	/**
+	 * Operations a caller is waiting on, such as single key gets.
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Background traffic, such as loads, large multi-gets and broadcasts.
+	 */
+	BULK;
+
+	private static final ThreadLocal<OperationPriority> current=
+		new ThreadLocal<OperationPriority>() {
+			@Override
+			protected OperationPriority initialValue() {
+				return INTERACTIVE;
+			}
+		};
+
+	/**
+	 * Get the priority of operations created by the current thread.
+	 */
+	public static OperationPriority forCurrentThread() {
+		return current.get();
+	}
+
+	/**
+	 * Set the priority of operations created by the current thread.
+	 *
+	 * @param to the new priority
+	 * @return the previous priority, for restoring it
+	 */
+	public static OperationPriority setForCurrentThread(OperationPriority to) {
+		OperationPriority rv=current.get();
+		current.set(to);
+		return rv;
+	}
+}
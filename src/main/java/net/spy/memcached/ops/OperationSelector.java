@@ -0,0 +1,13 @@
+package net.spy.memcached.ops;
+
+/**
+ * Chooses operations out of a queue, for example to move them elsewhere.
+ */
+public interface OperationSelector {
+
+	/**
+	 * True if the given operation should be selected.
+	 */
+	boolean select(Operation op);
+
+}
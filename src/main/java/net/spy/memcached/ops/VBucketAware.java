@@ -5,4 +5,26 @@ package net.spy.memcached.ops;
  */
 public interface VBucketAware {
     void setVBucket(int vbucket);
+
+    /**
+     * Set the vbucket of one of this operation's keys.
+     */
+    void setVBucket(String key, int vbucket);
+
+    /**
+     * Get the vbucket of one of this operation's keys.
+     */
+    int getVBucket(String key);
+
+    /**
+     * Get the number of times this operation (or the operation it was
+     * cloned from) was sent to a server that didn't own its vbucket.
+     */
+    int getVBucketRetries();
+
+    /**
+     * Set the number of times this operation was sent to a server that
+     * didn't own its vbucket.
+     */
+    void setVBucketRetries(int to);
 }
@@ -9,6 +9,7 @@ import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationPriority;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 
@@ -29,6 +30,12 @@ public abstract class BaseOperationImpl extends SpyObject {
 	protected OperationCallback callback = null;
 	private volatile MemcachedNode handlingNode = null;
     protected int vbucket;
+    private int vbucketRetries = 0;
+	private int replays = 0;
+	private long enqueueTime = 0;
+	private long queuedBytes = 0;
+	private OperationPriority priority =
+		OperationPriority.forCurrentThread();
 
 	public BaseOperationImpl() {
 		super();
@@ -147,4 +154,52 @@ public abstract class BaseOperationImpl extends SpyObject {
         this.vbucket = vbucket;
     }
 
+    public void setVBucket(String key, int vbucket) {
+        setVBucket(vbucket);
+    }
+
+    public int getVBucket(String key) {
+        return vbucket;
+    }
+
+    public int getVBucketRetries() {
+        return vbucketRetries;
+    }
+
+    public void setVBucketRetries(int to) {
+        vbucketRetries = to;
+    }
+
+	public int getReplays() {
+		return replays;
+	}
+
+	public void setReplays(int to) {
+		replays = to;
+	}
+
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	public void setEnqueueTime(long to) {
+		enqueueTime = to;
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	public void setQueuedBytes(long to) {
+		queuedBytes = to;
+	}
+
+	public OperationPriority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(OperationPriority to) {
+		priority = to;
+	}
+
 }
@@ -0,0 +1,128 @@
+package net.spy.memcached.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit on the bytes of operations waiting to be sent, or of responses
+ * waiting to be consumed.
+ *
+ * <p>
+ * A budget may have a parent it draws on as well, so each node can have a
+ * budget of its own within one shared by the whole client.  An operation
+ * bigger than a whole budget is let in once the budget is empty, rather
+ * than never.
+ * </p>
+ */
+public class ByteBudget {
+
+	private final long max;
+	private final ByteBudget parent;
+	private long used=0;
+
+	/**
+	 * Construct a budget.
+	 *
+	 * @param m the most bytes the budget allows
+	 * @param p the budget this one draws on as well, or null
+	 */
+	public ByteBudget(long m, ByteBudget p) {
+		super();
+		if(m < 1) {
+			throw new IllegalArgumentException(
+				"Budget must be at least one byte, was " + m);
+		}
+		max=m;
+		parent=p;
+	}
+
+	/**
+	 * Take the given bytes from the budget, waiting for them to become
+	 * available if need be.
+	 *
+	 * @param bytes the bytes to take
+	 * @param timeout how long to wait, in milliseconds
+	 * @return false if the bytes didn't become available in time
+	 */
+	public boolean acquire(long bytes, long timeout)
+		throws InterruptedException {
+		long deadline=System.nanoTime()
+			+ TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 0));
+		if(!take(bytes, deadline)) {
+			return false;
+		}
+		if(parent != null && !parent.acquire(bytes, TimeUnit.NANOSECONDS
+				.toMillis(deadline - System.nanoTime()))) {
+			release(bytes, false);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Take the given bytes from the budget without waiting, even if that
+	 * overdraws it.
+	 */
+	public void force(long bytes) {
+		synchronized(this) {
+			used += bytes;
+		}
+		if(parent != null) {
+			parent.force(bytes);
+		}
+	}
+
+	/**
+	 * Give back bytes taken from the budget.
+	 */
+	public void release(long bytes) {
+		release(bytes, true);
+	}
+
+	/**
+	 * True if this budget, or one it draws on, has no bytes left.
+	 */
+	public boolean isExhausted() {
+		synchronized(this) {
+			if(used >= max) {
+				return true;
+			}
+		}
+		return parent != null && parent.isExhausted();
+	}
+
+	/**
+	 * Get the bytes currently taken from this budget.
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	private synchronized boolean take(long bytes, long deadline)
+		throws InterruptedException {
+		while(used > 0 && used + bytes > max) {
+			long remaining=deadline - System.nanoTime();
+			if(remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		used += bytes;
+		return true;
+	}
+
+	private void release(long bytes, boolean fromParent) {
+		synchronized(this) {
+			used -= bytes;
+			assert used >= 0 : "Released more than was taken: " + used;
+			notifyAll();
+		}
+		if(fromParent && parent != null) {
+			parent.release(bytes);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "{ByteBudget used=" + used + ", max=" + max + "}";
+	}
+}
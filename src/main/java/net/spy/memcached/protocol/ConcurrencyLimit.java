@@ -0,0 +1,92 @@
+package net.spy.memcached.protocol;
+
+/**
+ * An adaptive limit on the operations a node has in flight.
+ *
+ * <p>
+ * The limit works like TCP's congestion window.  A new connection starts
+ * with a small window, which grows by one for every answered operation
+ * until it reaches the slow start threshold, doubling each round trip, and
+ * by one per window of answered operations after that.  A timeout of an
+ * operation the server was sent halves the window, at most once per window
+ * of answers.  A reconnect starts
+ * over from the initial window, with the threshold at half the window the
+ * connection had reached, so a recovering server is eased back into load
+ * rather than sent everything queued for it at once.
+ * </p>
+ */
+public class ConcurrencyLimit {
+
+	// Keeps the window from growing without bound on a healthy connection.
+	private static final double MAX_WINDOW = 1 << 20;
+
+	private final int initial;
+	private double window;
+	private double threshold;
+	// Answers still to come before a timeout may shrink the window again
+	private double decreaseHold=0;
+
+	/**
+	 * Construct a limit.
+	 *
+	 * @param initialWindow the window of a new connection
+	 */
+	public ConcurrencyLimit(int initialWindow) {
+		super();
+		if(initialWindow < 1) {
+			throw new IllegalArgumentException(
+				"Initial window must be at least one, was " + initialWindow);
+		}
+		initial=initialWindow;
+		window=initialWindow;
+		threshold=MAX_WINDOW;
+	}
+
+	/**
+	 * Get the number of operations that may be in flight.
+	 */
+	public synchronized int getLimit() {
+		return (int)window;
+	}
+
+	/**
+	 * Note an answered operation.
+	 */
+	public synchronized void answered() {
+		if(window < threshold) {
+			window += 1;
+		} else {
+			window += 1 / window;
+		}
+		window=Math.min(window, MAX_WINDOW);
+		decreaseHold=Math.max(decreaseHold - 1, 0);
+	}
+
+	/**
+	 * Note an operation that timed out.
+	 */
+	public synchronized void timedOut() {
+		if(decreaseHold <= 0) {
+			window=Math.max(window / 2, initial);
+			threshold=window;
+			decreaseHold=window;
+		}
+	}
+
+	/**
+	 * Start over after a new connection was established.
+	 */
+	public synchronized void reset() {
+		if(window > initial) {
+			threshold=Math.max(window / 2, initial);
+		}
+		window=initial;
+		decreaseHold=0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "{ConcurrencyLimit window=" + (int)window
+			+ ", threshold=" + (int)threshold + "}";
+	}
+}
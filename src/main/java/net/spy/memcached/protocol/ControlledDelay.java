@@ -0,0 +1,98 @@
+package net.spy.memcached.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when operations have waited too long to be worth sending, in the
+ * manner of the CoDel queue management algorithm.
+ *
+ * <p>
+ * Short bursts of queueing are fine, so nothing is dropped until the time
+ * operations wait stays above the target for a whole interval.  From then
+ * on operations are dropped from the head of the queue, more often the
+ * longer the delay stays high, until an operation gets through within the
+ * target.  Callers whose operations would be sent after they've given up
+ * waiting don't hold up the rest.
+ * </p>
+ *
+ * <p>
+ * This is only to be used from the IO thread.
+ * </p>
+ */
+public class ControlledDelay {
+
+	private final long target;
+	private final long interval;
+	// When the delay will have been above target for an interval, or 0
+	private long firstAboveTime=0;
+	// When the next operation is dropped while dropping
+	private long dropNext=0;
+	// Operations dropped since dropping started
+	private int count=0;
+	private boolean dropping=false;
+
+	/**
+	 * Construct a controlled delay policy.
+	 *
+	 * @param t the target delay in milliseconds
+	 * @param i the interval in milliseconds the delay may stay above target
+	 */
+	public ControlledDelay(long t, long i) {
+		super();
+		if(t <= 0 || i <= 0) {
+			throw new IllegalArgumentException("Invalid target " + t
+				+ " or interval " + i);
+		}
+		target=TimeUnit.MILLISECONDS.toNanos(t);
+		interval=TimeUnit.MILLISECONDS.toNanos(i);
+	}
+
+	/**
+	 * Decide whether to drop an operation leaving the queue.
+	 *
+	 * @param sojourn how long the operation waited, in nanoseconds
+	 * @param now the current {@link System#nanoTime()}
+	 * @return true if the operation should be dropped
+	 */
+	public boolean shouldDrop(long sojourn, long now) {
+		if(sojourn < target) {
+			firstAboveTime=0;
+			dropping=false;
+			return false;
+		}
+		if(firstAboveTime == 0) {
+			firstAboveTime=now + interval;
+			return false;
+		}
+		if(now - firstAboveTime < 0) {
+			return false;
+		}
+		if(!dropping) {
+			dropping=true;
+			// Pick up near the old drop rate if dropping stopped only
+			// recently.
+			count = count > 2 && now - dropNext < 8 * interval
+				? count - 2 : 1;
+			dropNext=controlLaw(now);
+			return true;
+		}
+		if(now - dropNext >= 0) {
+			count++;
+			dropNext=controlLaw(dropNext);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * True while operations are being dropped.
+	 */
+	public boolean isDropping() {
+		return dropping;
+	}
+
+	// Drops get closer together with the square root of their number.
+	private long controlLaw(long t) {
+		return t + (long)(interval / Math.sqrt(count));
+	}
+}
@@ -7,14 +7,18 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationLanes;
+import net.spy.memcached.ops.OperationSelector;
 import net.spy.memcached.ops.OperationState;
 
 /**
@@ -37,6 +41,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	private SocketChannel channel;
 	private int toWrite=0;
 	protected Operation optimizedOp=null;
+	// The budget charged for the operations merged into optimizedOp
+	private long optimizedBytes=0;
 	private volatile SelectionKey sk=null;
 	private boolean shouldAuth=false;
 	private CountDownLatch authLatch;
@@ -44,12 +50,38 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 
 	// operation Future.get timeout counter
 	private final AtomicInteger continuousTimeout = new AtomicInteger(0);
+	// Smoothed health check round trip time in microseconds, -1 if unknown
+	private volatile long latency=-1;
+	// Limits the operations in flight, null if there's no limit
+	private final ConcurrencyLimit limit;
+	// Counts, and may limit, the bytes of operations waiting to be written
+	private final ByteBudget budget;
+	// Counts the bytes of responses waiting to be consumed; reading stops
+	// while it's exhausted
+	private final ByteBudget receiveBudget;
+	// Drops operations that waited too long to send, null to send them all
+	private final ControlledDelay codel;
+	// The thread writing to the connection: the IO thread, a caller writing
+	// directly, or null
+	private final AtomicReference<Thread> writer=
+		new AtomicReference<Thread>();
 
 
 	public TCPMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
 			int bufSize, BlockingQueue<Operation> rq,
 			BlockingQueue<Operation> wq, BlockingQueue<Operation> iq,
 			long opQueueMaxBlockTime, boolean waitForAuth) {
+		this(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTime, waitForAuth,
+			null, new ByteBudget(Long.MAX_VALUE, null),
+			new ByteBudget(Long.MAX_VALUE, null), null);
+	}
+
+	public TCPMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
+			int bufSize, BlockingQueue<Operation> rq,
+			BlockingQueue<Operation> wq, BlockingQueue<Operation> iq,
+			long opQueueMaxBlockTime, boolean waitForAuth,
+			ConcurrencyLimit l, ByteBudget b, ByteBudget rb,
+			ControlledDelay cd) {
 		super();
 		assert sa != null : "No SocketAddress";
 		assert c != null : "No SocketChannel";
@@ -66,6 +98,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 		writeQ=wq;
 		inputQueue=iq;
 		this.opQueueMaxBlockTime = opQueueMaxBlockTime;
+		limit=l;
+		assert b != null : "No byte budget";
+		budget=b;
+		assert rb != null : "No receive budget";
+		receiveBudget=rb;
+		codel=cd;
 		shouldAuth = waitForAuth;
 		setupForAuth();
 	}
@@ -74,12 +112,34 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	 * @see net.spy.memcached.MemcachedNode#copyInputQueue()
 	 */
 	public final void copyInputQueue() {
-		Collection<Operation> tmp=new ArrayList<Operation>();
-
-		// don't drain more than we have space to place
-		inputQueue.drainTo(tmp, writeQ.remainingCapacity());
+		boolean claimed=claimWrites();
+		try {
+			copyInputQueueClaimed();
+		} finally {
+			releaseWrites(claimed);
+		}
+	}
 
-		writeQ.addAll(tmp);
+	private void copyInputQueueClaimed() {
+		// don't drain more than the server may have in flight
+		int max=Integer.MAX_VALUE;
+		if(limit != null) {
+			max=limit.getLimit() - readQ.size() - writeQ.size();
+			if(max <= 0) {
+				return;
+			}
+		}
+		// The operations stay charged to the budget until they're written.
+		if(inputQueue instanceof OperationLanes) {
+			// Each lane goes as far as there's room for it in the write
+			// queue.
+			((OperationLanes)inputQueue).transferTo(writeQ, max);
+		} else {
+			// nor more than we have space to place
+			Collection<Operation> tmp=new ArrayList<Operation>();
+			inputQueue.drainTo(tmp, Math.min(max, writeQ.remainingCapacity()));
+			writeQ.addAll(tmp);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -88,6 +148,32 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	public Collection<Operation> destroyInputQueue() {
 		Collection<Operation> rv=new ArrayList<Operation>();
 		inputQueue.drainTo(rv);
+		dequeued(rv);
+		return rv;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#removeQueuedOps(net.spy.memcached.ops.OperationSelector)
+	 */
+	public final Collection<Operation> removeQueuedOps(OperationSelector s) {
+		Collection<Operation> rv=new ArrayList<Operation>();
+		// The current write op may already be partially written.
+		Operation current=getCurrentWriteOp();
+		for(Iterator<Operation> i=writeQ.iterator(); i.hasNext(); ) {
+			Operation op=i.next();
+			if(op != current && s.select(op)) {
+				i.remove();
+				rv.add(op);
+			}
+		}
+		for(Iterator<Operation> i=inputQueue.iterator(); i.hasNext(); ) {
+			Operation op=i.next();
+			if(s.select(op)) {
+				i.remove();
+				rv.add(op);
+			}
+		}
+		dequeued(rv);
 		return rv;
 	}
 
@@ -95,6 +181,15 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	 * @see net.spy.memcached.MemcachedNode#setupResend()
 	 */
 	public final void setupResend() {
+		boolean claimed=claimWrites();
+		try {
+			setupResendClaimed();
+		} finally {
+			releaseWrites(claimed);
+		}
+	}
+
+	private void setupResendClaimed() {
 		// First, reset the current write op, or cancel it if we should
 		// be authenticating
 		Operation op=getCurrentWriteOp();
@@ -109,8 +204,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 				removeCurrentWriteOp();
 			}
 		}
-		// Now cancel all the pending read operations.  Might be better to
-		// to requeue them.
+		// Now cancel the pending read operations.  The connection has
+		// already taken out those it will send again.
 		while(hasReadOp()) {
 			op=removeCurrentReadOp();
 			if (op != getCurrentWriteOp()) {
@@ -139,7 +234,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 
 		// Now check the ops
 		Operation nextOp=getCurrentWriteOp();
-		while(nextOp != null && nextOp.isCancelled()) {
+		while(nextOp != null && (nextOp.isCancelled() || shed(nextOp))) {
 			getLogger().info("Removing cancelled operation: %s", nextOp);
 			removeCurrentWriteOp();
 			nextOp=getCurrentWriteOp();
@@ -147,13 +242,45 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 		return nextOp != null;
 	}
 
+	// Cancel the given operation if it waited too long to be worth sending.
+	// Only operations callers queued that haven't started writing qualify.
+	private boolean shed(Operation op) {
+		long queued=op.getEnqueueTime();
+		ByteBuffer buf=op.getBuffer();
+		if(codel == null || queued == 0 || buf == null
+				|| buf.position() != 0) {
+			return false;
+		}
+		long now=System.nanoTime();
+		if(codel.shouldDrop(now - queued, now)) {
+			getLogger().debug("Shedding %s after waiting %dms", op,
+				TimeUnit.NANOSECONDS.toMillis(now - queued));
+			op.cancel();
+			return true;
+		}
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.MemcachedNode#fillWriteBuffer(boolean)
 	 */
 	public final void fillWriteBuffer(boolean shouldOptimize) {
+		boolean claimed=claimWrites();
+		try {
+			fillWriteBufferClaimed(shouldOptimize);
+		} finally {
+			releaseWrites(claimed);
+		}
+	}
+
+	private void fillWriteBufferClaimed(boolean shouldOptimize) {
 		if(toWrite == 0 && readQ.remainingCapacity() > 0) {
 			getWbuf().clear();
 			Operation o=getCurrentWriteOp();
+			while(o != null && shed(o)) {
+				removeCurrentWriteOp();
+				o=getCurrentWriteOp();
+			}
 			while(o != null && toWrite < getWbuf().capacity()) {
 				assert o.getState() == OperationState.WRITING;
 				// This isn't the most optimal way to do this, but it hints
@@ -222,7 +349,13 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	 * @see net.spy.memcached.MemcachedNode#removeCurrentReadOp()
 	 */
 	public final Operation removeCurrentReadOp() {
-		return readQ.remove();
+		Operation rv=readQ.remove();
+		if(limit != null && rv.getState() == OperationState.COMPLETE) {
+			limit.answered();
+			// Ops held back by the limit may go now.
+			copyInputQueue();
+		}
+		return rv;
 	}
 
 	/* (non-Javadoc)
@@ -239,12 +372,27 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 		Operation rv=optimizedOp;
 		if(rv == null) {
 			rv=writeQ.remove();
+			uncharge(rv);
 		} else {
 			optimizedOp=null;
+			budget.release(optimizedBytes);
+			optimizedBytes=0;
 		}
 		return rv;
 	}
 
+	/**
+	 * Take the next operation off the write queue to merge it into
+	 * {@link #optimizedOp}.  Its bytes stay charged until the merged
+	 * operation is written.
+	 */
+	protected final Operation removeForOptimize() {
+		Operation rv=writeQ.remove();
+		optimizedBytes += rv.getQueuedBytes();
+		rv.setQueuedBytes(0);
+		return rv;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.MemcachedNode#hasReadOp()
 	 */
@@ -263,6 +411,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	 * @see net.spy.memcached.MemcachedNode#addOp(net.spy.memcached.ops.Operation)
 	 */
 	public final void addOp(Operation op) {
+		op.setEnqueueTime(System.nanoTime());
 		try {
 			if (!authLatch.await(1, TimeUnit.SECONDS)) {
 			    op.cancel();
@@ -273,8 +422,18 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 				getLogger().debug("Canceled operation %s", op.toString());
 				return;
 			}
-			if(!inputQueue.offer(op, opQueueMaxBlockTime,
-					TimeUnit.MILLISECONDS)) {
+			long start=System.currentTimeMillis();
+			long bytes=queuedBytes(op);
+			if(!budget.acquire(bytes, opQueueMaxBlockTime)) {
+				throw new IllegalStateException("Timed out waiting to add "
+						+ op + "(max wait=" + opQueueMaxBlockTime + "ms, "
+						+ budget + ")");
+			}
+			op.setQueuedBytes(bytes);
+			long wait=opQueueMaxBlockTime
+				- (System.currentTimeMillis() - start);
+			if(!inputQueue.offer(op, wait, TimeUnit.MILLISECONDS)) {
+				uncharge(op);
 				throw new IllegalStateException("Timed out waiting to add "
 						+ op + "(max wait=" + opQueueMaxBlockTime + "ms)");
 			}
@@ -293,17 +452,91 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 		ArrayList<Operation> tmp = new ArrayList<Operation>(
 				inputQueue.size() + 1);
 		tmp.add(op);
+		// Operations the connection inserts itself aren't held back.
+		forceCharge(op);
 		inputQueue.drainTo(tmp);
 		inputQueue.addAll(tmp);
 	}
 
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#insertOps(java.util.Collection)
+	 */
+	public final void insertOps(Collection<Operation> ops) {
+		ArrayList<Operation> tmp = new ArrayList<Operation>(
+				inputQueue.size() + ops.size());
+		tmp.addAll(ops);
+		for(Operation op : ops) {
+			forceCharge(op);
+		}
+		inputQueue.drainTo(tmp);
+		for(Operation op : tmp) {
+			if(!inputQueue.offer(op)) {
+				getLogger().warn("Input queue full, cancelling %s", op);
+				uncharge(op);
+				op.cancel();
+			}
+		}
+	}
+
+	// Give back the budget taken by operations leaving the node unwritten.
+	private void dequeued(Collection<Operation> ops) {
+		long bytes=0;
+		for(Operation op : ops) {
+			bytes += op.getQueuedBytes();
+			op.setQueuedBytes(0);
+		}
+		budget.release(bytes);
+	}
+
+	// Charge an operation the connection queues itself to the budget.
+	private void forceCharge(Operation op) {
+		long bytes=queuedBytes(op);
+		budget.force(bytes);
+		op.setQueuedBytes(bytes);
+	}
+
+	// Give back the budget an operation was charged.  Its buffer is gone
+	// once it's written or cancelled, so the charge is kept on the op.
+	private void uncharge(Operation op) {
+		budget.release(op.getQueuedBytes());
+		op.setQueuedBytes(0);
+	}
+
+	// The bytes an operation takes up while it waits to be sent.  Its
+	// buffer isn't touched until it's written.
+	private static long queuedBytes(Operation op) {
+		ByteBuffer buf=op.getBuffer();
+		return buf == null ? 0 : buf.remaining();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#getReceiveBudget()
+	 */
+	public final ByteBudget getReceiveBudget() {
+		return receiveBudget;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#getQueuedBytes()
+	 */
+	public final long getQueuedBytes() {
+		return budget.getUsed();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#getInputQueueSize()
+	 */
+	public final int getInputQueueSize() {
+		return inputQueue.size();
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.MemcachedNode#getSelectionOps()
 	 */
 	public final int getSelectionOps() {
 		int rv=0;
 		if(getChannel().isConnected()) {
-			if(hasReadOp()) {
+			if(hasReadOp() && !receiveBudget.isExhausted()) {
 				rv |= SelectionKey.OP_READ;
 			}
 			if(toWrite > 0 || hasWriteOp()) {
@@ -358,6 +591,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	public final void connected() {
 		reconnectAttempt=0;
 		continuousTimeout.set(0);
+		if(limit != null) {
+			limit.reset();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -437,7 +673,16 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	 * @see net.spy.memcached.MemcachedNode#writeSome()
 	 */
 	public final int writeSome() throws IOException {
-		int wrote=channel.write(wbuf);
+		boolean claimed=claimWrites();
+		try {
+			return writeSomeClaimed(channel);
+		} finally {
+			releaseWrites(claimed);
+		}
+	}
+
+	private int writeSomeClaimed(SocketChannel ch) throws IOException {
+		int wrote=ch.write(wbuf);
 		assert wrote >= 0 : "Wrote negative bytes?";
 		toWrite -= wrote;
 		assert toWrite >= 0
@@ -448,6 +693,94 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 	}
 
 
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#writeDirect(net.spy.memcached.ops.Operation)
+	 */
+	public final boolean writeDirect(Operation op) {
+		if(!writer.compareAndSet(null, Thread.currentThread())) {
+			return false;
+		}
+		try {
+			ByteBuffer obuf=op.getBuffer();
+			// The IO thread only tears the connection down while it holds
+			// the claim, so these stay put until the write is done.
+			SocketChannel ch=channel;
+			SelectionKey s=sk;
+			if(reconnectAttempt != 0 || ch == null || !ch.isConnected()
+					|| s == null || !s.isValid()
+					|| authLatch.getCount() > 0
+					|| toWrite > 0 || hasWriteOp() || !inputQueue.isEmpty()
+					|| readQ.remainingCapacity() == 0
+					|| (limit != null && readQ.size() >= limit.getLimit())
+					|| op.isCancelled() || obuf == null
+					|| obuf.position() != 0
+					|| obuf.remaining() > wbuf.capacity()) {
+				return false;
+			}
+			assert op.getState() == OperationState.WRITING;
+			// Same as the IO thread does, but for just this operation.
+			wbuf.clear();
+			wbuf.put(obuf);
+			wbuf.flip();
+			toWrite=wbuf.remaining();
+			readQ.add(op);
+			op.writeComplete();
+			try {
+				writeSomeClaimed(ch);
+			} catch(IOException e) {
+				// The IO thread finds out when it tries the rest.
+				getLogger().debug("Direct write of %s failed", op, e);
+			} catch(RuntimeException e) {
+				// The operation is the connection's now; it's answered,
+				// replayed or cancelled along with the others.
+				getLogger().warn("Direct write of %s failed", op, e);
+			}
+			getLogger().debug("Wrote %s directly, %d bytes left", op, toWrite);
+			return true;
+		} finally {
+			writer.set(null);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#claimWrites()
+	 */
+	public final boolean claimWrites() {
+		Thread t=Thread.currentThread();
+		if(writer.get() == t) {
+			return false;
+		}
+		while(!writer.compareAndSet(null, t)) {
+			Thread.yield();
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#releaseWrites(boolean)
+	 */
+	public final void releaseWrites(boolean claimed) {
+		if(claimed) {
+			writer.set(null);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#recordLatency(long)
+	 */
+	public final void recordLatency(long micros) {
+		long l=latency;
+		// Weigh each sample by 1/8, like TCP's smoothed round trip time.
+		latency = l < 0 ? micros : l + (micros - l) / 8;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#getLatencyEstimate()
+	 */
+	public final long getLatencyEstimate() {
+		return latency;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.spy.memcached.MemcachedNode#setContinuousTimeout
 	 */
@@ -466,6 +799,15 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject
 		return continuousTimeout.get();
 	}
 
+	/* (non-Javadoc)
+	 * @see net.spy.memcached.MemcachedNode#responseTimedOut()
+	 */
+	public void responseTimedOut() {
+		if(limit != null) {
+			limit.timedOut();
+		}
+	}
+
 
 	public final void fixupOps() {
 		// As the selection key can be changed at any point due to node
@@ -7,6 +7,9 @@ import java.util.concurrent.BlockingQueue;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.protocol.ByteBudget;
+import net.spy.memcached.protocol.ConcurrencyLimit;
+import net.spy.memcached.protocol.ControlledDelay;
 import net.spy.memcached.protocol.ProxyCallback;
 import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
 
@@ -21,19 +24,29 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 		super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, false); /* ascii never does auth */
 	}
 
+	public AsciiMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
+			int bufSize, BlockingQueue<Operation> rq,
+			BlockingQueue<Operation> wq, BlockingQueue<Operation> iq,
+			Long opQueueMaxBlockTimeNs, ConcurrencyLimit limit,
+			ByteBudget budget, ByteBudget receiveBudget,
+			ControlledDelay codel) {
+		super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, false,
+			limit, budget, receiveBudget, codel);
+	}
+
 	@Override
 	protected void optimize() {
 		// make sure there are at least two get operations in a row before
 		// attempting to optimize them.
 		if(writeQ.peek() instanceof GetOperation) {
-			optimizedOp=writeQ.remove();
+			optimizedOp=removeForOptimize();
 			if(writeQ.peek() instanceof GetOperation) {
 				OptimizedGetImpl og=new OptimizedGetImpl(
 						(GetOperation)optimizedOp);
 				optimizedOp=og;
 
 				while(writeQ.peek() instanceof GetOperation) {
-					GetOperationImpl o=(GetOperationImpl) writeQ.remove();
+					GetOperationImpl o=(GetOperationImpl) removeForOptimize();
 					if(!o.isCancelled()) {
 						og.addOperation(o);
 					}
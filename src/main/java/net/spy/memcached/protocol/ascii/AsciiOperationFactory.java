@@ -46,6 +46,11 @@ public class AsciiOperationFactory extends BaseOperationFactory {
 		return new GetOperationImpl(key, cb);
 	}
 
+	public GetOperation replicaGet(String key, GetOperation.Callback cb) {
+		throw new UnsupportedOperationException(
+			"Replica reads are not supported with the ascii protocol");
+	}
+
 	public GetOperation get(Collection<String> keys, GetOperation.Callback cb) {
 		return new GetOperationImpl(keys, cb);
 	}
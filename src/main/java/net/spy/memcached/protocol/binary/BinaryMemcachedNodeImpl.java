@@ -9,6 +9,9 @@ import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.protocol.ByteBudget;
+import net.spy.memcached.protocol.ConcurrencyLimit;
+import net.spy.memcached.protocol.ControlledDelay;
 import net.spy.memcached.protocol.ProxyCallback;
 import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
 
@@ -28,27 +31,43 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 			waitForAuth);
 	}
 
+	public BinaryMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
+			int bufSize, BlockingQueue<Operation> rq,
+			BlockingQueue<Operation> wq, BlockingQueue<Operation> iq,
+			Long opQueueMaxBlockTimeNs, boolean waitForAuth,
+			ConcurrencyLimit limit, ByteBudget budget,
+			ByteBudget receiveBudget, ControlledDelay codel) {
+		super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs,
+			waitForAuth, limit, budget, receiveBudget, codel);
+	}
+
 	@Override
 	protected void optimize() {
 		Operation firstOp = writeQ.peek();
-		if(firstOp instanceof GetOperation) {
+		if(isOptimizableGet(firstOp)) {
 			optimizeGets();
 		} else if(firstOp instanceof CASOperation) {
 			optimizeSets();
 		}
 	}
 
+	// Replica gets use their own opcode and can't join a merged get.
+	private boolean isOptimizableGet(Operation o) {
+		return o instanceof GetOperation
+			&& !(o instanceof ReplicaGetOperationImpl);
+	}
+
 	private void optimizeGets() {
 		// make sure there are at least two get operations in a row before
 		// attempting to optimize them.
-		optimizedOp=writeQ.remove();
-		if(writeQ.peek() instanceof GetOperation) {
+		optimizedOp=removeForOptimize();
+		if(isOptimizableGet(writeQ.peek())) {
 			OptimizedGetImpl og=new OptimizedGetImpl(
 					(GetOperation)optimizedOp);
 			optimizedOp=og;
 
-			while(writeQ.peek() instanceof GetOperation) {
-				GetOperation o=(GetOperation) writeQ.remove();
+			while(isOptimizableGet(writeQ.peek())) {
+				GetOperation o=(GetOperation) removeForOptimize();
 				if(!o.isCancelled()) {
 					og.addOperation(o);
 				}
@@ -66,7 +85,7 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 	private void optimizeSets() {
 		// make sure there are at least two get operations in a row before
 		// attempting to optimize them.
-		optimizedOp=writeQ.remove();
+		optimizedOp=removeForOptimize();
 		if(writeQ.peek() instanceof CASOperation) {
 			OptimizedSetImpl og=new OptimizedSetImpl(
 					(CASOperation)optimizedOp);
@@ -75,7 +94,7 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 			while(writeQ.peek() instanceof StoreOperation
 					&& og.size() < MAX_SET_OPTIMIZATION_COUNT
 					&& og.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
-				CASOperation o=(CASOperation) writeQ.remove();
+				CASOperation o=(CASOperation) removeForOptimize();
 				if(!o.isCancelled()) {
 					og.addOperation(o);
 				}
@@ -49,6 +49,10 @@ public class BinaryOperationFactory extends BaseOperationFactory {
 		return new GetOperationImpl(key, callback);
 	}
 
+	public GetOperation replicaGet(String key, Callback callback) {
+		return new ReplicaGetOperationImpl(key, callback);
+	}
+
 	public GetOperation get(Collection<String> value, Callback cb) {
 		return new MultiGetOperationImpl(value, cb);
 	}
@@ -0,0 +1,62 @@
+package net.spy.memcached.protocol.binary;
+
+import java.util.Random;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Hook for injecting errors into binary protocol responses.
+ *
+ * <p>
+ * This exists to test how the client copes with errors that are hard to
+ * provoke from a real server, such as NOT_MY_VBUCKET responses during a
+ * rebalance.  No injector is installed by default.
+ * </p>
+ */
+public abstract class FaultInjector {
+
+	private static volatile FaultInjector current=null;
+
+	/**
+	 * Install the given injector for all binary connections, or remove the
+	 * current one if null.
+	 */
+	public static void setFaultInjector(FaultInjector to) {
+		current=to;
+	}
+
+	// Get the error code a response should be handled as having.
+	static int getErrorCode(Operation op, int errorCode) {
+		FaultInjector fi=current;
+		return fi == null ? errorCode : fi.injectError(op, errorCode);
+	}
+
+	/**
+	 * Get an injector that makes the given fraction of successful single key
+	 * get responses fail with NOT_MY_VBUCKET.
+	 */
+	public static FaultInjector notMyVBucket(final double probability) {
+		return new FaultInjector() {
+			private final Random rand=new Random();
+			@Override
+			public int injectError(Operation op, int errorCode) {
+				if(errorCode == 0 && op instanceof GetOperation
+						&& !(op instanceof MultiGetOperationImpl)
+						&& rand.nextDouble() < probability) {
+					return OperationImpl.ERR_NOT_MY_VBUCKET;
+				}
+				return errorCode;
+			}
+		};
+	}
+
+	/**
+	 * Decide the error code a response should be handled as having.
+	 *
+	 * @param op the operation receiving the response
+	 * @param errorCode the error code the server sent
+	 * @return the error code to handle
+	 */
+	public abstract int injectError(Operation op, int errorCode);
+}
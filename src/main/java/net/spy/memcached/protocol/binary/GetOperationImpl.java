@@ -20,7 +20,11 @@ class GetOperationImpl extends OperationImpl
 	private final String key;
 
 	public GetOperationImpl(String k, GetOperation.Callback cb) {
-		super(CMD, generateOpaque(), cb);
+		this(CMD, k, cb);
+	}
+
+	protected GetOperationImpl(int cmd, String k, GetOperation.Callback cb) {
+		super(cmd, generateOpaque(), cb);
 		key=k;
 	}
 
@@ -21,6 +21,7 @@ class MultiGetOperationImpl extends OperationImpl implements GetOperation {
 	private final Map<Integer, String> keys=new HashMap<Integer, String>();
 	private final Map<Integer, byte[]> bkeys=new HashMap<Integer, byte[]>();
 	private final Map<String, Integer> rkeys=new HashMap<String, Integer>();
+	private final Map<String, Integer> vbuckets=new HashMap<String, Integer>();
 
 	private final int terminalOpaque=generateOpaque();
 
@@ -55,6 +56,7 @@ class MultiGetOperationImpl extends OperationImpl implements GetOperation {
 		ByteBuffer bb=ByteBuffer.allocate(size);
 		for(Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
 			final byte[] keyBytes=me.getValue();
+			final int vb=getVBucket(keys.get(me.getKey()));
 
 			// Custom header
 			bb.put(REQ_MAGIC);
@@ -62,7 +64,7 @@ class MultiGetOperationImpl extends OperationImpl implements GetOperation {
 			bb.putShort((short)keyBytes.length);
 			bb.put((byte)0); // extralen
 			bb.put((byte)0); // data type
-			bb.putShort((short)0); // reserved
+			bb.putShort((short)vb); // vbucket
 			bb.putInt(keyBytes.length);
 			bb.putInt(me.getKey());
 			bb.putLong(0); // cas
@@ -84,6 +86,17 @@ class MultiGetOperationImpl extends OperationImpl implements GetOperation {
 		setBuffer(bb);
 	}
 
+	@Override
+	public void setVBucket(String k, int vb) {
+		vbuckets.put(k, vb);
+	}
+
+	@Override
+	public int getVBucket(String k) {
+		Integer rv=vbuckets.get(k);
+		return rv == null ? vbucket : rv;
+	}
+
 	@Override
 	protected void finishedPayload(byte[] pl) throws IOException {
 		if(responseOpaque == terminalOpaque) {
@@ -8,6 +8,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import net.spy.memcached.CASResponse;
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationState;
@@ -106,7 +107,7 @@ abstract class OperationImpl extends BaseOperationImpl {
 			if(headerOffset == MIN_RECV_PACKET) {
 				int magic=header[0];
 				assert magic == RES_MAGIC : "Invalid magic:  " + magic;
-				responseCmd=header[1];
+				responseCmd=header[1] & 0xff;
 				assert cmd == -1 || responseCmd == cmd
 					: "Unexpected response command value";
 				keyLen=decodeShort(header, 2);
@@ -144,10 +145,7 @@ abstract class OperationImpl extends BaseOperationImpl {
 	}
 
 	protected void finishedPayload(byte[] pl) throws IOException {
-        if (this.cmd == 0 && Math.random() < 0.5d) {
-            System.out.println("setting not my vbucket");
-            errorCode = ERR_NOT_MY_VBUCKET;
-        }
+		errorCode=FaultInjector.getErrorCode((Operation)this, errorCode);
 		if(errorCode != 0) {
 			OperationStatus status=getStatusForErrorCode(errorCode, pl);
 			if(status == null) {
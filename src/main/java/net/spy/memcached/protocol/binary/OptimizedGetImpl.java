@@ -28,6 +28,7 @@ final class OptimizedGetImpl extends MultiGetOperationImpl {
 		pcb.addCallbacks(o);
 		for(String k : o.getKeys()) {
 			addKey(k);
+			setVBucket(k, o.getVBucket(k));
 		}
 	}
 
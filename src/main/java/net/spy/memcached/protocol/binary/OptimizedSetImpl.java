@@ -76,7 +76,7 @@ public class OptimizedSetImpl extends OperationImpl implements Operation {
 			bb.putShort((short)keyBytes.length);
 			bb.put((byte)StoreOperationImpl.EXTRA_LEN); // extralen
 			bb.put((byte)0); // data type
-			bb.putShort((short)0); // reserved
+			bb.putShort((short)so.getVBucket(k)); // vbucket
 			bb.putInt(keyBytes.length + data.length +
 						StoreOperationImpl.EXTRA_LEN);
 			bb.putInt(myOpaque);
@@ -0,0 +1,16 @@
+package net.spy.memcached.protocol.binary;
+
+import net.spy.memcached.ops.GetOperation;
+
+/**
+ * Get a key from one of its vbucket's replicas.
+ */
+class ReplicaGetOperationImpl extends GetOperationImpl {
+
+	static final int CMD=0x83;
+
+	public ReplicaGetOperationImpl(String k, GetOperation.Callback cb) {
+		super(CMD, k, cb);
+	}
+
+}
@@ -9,6 +9,7 @@ import java.util.concurrent.TimeUnit;
 import net.spy.memcached.MemcachedClientIF;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.ops.OperationPriority;
 
 /**
  * CacheLoader provides efficient mechanisms for storing lots of data.
@@ -88,6 +89,9 @@ public class CacheLoader extends SpyObject {
 	public <T> Future<Boolean> push(String k, T value) {
 		Future<Boolean> rv = null;
 		while(rv == null) {
+			// Loads go in the bulk lane, behind interactive traffic.
+			OperationPriority prev=OperationPriority.setForCurrentThread(
+				OperationPriority.BULK);
 			try {
 				rv = client.set(k, expiration, value);
 			} catch(IllegalStateException ex) {
@@ -104,6 +108,8 @@ public class CacheLoader extends SpyObject {
 					// Ignore exceptions here.  We're just trying to slow
 					// down input.
 				}
+			} finally {
+				OperationPriority.setForCurrentThread(prev);
 			}
 
 		}
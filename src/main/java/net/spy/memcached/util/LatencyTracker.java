@@ -0,0 +1,128 @@
+package net.spy.memcached.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks a distribution of recent latencies.
+ *
+ * <p>
+ * Latencies are counted in a fixed histogram with four buckets per power
+ * of two, so percentiles are accurate to within 25%.  Every
+ * <code>decayInterval</code> samples all counts are halved, so the
+ * distribution follows the recent behavior of whatever is measured.
+ * Recording is lock free and safe from any thread.
+ * </p>
+ */
+public class LatencyTracker {
+
+	/**
+	 * Default number of samples between halving the counts.
+	 */
+	public static final int DEFAULT_DECAY_INTERVAL = 1024;
+
+	// Bucket 127 covers everything from 2^33 microseconds (a bit over two
+	// hours) up.
+	private static final int BUCKETS = 128;
+	private static final int SUB_BUCKETS = 4;
+
+	private final AtomicLongArray counts=new AtomicLongArray(BUCKETS);
+	private final AtomicLong samples=new AtomicLong();
+	private final int decayInterval;
+
+	public LatencyTracker() {
+		this(DEFAULT_DECAY_INTERVAL);
+	}
+
+	/**
+	 * Construct a latency tracker.
+	 *
+	 * @param interval the number of samples between halving the counts
+	 */
+	public LatencyTracker(int interval) {
+		super();
+		if(interval <= 0) {
+			throw new IllegalArgumentException(
+				"Decay interval must be positive, was " + interval);
+		}
+		decayInterval=interval;
+	}
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param micros the latency in microseconds
+	 */
+	public void record(long micros) {
+		counts.incrementAndGet(getBucket(Math.max(micros, 0)));
+		if(samples.incrementAndGet() % decayInterval == 0) {
+			// Racing recorders may lose an increment here, which is fine
+			// for an estimate.
+			for(int i=0; i<BUCKETS; i++) {
+				counts.set(i, counts.get(i) / 2);
+			}
+		}
+	}
+
+	/**
+	 * Get the total number of latencies recorded.
+	 */
+	public long getSampleCount() {
+		return samples.get();
+	}
+
+	/**
+	 * Get an upper bound of the given percentile of recent latencies.
+	 *
+	 * @param percentile the percentile, between 0 and 1
+	 * @return the latency in microseconds, or -1 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 1) {
+			throw new IllegalArgumentException(
+				"Percentile must be between 0 and 1, was " + percentile);
+		}
+		long snapshot[]=new long[BUCKETS];
+		long total=0;
+		for(int i=0; i<BUCKETS; i++) {
+			snapshot[i]=counts.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0) {
+			return -1;
+		}
+		long target=Math.max(1, (long)Math.ceil(percentile * total));
+		long seen=0;
+		int rv=BUCKETS - 1;
+		for(int i=0; i<BUCKETS && seen < target; i++) {
+			seen += snapshot[i];
+			rv=i;
+		}
+		return getUpperBound(rv);
+	}
+
+	// Values below SUB_BUCKETS get a bucket each.  Above that, each power
+	// of two is split into SUB_BUCKETS equal parts.
+	static int getBucket(long v) {
+		if(v < SUB_BUCKETS) {
+			return (int)v;
+		}
+		int exp=63 - Long.numberOfLeadingZeros(v);
+		int sub=(int)(v >>> (exp - 2)) & (SUB_BUCKETS - 1);
+		return Math.min(SUB_BUCKETS + (exp - 2) * SUB_BUCKETS + sub,
+			BUCKETS - 1);
+	}
+
+	static long getUpperBound(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		if(bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		int exp=(bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+		int sub=(bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long lower=(long)(SUB_BUCKETS + sub) << (exp - 2);
+		return lower + (1L << (exp - 2)) - 1;
+	}
+}
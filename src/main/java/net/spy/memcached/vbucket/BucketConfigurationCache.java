@@ -0,0 +1,104 @@
+package net.spy.memcached.vbucket;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the last bucket configuration received from the server in a local
+ * file, so a client can start from it without waiting for the server.
+ *
+ * <p>
+ * The file holds the bucket's JSON exactly as the server streamed it.  It is
+ * replaced atomically where the file system allows, so a reader never sees
+ * a partial configuration.
+ * </p>
+ */
+public class BucketConfigurationCache {
+    private static final Logger logger = Logger.getLogger(BucketConfigurationCache.class.getName());
+    private static final String CHARSET = "UTF-8";
+
+    private final File file;
+
+    public BucketConfigurationCache(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("Cache file can not be null.");
+        }
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Read the cached configuration.
+     *
+     * @return the configuration JSON, or null if there is none
+     */
+    public String read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        StringBuilder rv = new StringBuilder();
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), CHARSET);
+            char[] buf = new char[8192];
+            int read;
+            while ((read = reader.read(buf)) != -1) {
+                rv.append(buf, 0, read);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not read cached configuration from " + file, e);
+            return null;
+        } finally {
+            close(reader);
+        }
+        return rv.length() == 0 ? null : rv.toString();
+    }
+
+    /**
+     * Replace the cached configuration.  Failures are logged, not thrown, as
+     * the cache is only an optimization.
+     *
+     * @param json the configuration JSON
+     */
+    public void write(String json) {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+            writer.write(json);
+            writer.close();
+            writer = null;
+            // Renaming over an existing file fails on some platforms.
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Can not rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not write cached configuration to " + file, e);
+            tmp.delete();
+        } finally {
+            close(writer);
+        }
+    }
+
+    private void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Can not close " + file, e);
+            }
+        }
+    }
+}
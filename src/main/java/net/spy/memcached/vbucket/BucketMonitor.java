@@ -30,6 +30,7 @@ import java.text.ParseException;
 import org.jboss.netty.channel.ChannelFactory;
 import com.northscale.jvbucket.Config;
 import net.spy.memcached.vbucket.config.Bucket;
+import net.spy.memcached.vbucket.config.ConfigurationFingerprint;
 import net.spy.memcached.vbucket.config.ConfigurationParser;
 
 /**
@@ -51,6 +52,9 @@ public class BucketMonitor extends Observable {
     private final int port;
     private ConfigurationParser configParser;
     private BucketUpdateResponseHandler handler;
+    private volatile BucketConfigurationCache configurationCache;
+    // fingerprint of the configuration the current bucket was parsed from
+    private long fingerprint;
     /**
      * The specification version which this client meets.  This will be included
      * in requests to the server.
@@ -99,8 +103,7 @@ public class BucketMonitor extends Observable {
         try {
             String response = this.handler.getLastResponse();
             logFiner("Getting server list returns this last chunked response:\n" + response);
-            Bucket bucket = this.configParser.parseBucket(response);
-            setBucket(bucket);
+            updateBucket(response);
         } catch (ParseException ex) {
             Logger.getLogger(BucketMonitor.class.getName()).log(Level.WARNING,
                     "Invalid client configuration received from server.  Staying with existing configuration.", ex);
@@ -146,15 +149,38 @@ public class BucketMonitor extends Observable {
         return request;
     }
 
+    /**
+     * Parse a streamed configuration, unless it routes the same way as the
+     * current one.  The server streams the whole bucket on every change,
+     * statistics included, so most updates need no parsing at all.
+     *
+     * @param response the bucket's JSON
+     */
+    private void updateBucket(String response) throws ParseException {
+        long fp = ConfigurationFingerprint.compute(response);
+        if (this.bucket != null && fp == this.fingerprint) {
+            logFiner("Configuration is unchanged, skipping it.");
+            return;
+        }
+        Bucket bucket = this.configParser.parseBucket(response);
+        this.fingerprint = fp;
+        setBucket(bucket, response);
+    }
+
     /**
      * Update the config if it has changed and notify our
      * observers.
      *
      * @param bucket the bucket to set
+     * @param response the JSON the bucket was parsed from
      */
-    private void setBucket(Bucket bucket) {
+    private void setBucket(Bucket bucket, String response) {
         if (this.bucket == null || !this.bucket.equals(bucket)) {
             this.bucket = bucket;
+            BucketConfigurationCache cache = this.configurationCache;
+            if (cache != null) {
+                cache.write(response);
+            }
             setChanged();
             notifyObservers(this.bucket);
         }
@@ -225,8 +251,7 @@ public class BucketMonitor extends Observable {
     protected void invalidate() {
         try {
             String response = handler.getLastResponse();
-            Bucket bucket = this.configParser.parseBucket(response);
-            setBucket(bucket);
+            updateBucket(response);
         } catch (ParseException e) {
             Logger.getLogger(BucketMonitor.class.getName()).log(Level.SEVERE,
                     "Invalid client configuration received from server.  Staying with existing configuration.", e);
@@ -236,4 +261,11 @@ public class BucketMonitor extends Observable {
     public void setConfigParser(ConfigurationParser configParser) {
         this.configParser = configParser;
     }
+
+    /**
+     * Set a cache to save every new configuration to.
+     */
+    public void setConfigurationCache(BucketConfigurationCache configurationCache) {
+        this.configurationCache = configurationCache;
+    }
 }
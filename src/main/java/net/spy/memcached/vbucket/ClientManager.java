@@ -3,6 +3,7 @@ package net.spy.memcached.vbucket;
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.ConnectionFactoryBuilder;
 import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedEventLoop;
 import net.spy.memcached.HashAlgorithm;
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.AddrUtil;
@@ -39,6 +40,7 @@ public class ClientManager implements Reconfigurable {
     private Port preferredPort;
     private ConfigurationProvider configurationProvider;
     private Bucket bucket;
+    private MemcachedEventLoop eventLoop;
 
     public ClientManager(List<URI> baseList, String username,
             String userpassword, String bucketname, Port preferredPort , ConfigurationProvider configurationProvider) throws ConfigurationException {
@@ -61,6 +63,16 @@ public class ClientManager implements Reconfigurable {
         configurationProvider.subscribe(this.bucketname, this);
 
     }
+    /**
+     * Set an event loop for the clients to share, so they don't each run
+     * their own IO thread.  Affects clients created afterwards.
+     *
+     * @param eventLoop the event loop, or null for one thread per client
+     */
+    public void setEventLoop(MemcachedEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
     /**
      *
      * Return a net.spy.memcached.MemcachedClient object which has already been
@@ -87,7 +99,8 @@ public class ClientManager implements Reconfigurable {
         cfb.setFailureMode(FailureMode.Retry)
                 .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
                 .setHashAlg(HashAlgorithm.KETAMA_HASH)
-                .setLocatorType(ConnectionFactoryBuilder.Locator.CONSISTENT);
+                .setLocatorType(ConnectionFactoryBuilder.Locator.CONSISTENT)
+                .setEventLoop(this.eventLoop);
 
         // The server may be "secured" thus requiring REST authentication and
         // yet the user may wish to use the anonymous bucket, which means don't
@@ -130,6 +143,7 @@ public class ClientManager implements Reconfigurable {
                 .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
                 .setHashAlg(HashAlgorithm.KETAMA_HASH)
                 .setLocatorType(ConnectionFactoryBuilder.Locator.VBUCKET)
+                .setEventLoop(this.eventLoop)
                 .setVBucketConfig(config);
 
         // The server may be "secured" thus requiring REST authentication and
@@ -0,0 +1,147 @@
+package net.spy.memcached.vbucket;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.northscale.jvbucket.Config;
+
+/**
+ * The difference between two vbucket configurations.
+ *
+ * <p>
+ * Servers are compared by address and vbuckets by the address of their
+ * master, so reordering the server list alone is not a change.
+ * </p>
+ */
+public final class ConfigDifference {
+
+	private final List<String> serversAdded;
+	private final List<String> serversRemoved;
+	private final BitSet vbucketsMoved;
+	private final boolean replicasChanged;
+
+	private ConfigDifference(List<String> added, List<String> removed,
+			BitSet moved, boolean replicas) {
+		super();
+		serversAdded=added;
+		serversRemoved=removed;
+		vbucketsMoved=moved;
+		replicasChanged=replicas;
+	}
+
+	/**
+	 * Compute the difference between two configurations.
+	 *
+	 * @param from the old configuration
+	 * @param to the new configuration
+	 * @return the difference
+	 */
+	public static ConfigDifference compare(Config from, Config to) {
+		Set<String> oldServers=new HashSet<String>(from.getServers());
+		Set<String> newServers=new HashSet<String>(to.getServers());
+		List<String> added=new ArrayList<String>();
+		for(String s : to.getServers()) {
+			if(!oldServers.contains(s) && !added.contains(s)) {
+				added.add(s);
+			}
+		}
+		List<String> removed=new ArrayList<String>();
+		for(String s : from.getServers()) {
+			if(!newServers.contains(s) && !removed.contains(s)) {
+				removed.add(s);
+			}
+		}
+
+		int numVBuckets=to.getVbucketsCount();
+		BitSet moved=new BitSet(numVBuckets);
+		boolean replicas=false;
+		if(numVBuckets != from.getVbucketsCount()) {
+			// Keys hash to different vbuckets, so everything moves.
+			moved.set(0, Math.max(numVBuckets, from.getVbucketsCount()));
+			replicas=true;
+		} else {
+			int numReplicas=Math.max(from.getReplicasCount(),
+				to.getReplicasCount());
+			for(int vb=0; vb<numVBuckets; vb++) {
+				if(!same(getServer(from, from.getMaster(vb)),
+						getServer(to, to.getMaster(vb)))) {
+					moved.set(vb);
+				}
+				for(int r=0; !replicas && r<numReplicas; r++) {
+					replicas=!same(getReplica(from, vb, r),
+						getReplica(to, vb, r));
+				}
+			}
+		}
+		return new ConfigDifference(Collections.unmodifiableList(added),
+			Collections.unmodifiableList(removed), moved, replicas);
+	}
+
+	private static String getServer(Config c, int i) {
+		return i >= 0 && i < c.getServersCount() ? c.getServer(i) : null;
+	}
+
+	private static String getReplica(Config c, int vb, int r) {
+		return r < c.getReplicasCount() ? getServer(c, c.getReplica(vb, r))
+			: null;
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * True if the configurations route every key identically.
+	 */
+	public boolean isEmpty() {
+		return serversAdded.isEmpty() && serversRemoved.isEmpty()
+			&& vbucketsMoved.isEmpty() && !replicasChanged;
+	}
+
+	/**
+	 * Get the servers present only in the new configuration.
+	 */
+	public List<String> getServersAdded() {
+		return serversAdded;
+	}
+
+	/**
+	 * Get the servers present only in the old configuration.
+	 */
+	public List<String> getServersRemoved() {
+		return serversRemoved;
+	}
+
+	/**
+	 * True if the given vbucket has a different master.
+	 */
+	public boolean isMoved(int vbucket) {
+		return vbucketsMoved.get(vbucket);
+	}
+
+	/**
+	 * Get the number of vbuckets with a different master.
+	 */
+	public int getVBucketsMovedCount() {
+		return vbucketsMoved.cardinality();
+	}
+
+	/**
+	 * True if any vbucket's replicas differ.
+	 */
+	public boolean isReplicasChanged() {
+		return replicasChanged;
+	}
+
+	@Override
+	public String toString() {
+		return "{ConfigDifference added=" + serversAdded
+			+ ", removed=" + serversRemoved
+			+ ", moved=" + vbucketsMoved.cardinality() + " vbuckets"
+			+ ", replicasChanged=" + replicasChanged + "}";
+	}
+}
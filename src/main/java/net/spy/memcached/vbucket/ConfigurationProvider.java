@@ -15,6 +15,12 @@ import javax.naming.ConfigurationException;
  */
 public interface ConfigurationProvider {
     Bucket getBucketConfiguration(String bucketname) throws ConfigurationException;
+
+    /**
+     * Fetch a bucket's configuration from the server, bypassing anything
+     * already loaded.
+     */
+    Bucket refreshBucketConfiguration(String bucketname) throws ConfigurationException;
     void subscribe(final String bucketName, final Reconfigurable rec) throws ConfigurationException;
     void unsubscribe(final String bucketName, final Reconfigurable rec);
 
@@ -52,6 +52,7 @@ public class ConfigurationProviderHTTP implements ConfigurationProvider {
     //private Map<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
     private ConfigurationParser configurationParser = new ConfigurationParserJSON();
     private Map<String, BucketMonitor> monitors = new HashMap<String, BucketMonitor>();
+    private BucketConfigurationCache configurationCache;
 
     public ConfigurationProviderHTTP(List<URI> baseList) throws IOException {
         this(baseList, null, null);
@@ -74,6 +75,54 @@ public class ConfigurationProviderHTTP implements ConfigurationProvider {
         return this.buckets.get(bucketname);
     }
 
+    /**
+     * Set a local cache of the bucket configuration.  Subscribing to a bucket
+     * saves every configuration the server streams to the cache.
+     */
+    public void setConfigurationCache(BucketConfigurationCache configurationCache) {
+        this.configurationCache = configurationCache;
+    }
+
+    /**
+     * Get a bucket's configuration from the local cache, without contacting
+     * the server.
+     *
+     * @return the cached configuration, or null if there is no usable one
+     */
+    public Bucket getCachedBucketConfiguration(final String bucketname) {
+        if (configurationCache == null) {
+            return null;
+        }
+        String json = configurationCache.read();
+        if (json == null) {
+            return null;
+        }
+        try {
+            Bucket bucket = configurationParser.parseBucket(json);
+            if (!bucketname.equals(bucket.getName())) {
+                logger.log(Level.WARNING, "Cached configuration in " + configurationCache.getFile()
+                        + " is for bucket " + bucket.getName() + "...ignoring");
+                return null;
+            }
+            return bucket;
+        } catch (ParseException e) {
+            logger.log(Level.WARNING, "Cached configuration in " + configurationCache.getFile()
+                    + " is unparsable...ignoring", e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Cached configuration in " + configurationCache.getFile()
+                    + " is invalid...ignoring", e);
+        }
+        return null;
+    }
+
+    public Bucket refreshBucketConfiguration(final String bucketname) throws ConfigurationException {
+        if (bucketname == null || bucketname.isEmpty()) {
+            throw new IllegalArgumentException("Bucket name can not be blank.");
+        }
+        readPools(bucketname);
+        return this.buckets.get(bucketname);
+    }
+
     private void readPools(final String bucketToFind) throws ConfigurationException {
         for (URI baseUri : baseList) {
             try {
@@ -149,6 +198,7 @@ public class ConfigurationProviderHTTP implements ConfigurationProvider {
         if (monitor == null) {
             URI streamingURI = bucket.getStreamingURI();
             monitor = new BucketMonitor(this.loadedBaseUri.resolve(streamingURI), bucketName, this.restUsr, this.restPwd, configurationParser);
+            monitor.setConfigurationCache(configurationCache);
             this.monitors.put(bucketName, monitor);
             monitor.addObserver(obs);
             monitor.startMonitor();
@@ -0,0 +1,13 @@
+package net.spy.memcached.vbucket;
+
+/**
+ * Something that can fetch a fresh vbucket configuration on demand.
+ */
+public interface ConfigurationRefresher {
+
+    /**
+     * Request a new configuration.  Must not block; the configuration is
+     * delivered through {@link Reconfigurable#reconfigure} once fetched.
+     */
+    void requestConfigurationUpdate();
+}
@@ -10,10 +10,14 @@
 package net.spy.memcached.vbucket;
 
 import com.northscale.jvbucket.Config;
+import net.spy.memcached.HashTag;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.NodeLocator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
@@ -21,13 +25,25 @@ import java.util.List;
 import java.net.InetSocketAddress;
 
 /**
+ * NodeLocator for membase vbuckets.
+ *
+ * <p>
+ * Each configuration is turned into a table of nodes indexed by vbucket,
+ * along with each vbucket's replica chain, so routing a key costs one hash
+ * and one array load.  The failover sequence for a key is its vbucket's
+ * replica chain.
+ * </p>
+ *
  * @author Eugene Shelestovich
  */
 public class VBucketNodeLocator implements NodeLocator {
 
-    private Map<String, MemcachedNode> nodesMap;
+    private static final MemcachedNode[] NO_NODES = new MemcachedNode[0];
+
+    // Replaced as a whole when the configuration changes.
+    private volatile RoutingTable table;
 
-    private Config config;
+    private final HashTag hashTag;
 
     /**
      * Construct a VBucketNodeLocator over the given JSON configuration string.
@@ -36,50 +52,128 @@ public class VBucketNodeLocator implements NodeLocator {
      * @param jsonConfig
      */
     public VBucketNodeLocator(List<MemcachedNode> nodes, Config jsonConfig) {
-        super();
-        setNodes(nodes);
-        setConfig(jsonConfig);
+        this(nodes, jsonConfig, HashTag.NONE);
     }
 
+    /**
+     * Construct a VBucketNodeLocator that maps tagged keys to vbuckets by
+     * their tag alone.
+     *
+     * @param nodes
+     * @param jsonConfig
+     * @param tag the hash tag convention
+     */
+    public VBucketNodeLocator(List<MemcachedNode> nodes, Config jsonConfig,
+            HashTag tag) {
+        super();
+        hashTag = tag;
+        table = new RoutingTable(nodes, jsonConfig);
+    }
 
     public MemcachedNode getPrimary(String k) {
-        int vbucket = config.getVbucketByKey(k);
-        int serverNumber = config.getMaster(vbucket);
-        String server = config.getServer(serverNumber);
-        // choose appropriate MemecachedNode according to config data
-        return nodesMap.get(server);
+        return table.masters[getVBucketIndex(k)];
     }
 
     public Iterator<MemcachedNode> getSequence(String k) {
-        return nodesMap.values().iterator();
+        return Arrays.asList(table.replicas[getVBucketIndex(k)]).iterator();
     }
 
     public Collection<MemcachedNode> getAll() {
-        return this.nodesMap.values();
+        return table.all;
     }
 
     public NodeLocator getReadonlyCopy() {
         return this;
     }
+
+    /**
+     * Get the hash tag convention used to map keys to vbuckets.
+     */
+    public HashTag getHashTag() {
+        return hashTag;
+    }
+
     public void updateLocator(final List<MemcachedNode> nodes, final Config config) {
-        setNodes(nodes);
-        setConfig(config);
+        table = new RoutingTable(nodes, config);
     }
 
     public int getVBucketIndex(String key) {
-        return config.getVbucketByKey(key);
+        return table.config.getVbucketByKey(hashTag.getHashKey(key));
+    }
+
+    /**
+     * Get the master node of the given vbucket.
+     *
+     * @param vbucket the vbucket index
+     * @return the node, or null if the vbucket has no known master
+     */
+    public MemcachedNode getMaster(int vbucket) {
+        return table.masters[vbucket];
+    }
+
+    /**
+     * Get the known replica nodes of the given vbucket, in replica order.
+     *
+     * @param vbucket the vbucket index
+     * @return the replicas, which must not be modified
+     */
+    public MemcachedNode[] getReplicas(int vbucket) {
+        return table.replicas[vbucket];
     }
-    private void setNodes(Collection<MemcachedNode> nodes) {
-        Map<String, MemcachedNode> nodesMap = new HashMap<String, MemcachedNode>();
-        for (MemcachedNode node : nodes) {
-            InetSocketAddress addr = (InetSocketAddress) node.getSocketAddress();
-            String address = addr.getAddress().getHostAddress() + ":" + addr.getPort();
-            nodesMap.put(address, node);
-        }
 
-        this.nodesMap = nodesMap;
+    /**
+     * Get the configuration the current routing table was built from.
+     */
+    public Config getConfig() {
+        return table.config;
     }
-    private void setConfig(final Config config) {
-        this.config = config;
+
+    // Routing state for one configuration.  Never modified once built.
+    private static final class RoutingTable {
+        final Config config;
+        final Collection<MemcachedNode> all;
+        final MemcachedNode[] masters;
+        final MemcachedNode[][] replicas;
+
+        RoutingTable(Collection<MemcachedNode> nodes, Config c) {
+            config = c;
+            Map<String, MemcachedNode> nodesMap =
+                new HashMap<String, MemcachedNode>();
+            for (MemcachedNode node : nodes) {
+                InetSocketAddress addr = (InetSocketAddress) node.getSocketAddress();
+                String address = addr.getAddress().getHostAddress() + ":" + addr.getPort();
+                nodesMap.put(address, node);
+            }
+            all = Collections.unmodifiableCollection(nodesMap.values());
+
+            // Resolve each server of the config once.
+            MemcachedNode[] servers = new MemcachedNode[c.getServersCount()];
+            for (int i = 0; i < servers.length; i++) {
+                servers[i] = nodesMap.get(c.getServer(i));
+            }
+
+            int numVBuckets = c.getVbucketsCount();
+            int numReplicas = c.getReplicasCount();
+            masters = new MemcachedNode[numVBuckets];
+            replicas = new MemcachedNode[numVBuckets][];
+            List<MemcachedNode> chain = new ArrayList<MemcachedNode>(numReplicas);
+            for (int vb = 0; vb < numVBuckets; vb++) {
+                masters[vb] = getNode(servers, c.getMaster(vb));
+                chain.clear();
+                for (int r = 0; r < numReplicas; r++) {
+                    MemcachedNode replica = getNode(servers, c.getReplica(vb, r));
+                    if (replica != null && replica != masters[vb]
+                        && !chain.contains(replica)) {
+                        chain.add(replica);
+                    }
+                }
+                replicas[vb] = chain.isEmpty() ? NO_NODES
+                    : chain.toArray(new MemcachedNode[chain.size()]);
+            }
+        }
+
+        private static MemcachedNode getNode(MemcachedNode[] servers, int i) {
+            return i >= 0 && i < servers.length ? servers[i] : null;
+        }
     }
 }
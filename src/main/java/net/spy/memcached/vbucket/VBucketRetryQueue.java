@@ -0,0 +1,143 @@
+package net.spy.memcached.vbucket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.ops.KeyedOperation;
+
+/**
+ * Holds operations bounced with NOT_MY_VBUCKET until they may be retried.
+ *
+ * <p>
+ * Each operation gets a limited number of retries.  A parked operation is
+ * released as soon as a new vbucket configuration arrives, or otherwise
+ * once its backoff delay, which doubles with every retry, has passed.  The
+ * number of retries is counted per vbucket.
+ * </p>
+ *
+ * <p>
+ * Except for {@link #configUpdated()} and {@link #getRetryCounts()}, this
+ * is only to be used from the IO thread.
+ * </p>
+ */
+public class VBucketRetryQueue {
+
+	// Upper bound of the backoff delay, in milliseconds.
+	private static final long MAX_DELAY = 1000;
+
+	private final int maxRetries;
+	private final long retryDelay;
+
+	private final List<ParkedOp> parked=new ArrayList<ParkedOp>();
+	private final ConcurrentMap<Integer, AtomicLong> retryCounts=
+		new ConcurrentHashMap<Integer, AtomicLong>();
+	private final AtomicLong configGeneration=new AtomicLong();
+
+	/**
+	 * Construct a retry queue.
+	 *
+	 * @param retries the number of times an operation may be retried
+	 * @param delay the delay before the first retry in milliseconds
+	 */
+	public VBucketRetryQueue(int retries, long delay) {
+		super();
+		maxRetries=retries;
+		retryDelay=delay;
+	}
+
+	/**
+	 * Park a bounced operation.
+	 *
+	 * @param op the operation
+	 * @param now the current time in milliseconds
+	 * @return false if the operation has used up its retries and was not
+	 *         parked
+	 */
+	public boolean park(KeyedOperation op, long now) {
+		int vbucket=op.getVBucket(op.getKeys().iterator().next());
+		AtomicLong count=retryCounts.get(vbucket);
+		if(count == null) {
+			retryCounts.putIfAbsent(vbucket, new AtomicLong());
+			count=retryCounts.get(vbucket);
+		}
+		count.incrementAndGet();
+
+		int retries=op.getVBucketRetries() + 1;
+		op.setVBucketRetries(retries);
+		if(retries > maxRetries) {
+			return false;
+		}
+		long delay=Math.min(retryDelay << Math.min(retries - 1, 30),
+			Math.max(retryDelay, MAX_DELAY));
+		parked.add(new ParkedOp(op, now + delay, configGeneration.get()));
+		return true;
+	}
+
+	/**
+	 * Note that a new vbucket configuration arrived, releasing every
+	 * operation currently parked.  May be called from any thread.
+	 */
+	public void configUpdated() {
+		configGeneration.incrementAndGet();
+	}
+
+	/**
+	 * Remove and return the operations that may now be retried.
+	 */
+	public Collection<KeyedOperation> release(long now) {
+		Collection<KeyedOperation> rv=new ArrayList<KeyedOperation>();
+		long generation=configGeneration.get();
+		for(Iterator<ParkedOp> i=parked.iterator(); i.hasNext();) {
+			ParkedOp p=i.next();
+			if(p.op.isCancelled()) {
+				i.remove();
+			} else if(p.generation != generation || p.retryAt <= now) {
+				rv.add(p.op);
+				i.remove();
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Get the earliest time a parked operation is due to be released, or
+	 * Long.MAX_VALUE if nothing is parked.
+	 */
+	public long getNextRelease() {
+		long rv=Long.MAX_VALUE;
+		for(ParkedOp p : parked) {
+			rv=Math.min(rv, p.retryAt);
+		}
+		return rv;
+	}
+
+	/**
+	 * Get a snapshot of the number of retries per vbucket.
+	 */
+	public Map<Integer, Long> getRetryCounts() {
+		Map<Integer, Long> rv=new HashMap<Integer, Long>();
+		for(Map.Entry<Integer, AtomicLong> me : retryCounts.entrySet()) {
+			rv.put(me.getKey(), me.getValue().get());
+		}
+		return rv;
+	}
+
+	private static final class ParkedOp {
+		final KeyedOperation op;
+		final long retryAt;
+		final long generation;
+
+		ParkedOp(KeyedOperation o, long at, long gen) {
+			op=o;
+			retryAt=at;
+			generation=gen;
+		}
+	}
+}
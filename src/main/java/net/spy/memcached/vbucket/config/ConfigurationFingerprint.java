@@ -0,0 +1,191 @@
+package net.spy.memcached.vbucket.config;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fingerprints the parts of a streamed bucket configuration that affect
+ * routing.
+ *
+ * <p>
+ * The server streams the whole bucket on every update, including
+ * statistics such as memory use and uptime that change all the time.  The
+ * fingerprint covers only the bucket's name, streaming URI, its nodes'
+ * hostnames, statuses and ports, and the vbucket server map, so two
+ * configurations that route identically have the same fingerprint.  It is
+ * computed in a single pass over the raw JSON without building any objects,
+ * which makes it cheap enough to check before every full parse.
+ * </p>
+ */
+public final class ConfigurationFingerprint {
+    private static final long FNV_64_INIT = 0xcbf29ce484222325L;
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+
+    // A filter maps each key to hash to the filter for its value; a null
+    // filter hashes the whole value.
+    private static final Map<String, Object> BUCKET_FILTER = new HashMap<String, Object>();
+
+    static {
+        Map<String, Object> nodeFilter = new HashMap<String, Object>();
+        nodeFilter.put("hostname", null);
+        nodeFilter.put("status", null);
+        nodeFilter.put("ports", null);
+        BUCKET_FILTER.put("name", null);
+        BUCKET_FILTER.put("streamingUri", null);
+        BUCKET_FILTER.put("nodes", nodeFilter);
+        BUCKET_FILTER.put("vBucketServerMap", null);
+    }
+
+    private final String json;
+    private int pos;
+    private long hash = FNV_64_INIT;
+
+    private ConfigurationFingerprint(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Compute the fingerprint of a bucket configuration.
+     *
+     * @param json the bucket's JSON as streamed by the server
+     * @return the fingerprint
+     * @throws ParseException if the JSON is malformed
+     */
+    public static long compute(String json) throws ParseException {
+        ConfigurationFingerprint fp = new ConfigurationFingerprint(json);
+        fp.value(BUCKET_FILTER, true);
+        fp.skipWhitespace();
+        if (fp.pos != json.length()) {
+            throw fp.error("Unexpected trailing content");
+        }
+        return fp.hash;
+    }
+
+    private void value(Map<String, Object> filter, boolean include) throws ParseException {
+        char c = peek();
+        if (c == '{') {
+            object(filter, include);
+        } else if (c == '[') {
+            expect('[', include);
+            if (peek() != ']') {
+                value(filter, include);
+                while (peek() == ',') {
+                    expect(',', include);
+                    value(filter, include);
+                }
+            }
+            expect(']', include);
+        } else if (c == '"') {
+            string(include);
+        } else {
+            // A number, true, false or null.
+            int start = pos;
+            while (pos < json.length() && "{}[],: \t\r\n\"".indexOf(json.charAt(pos)) < 0) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a value");
+            }
+            if (include) {
+                update(start, pos);
+            }
+        }
+    }
+
+    private void object(Map<String, Object> filter, boolean include) throws ParseException {
+        expect('{', include);
+        if (peek() != '}') {
+            member(filter, include);
+            // Separators would count the members left out by a filter.
+            while (peek() == ',') {
+                expect(',', include && filter == null);
+                member(filter, include);
+            }
+        }
+        expect('}', include);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void member(Map<String, Object> filter, boolean include) throws ParseException {
+        peek();
+        int start = pos;
+        string(false);
+        boolean includeMember = include;
+        Map<String, Object> child = null;
+        if (include && filter != null) {
+            // Compare the name in place rather than allocate a string for
+            // every member.
+            String name = null;
+            int len = pos - start - 2;
+            for (String k : filter.keySet()) {
+                if (k.length() == len && json.regionMatches(start + 1, k, 0, len)) {
+                    name = k;
+                }
+            }
+            includeMember = name != null;
+            child = includeMember ? (Map<String, Object>) filter.get(name) : null;
+        }
+        if (includeMember) {
+            update(start, pos);
+        }
+        expect(':', includeMember);
+        value(child, includeMember);
+    }
+
+    private void string(boolean include) throws ParseException {
+        int start = pos;
+        expect('"', false);
+        while (pos < json.length() && json.charAt(pos) != '"') {
+            if (json.charAt(pos) == '\\') {
+                pos++;
+            }
+            pos++;
+        }
+        if (pos >= json.length()) {
+            throw error("Unterminated string");
+        }
+        pos++;
+        if (include) {
+            update(start, pos);
+        }
+    }
+
+    private void expect(char c, boolean include) throws ParseException {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+        if (include) {
+            update(c);
+        }
+    }
+
+    private char peek() throws ParseException {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("Unexpected end of configuration");
+        }
+        return json.charAt(pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void update(int start, int end) {
+        for (int i = start; i < end; i++) {
+            update(json.charAt(i));
+        }
+    }
+
+    private void update(char c) {
+        hash = (hash ^ c) * FNV_64_PRIME;
+    }
+
+    private ParseException error(String msg) {
+        return new ParseException(msg + " at " + pos, pos);
+    }
+}
@@ -32,6 +32,17 @@ public class ArrayModNodeLocatorTest extends AbstractNodeLocationCase {
 			locator.getReadonlyCopy().getPrimary("y").toString());
 	}
 
+	public void testHashTag() throws Exception {
+		setupNodes(4);
+		locator=new ArrayModNodeLocator(Arrays.asList(nodes),
+			HashAlgorithm.NATIVE_HASH, HashTag.BRACES);
+		assertSame(nodes[3], locator.getPrimary("{dustin}:profile"));
+		assertSame(nodes[3], locator.getPrimary("prefs:{dustin}"));
+		assertSame(nodes[0], locator.getPrimary("{x}"));
+		assertEquals(nodes[1].toString(),
+			locator.getReadonlyCopy().getPrimary("{y}").toString());
+	}
+
 	public void testAll() throws Exception {
 		setupNodes(4);
 		Collection<MemcachedNode> all = locator.getAll();
@@ -0,0 +1,113 @@
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test holding back operations to send them together.
+ */
+public class BatchWindowTest extends TestCase {
+
+	private static final long WINDOW=TimeUnit.MICROSECONDS.toNanos(64);
+
+	private BatchWindow window;
+	private Node node;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		window=new BatchWindow(64, 4, 1000);
+		node=new Node();
+	}
+
+	public void testHeldUntilWindowCloses() {
+		node.queued=1;
+		assertTrue(window.hold(node, 0));
+		assertEquals(WINDOW, window.getNextRelease());
+		node.queued=2;
+		assertTrue(window.hold(node, WINDOW - 1));
+		assertFalse(window.hold(node, WINDOW));
+		assertEquals(Long.MAX_VALUE, window.getNextRelease());
+	}
+
+	public void testReleasedWhenFull() {
+		node.queued=1;
+		assertTrue(window.hold(node, 0));
+		node.queued=4;
+		assertFalse(window.hold(node, 1));
+		node.queued=1;
+		node.bytes=1000;
+		assertFalse(window.hold(node, 2));
+	}
+
+	public void testBusyOrIdleNodeNotHeld() {
+		assertFalse(window.hold(node, 0));
+		node.queued=1;
+		node.writing=true;
+		assertFalse(window.hold(node, 0));
+		node.writing=false;
+		node.active=false;
+		assertFalse(window.hold(node, 0));
+	}
+
+	public void testWindowAdapts() {
+		// Operations arriving one at a time narrow the window...
+		long now=0;
+		for(int i=0; i<10; i++) {
+			node.queued=1;
+			assertTrue(window.hold(node, now));
+			now += window.getDelay();
+			assertFalse(window.hold(node, now));
+		}
+		assertEquals(WINDOW / 16, window.getDelay());
+		// ...and batches widen it again.
+		for(int i=0; i<10; i++) {
+			node.queued=1;
+			assertTrue(window.hold(node, now));
+			node.queued=2;
+			now += window.getDelay();
+			assertFalse(window.hold(node, now));
+		}
+		assertEquals(WINDOW, window.getDelay());
+	}
+
+	public void testForget() {
+		node.queued=1;
+		assertTrue(window.hold(node, 0));
+		window.forget(node);
+		assertEquals(Long.MAX_VALUE, window.getNextRelease());
+	}
+
+	private static class Node extends MockMemcachedNode {
+		boolean active=true;
+		boolean writing=false;
+		int queued=0;
+		long bytes=0;
+
+		Node() {
+			super(new InetSocketAddress("127.0.0.1", 11211));
+		}
+
+		@Override
+		public boolean isActive() {
+			return active;
+		}
+
+		@Override
+		public boolean hasWriteOp() {
+			return writing;
+		}
+
+		@Override
+		public int getInputQueueSize() {
+			return queued;
+		}
+
+		@Override
+		public long getQueuedBytes() {
+			return bytes;
+		}
+	}
+}
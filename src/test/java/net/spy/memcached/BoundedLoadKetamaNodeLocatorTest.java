@@ -0,0 +1,132 @@
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test the bounded load ketama node locator.
+ */
+public class BoundedLoadKetamaNodeLocatorTest extends AbstractNodeLocationCase {
+
+	private double loadFactor=BoundedLoadKetamaNodeLocator.DEFAULT_LOAD_FACTOR;
+
+	protected void setupNodes(int n, Map<SocketAddress, Integer> weights) {
+		super.setupNodes(n);
+		for(int i=0; i<nodeMocks.length; i++) {
+			nodeMocks[i].expects(atLeastOnce())
+				.method("getSocketAddress")
+				.will(returnValue(InetSocketAddress.createUnresolved(
+						"127.0.0.1", 10000 + i)));
+		}
+
+		locator=new BoundedLoadKetamaNodeLocator(Arrays.asList(nodes),
+			HashAlgorithm.KETAMA_HASH, loadFactor, weights);
+	}
+
+	@Override
+	protected void setupNodes(int n) {
+		setupNodes(n, Collections.<SocketAddress, Integer>emptyMap());
+	}
+
+	private double share(int n) {
+		return ((BoundedLoadKetamaNodeLocator)locator).getShare(nodes[n]);
+	}
+
+	public void testAll() throws Exception {
+		setupNodes(4);
+		Collection<MemcachedNode> all = locator.getAll();
+		assertEquals(4, all.size());
+		for(int i=0; i<4; i++) {
+			assertTrue(all.contains(nodes[i]));
+		}
+	}
+
+	public void testSharesAreBounded() {
+		loadFactor=1.05;
+		setupNodes(7);
+		double total=0;
+		for(int i=0; i<nodes.length; i++) {
+			total += share(i);
+			assertTrue("Share of node " + i + " is " + share(i),
+				share(i) <= loadFactor / nodes.length + 0.005);
+		}
+		assertEquals(1.0, total, 0.0001);
+	}
+
+	public void testKeysAreBounded() {
+		loadFactor=1.05;
+		setupNodes(5);
+		int counts[]=new int[nodes.length];
+		for(int i=0; i<50000; i++) {
+			MemcachedNode n=locator.getPrimary("key" + i);
+			counts[Arrays.asList(nodes).indexOf(n)]++;
+		}
+		for(int c : counts) {
+			assertTrue(Arrays.toString(counts), c < 10000 * 1.05 + 500);
+		}
+	}
+
+	public void testWeightedShares() {
+		Map<SocketAddress, Integer> weights=
+			new HashMap<SocketAddress, Integer>();
+		weights.put(InetSocketAddress.createUnresolved("127.0.0.1", 10000), 2);
+		setupNodes(3, weights);
+		// Fair shares are 1/2, 1/4 and 1/4
+		assertTrue(String.valueOf(share(0)), share(0) > 0.35);
+		assertTrue(String.valueOf(share(0)),
+			share(0) <= loadFactor / 2 + 0.005);
+		assertTrue(String.valueOf(share(1)),
+			share(1) <= loadFactor / 4 + 0.005);
+		assertTrue(String.valueOf(share(2)),
+			share(2) <= loadFactor / 4 + 0.005);
+	}
+
+	public void testDeterministic() {
+		setupNodes(5);
+		NodeLocator other=new BoundedLoadKetamaNodeLocator(
+			Arrays.asList(nodes), HashAlgorithm.KETAMA_HASH, loadFactor,
+			Collections.<SocketAddress, Integer>emptyMap());
+		for(int i=0; i<1000; i++) {
+			assertSame(locator.getPrimary("key" + i),
+				other.getPrimary("key" + i));
+		}
+	}
+
+	public void testPrimaryClone() throws Exception {
+		setupNodes(4);
+		NodeLocator ro=locator.getReadonlyCopy();
+		for(int i=0; i<100; i++) {
+			assertEquals(locator.getPrimary("key" + i).toString(),
+				ro.getPrimary("key" + i).toString());
+		}
+	}
+
+	public void testNoNodes() {
+		locator=new BoundedLoadKetamaNodeLocator(
+			Collections.<MemcachedNode>emptyList(),
+			HashAlgorithm.KETAMA_HASH, loadFactor,
+			Collections.<SocketAddress, Integer>emptyMap());
+		assertTrue(locator.getAll().isEmpty());
+		assertTrue(locator.getReadonlyCopy().getAll().isEmpty());
+		assertEquals(0.0, ((BoundedLoadKetamaNodeLocator)locator).getShare(
+			new MockMemcachedNode(new InetSocketAddress("127.0.0.1", 11211))),
+			0);
+	}
+
+	public void testInvalidLoadFactor() {
+		try {
+			new BoundedLoadKetamaNodeLocator(
+				Collections.<MemcachedNode>emptyList(),
+				HashAlgorithm.KETAMA_HASH, 0.9,
+				Collections.<SocketAddress, Integer>emptyMap());
+			fail("Accepted a load factor below 1");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+}
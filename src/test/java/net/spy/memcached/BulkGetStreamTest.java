@@ -0,0 +1,110 @@
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.protocol.ByteBudget;
+
+/**
+ * Test streaming the values of a bulk get.
+ */
+public class BulkGetStreamTest extends TestCase {
+
+	private ServerSocket server;
+	private MemcachedClient client;
+	private volatile ByteBudget budget;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server=new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		client=new MemcachedClient(new DefaultConnectionFactory() {
+				@Override
+				public long getReceiveMaxBytes() {
+					return 5;
+				}
+				@Override
+				protected ByteBudget createReceiveBudget() {
+					budget=super.createReceiveBudget();
+					return budget;
+				}
+			},
+			Collections.singletonList(new InetSocketAddress("127.0.0.1",
+				server.getLocalPort())));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.shutdown();
+		server.close();
+		super.tearDown();
+	}
+
+	public void testReadsPauseUntilConsumed() throws Exception {
+		BulkGetStream<Object> stream=client.asyncGetBulkStream(
+			Arrays.asList("a", "b"));
+		Socket s=server.accept();
+		try {
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			assertEquals("get a b", r.readLine());
+			OutputStream os=s.getOutputStream();
+			os.write("VALUE a 0 8\r\naaaaaaaa\r\n".getBytes("US-ASCII"));
+			os.flush();
+			for(int i=0; i<100 && !budget.isExhausted(); i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(8, budget.getUsed());
+
+			// Nothing more is read while the value waits to be taken.
+			os.write("VALUE b 0 8\r\nbbbbbbbb\r\nEND\r\n".getBytes("US-ASCII"));
+			os.flush();
+			Thread.sleep(200);
+			assertEquals(8, budget.getUsed());
+
+			Map.Entry<String, Object> e=stream.next(10, TimeUnit.SECONDS);
+			assertEquals("a", e.getKey());
+			assertEquals("aaaaaaaa", e.getValue());
+			e=stream.next(10, TimeUnit.SECONDS);
+			assertEquals("b", e.getKey());
+			assertEquals("bbbbbbbb", e.getValue());
+			assertNull(stream.next(10, TimeUnit.SECONDS));
+			assertEquals(0, budget.getUsed());
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testCancelReleasesBudget() throws Exception {
+		BulkGetStream<Object> stream=client.asyncGetBulkStream(
+			Arrays.asList("a", "b"));
+		Socket s=server.accept();
+		try {
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			assertEquals("get a b", r.readLine());
+			OutputStream os=s.getOutputStream();
+			os.write("VALUE a 0 8\r\naaaaaaaa\r\n".getBytes("US-ASCII"));
+			os.flush();
+			for(int i=0; i<100 && !budget.isExhausted(); i++) {
+				Thread.sleep(10);
+			}
+			stream.cancel();
+			assertEquals(0, budget.getUsed());
+			assertFalse(budget.isExhausted());
+			assertNull(stream.next(1, TimeUnit.SECONDS));
+		} finally {
+			s.close();
+		}
+	}
+}
@@ -150,6 +150,19 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
 		}
 	}
 
+	public void testLocatorTypes() {
+		MemcachedNode n = new MockMemcachedNode(
+			InetSocketAddress.createUnresolved("localhost", 11211));
+		assertTrue(b.setLocatorType(Locator.JUMP).build()
+			.createLocator(Collections.singletonList(n))
+				instanceof JumpNodeLocator);
+		assertTrue(b.setLocatorType(Locator.RENDEZVOUS)
+			.setNodeWeights(Collections.singletonMap(
+				n.getSocketAddress(), 2)).build()
+			.createLocator(Collections.singletonList(n))
+				instanceof RendezvousNodeLocator);
+	}
+
 	public void testProtocolSetterBinary() {
 		assertTrue(
 			b.setProtocol(Protocol.BINARY).build().getOperationFactory()
@@ -0,0 +1,229 @@
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+/**
+ * Test callers writing operations for idle nodes themselves.
+ */
+public class DirectWriteTest extends TestCase {
+
+	private ServerSocket server;
+	private MemcachedClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server=new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		client=new MemcachedClient(new DefaultConnectionFactory() {
+				@Override
+				public boolean shouldWriteDirectly() {
+					return true;
+				}
+			},
+			Collections.singletonList(new InetSocketAddress("127.0.0.1",
+				server.getLocalPort())));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.shutdown();
+		server.close();
+		super.tearDown();
+	}
+
+	public void testOperationsInOrder() throws Exception {
+		Socket s=server.accept();
+		try {
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			OutputStream os=s.getOutputStream();
+			Future<Boolean> a=client.delete("a");
+			assertEquals("delete a", r.readLine());
+			os.write("DELETED\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertTrue(a.get(10, TimeUnit.SECONDS));
+
+			// Whether written directly or by the IO thread, they go out and
+			// are answered in order.
+			List<Future<Boolean>> futures=new ArrayList<Future<Boolean>>();
+			for(int i=0; i<100; i++) {
+				futures.add(client.delete("k" + i));
+			}
+			for(int i=0; i<100; i++) {
+				assertEquals("delete k" + i, r.readLine());
+				os.write((i % 2 == 0 ? "DELETED\r\n" : "NOT_FOUND\r\n")
+					.getBytes("US-ASCII"));
+			}
+			os.flush();
+			for(int i=0; i<100; i++) {
+				assertEquals(i % 2 == 0,
+					futures.get(i).get(10, TimeUnit.SECONDS).booleanValue());
+			}
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testLargeOperationLeftToIOThread() throws Exception {
+		Socket s=server.accept();
+		try {
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			// Bigger than the write buffer, and not compressed.
+			char[] value=new char[100000];
+			Arrays.fill(value, 'x');
+			SerializingTranscoder tc=new SerializingTranscoder();
+			tc.setCompressionThreshold(Integer.MAX_VALUE);
+			Future<Boolean> f=client.set("big", 0, new String(value), tc);
+			assertEquals("set big 0 0 100000", r.readLine());
+			assertEquals(new String(value), r.readLine());
+			OutputStream os=s.getOutputStream();
+			os.write("STORED\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertTrue(f.get(10, TimeUnit.SECONDS));
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testReconnectDuringDirectWrites() throws Exception {
+		Thread serverThread=new Thread("fake server") {
+			@Override
+			public void run() {
+				try {
+					// Drop the first few connections with operations in
+					// flight, then answer everything.
+					for(int n=0; n<3; n++) {
+						Socket s=server.accept();
+						BufferedReader r=new BufferedReader(
+							new InputStreamReader(s.getInputStream(),
+								"US-ASCII"));
+						for(int i=0; i<10 && r.readLine() != null; i++) {
+							// discard
+						}
+						s.close();
+					}
+					Socket s=server.accept();
+					BufferedReader r=new BufferedReader(
+						new InputStreamReader(s.getInputStream(), "US-ASCII"));
+					OutputStream os=s.getOutputStream();
+					while(r.readLine() != null) {
+						os.write("NOT_FOUND\r\n".getBytes("US-ASCII"));
+						os.flush();
+					}
+				} catch(Exception e) {
+					// shut down
+				}
+			}
+		};
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		final List<Future<Boolean>> futures=
+			Collections.synchronizedList(new ArrayList<Future<Boolean>>());
+		final List<Throwable> errors=
+			Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] callers=new Thread[4];
+		for(int t=0; t<callers.length; t++) {
+			callers[t]=new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i=0; i<300; i++) {
+							futures.add(client.delete("k" + i));
+						}
+					} catch(Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			callers[t].start();
+		}
+		for(Thread t : callers) {
+			t.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+		// Every operation is answered, replayed or cancelled; none is lost
+		// between a direct write and the reconnect.
+		for(Future<Boolean> f : futures) {
+			try {
+				f.get(10, TimeUnit.SECONDS);
+			} catch(ExecutionException e) {
+				// cancelled
+			} catch(TimeoutException e) {
+				fail("Operation lost in a reconnect: " + e);
+			}
+		}
+	}
+
+	public void testNoDirectWriteDuringTeardown() throws Exception {
+		final SocketChannel ch=SocketChannel.open(new InetSocketAddress(
+			"127.0.0.1", server.getLocalPort()));
+		Selector selector=Selector.open();
+		Socket s=server.accept();
+		try {
+			ch.configureBlocking(false);
+			final MemcachedNode node=new AsciiMemcachedNodeImpl(
+				ch.socket().getRemoteSocketAddress(), ch, 1024,
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(), 1000L);
+			node.setSk(ch.register(selector, 0, node));
+			node.connected();
+			final AsciiOperationFactory of=new AsciiOperationFactory();
+
+			// The IO thread starts tearing the connection down.
+			boolean claimed=node.claimWrites();
+			assertTrue(claimed);
+			final boolean[] wrote=new boolean[1];
+			Thread caller=new Thread() {
+				@Override
+				public void run() {
+					Operation op=of.delete("a", null);
+					op.initialize();
+					wrote[0]=node.writeDirect(op);
+				}
+			};
+			caller.start();
+			caller.join();
+			assertFalse(wrote[0]);
+			node.reconnecting();
+			ch.close();
+			node.setChannel(null);
+			node.releaseWrites(claimed);
+
+			// Nothing's written to a connection that's gone.
+			Operation op=of.delete("b", null);
+			op.initialize();
+			assertFalse(node.writeDirect(op));
+			assertFalse(node.hasReadOp());
+		} finally {
+			s.close();
+			ch.close();
+			selector.close();
+		}
+	}
+}
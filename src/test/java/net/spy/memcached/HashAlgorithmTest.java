@@ -122,4 +122,60 @@ public class HashAlgorithmTest extends TestCase {
 				Math.abs(me.getValue()));
 		}
 	}
+
+	public void testMurmur3Hash() {
+		HashMap<String, Long> exp = new HashMap<String, Long>();
+		exp.put("", 0L);
+		exp.put("a", 1009084850L);
+		exp.put("abc", 3017643002L);
+		exp.put("hello", 613153351L);
+		exp.put("The quick brown fox jumps over the lazy dog", 776992547L);
+
+		for (Map.Entry<String, Long> me : exp.entrySet()) {
+			assertHash(HashAlgorithm.MURMUR3_HASH, me.getKey(), me.getValue());
+		}
+	}
+
+	// Lower 32 bits of the reference XXH64 values with seed 0.
+	public void testXxHash64() {
+		HashMap<String, Long> exp = new HashMap<String, Long>();
+		exp.put("", 0x51d8e999L);
+		exp.put("abc", 0xad770999L);
+		exp.put("The quick brown fox jumps over the lazy dog", 0x1fda71bcL);
+
+		for (Map.Entry<String, Long> me : exp.entrySet()) {
+			assertHash(HashAlgorithm.XXHASH64_HASH, me.getKey(),
+				me.getValue());
+		}
+	}
+
+	public void testCrc32cHash() {
+		HashMap<String, Long> exp = new HashMap<String, Long>();
+		exp.put("", 0L);
+		exp.put("a", 3251651376L);
+		exp.put("hello", 2591144780L);
+		exp.put("123456789", 0xe3069283L);
+
+		for (Map.Entry<String, Long> me : exp.entrySet()) {
+			assertHash(HashAlgorithm.CRC32C_HASH, me.getKey(), me.getValue());
+		}
+	}
+
+	public void testByteHashMatchesStringHash() {
+		StringBuilder longKey = new StringBuilder();
+		for (int i = 0; i < 30; i++) {
+			longKey.append("0123456789");
+		}
+		// Short keys after long ones reuse the scratch buffer; non-ASCII
+		// and overlong keys are encoded the slow way.
+		String[] keys = { "0123456789abcdef0123456789abcdef0123456789",
+			"", "a", "Test1", "UDATA:edevil@sapo.pt", "caf\u00e9",
+			"\u00e9t\u00e9", longKey.toString(), "abc" };
+		for (HashAlgorithm ha : HashAlgorithm.values()) {
+			for (String k : keys) {
+				assertEquals(ha + " of ``" + k + "''", ha.hash(k),
+					ha.hash(KeyUtil.getKeyBytes(k)));
+			}
+		}
+	}
 }
@@ -0,0 +1,61 @@
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
+
+/**
+ * Test the hash tag convention.
+ */
+public class HashTagTest extends TestCase {
+
+	public void testNone() {
+		assertEquals("{a}b", HashTag.NONE.getHashKey("{a}b"));
+	}
+
+	public void testBraces() {
+		HashTag t=HashTag.BRACES;
+		assertEquals("user123", t.getHashKey("{user123}:profile"));
+		assertEquals("user123", t.getHashKey("prefs:{user123}"));
+		assertEquals("a", t.getHashKey("{a}{b}"));
+		// Keys without a usable tag are hashed whole.
+		assertEquals("plain", t.getHashKey("plain"));
+		assertEquals("{}x", t.getHashKey("{}x"));
+		assertEquals("{open", t.getHashKey("{open"));
+		assertEquals("}x{", t.getHashKey("}x{"));
+	}
+
+	public void testCustomDelimiters() {
+		HashTag t=new HashTag("<<", ">>");
+		assertEquals("tag", t.getHashKey("a<<tag>>b"));
+		assertEquals("a{tag}b", t.getHashKey("a{tag}b"));
+	}
+
+	public void testInvalidDelimiters() {
+		try {
+			new HashTag("", "}");
+			fail("Accepted an empty delimiter");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testKetamaColocation() {
+		MemcachedNode nodes[]=new MemcachedNode[8];
+		for(int i=0; i<nodes.length; i++) {
+			nodes[i]=new MockMemcachedNode(
+				new InetSocketAddress("127.0.0.1", 10000 + i));
+		}
+		NodeLocator locator=new KetamaNodeLocator(Arrays.asList(nodes),
+			HashAlgorithm.KETAMA_HASH,
+			new DefaultKetamaNodeLocatorConfiguration(),
+			HashTag.BRACES);
+		MemcachedNode expected=locator.getPrimary("user123");
+		for(String k : new String[]{"{user123}:profile", "{user123}:prefs",
+				"{user123}:friends", "{user123}:avatar"}) {
+			assertSame(expected, locator.getPrimary(k));
+		}
+	}
+}
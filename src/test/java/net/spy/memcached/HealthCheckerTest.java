@@ -0,0 +1,131 @@
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Test probing idle nodes.
+ */
+public class HealthCheckerTest extends TestCase {
+
+	private static final long INTERVAL=1000;
+
+	private HealthChecker checker;
+	private Node node;
+	private Collection<MemcachedNode> nodes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		checker=new HealthChecker(INTERVAL);
+		node=new Node();
+		nodes=Collections.<MemcachedNode>singletonList(node);
+	}
+
+	public void testIdleNodeProbed() {
+		assertTrue(checker.isDue(0));
+		assertTrue(checker.startProbes(nodes, 0).isEmpty());
+		assertFalse(checker.isDue(1));
+		assertTrue(checker.startProbes(nodes, INTERVAL - 1).isEmpty());
+		assertEquals(Arrays.asList(node),
+			checker.startProbes(nodes, INTERVAL));
+		// Only one probe at a time.
+		assertTrue(checker.startProbes(nodes, INTERVAL * 3).isEmpty());
+	}
+
+	public void testActivityDelaysProbe() {
+		checker.startProbes(nodes, 0);
+		checker.active(node, 500);
+		assertTrue(checker.startProbes(nodes, INTERVAL).isEmpty());
+		assertEquals(1, checker.startProbes(nodes, INTERVAL + 500).size());
+	}
+
+	public void testBusyOrInactiveNodeNotProbed() {
+		checker.startProbes(nodes, 0);
+		node.busy=true;
+		assertTrue(checker.startProbes(nodes, INTERVAL).isEmpty());
+		node.busy=false;
+		node.active=false;
+		assertTrue(checker.startProbes(nodes, INTERVAL).isEmpty());
+	}
+
+	public void testUnansweredProbe() {
+		checker.startProbes(nodes, 0);
+		checker.startProbes(nodes, INTERVAL);
+		assertTrue(checker.removeUnresponsive(INTERVAL * 2 - 1).isEmpty());
+		assertEquals(Arrays.asList(node),
+			checker.removeUnresponsive(INTERVAL * 2));
+		assertTrue(checker.removeUnresponsive(INTERVAL * 3).isEmpty());
+	}
+
+	public void testAnsweredProbe() {
+		checker.startProbes(nodes, 0);
+		checker.startProbes(nodes, INTERVAL);
+		checker.probeAnswered(node, INTERVAL + 10);
+		assertTrue(checker.removeUnresponsive(INTERVAL * 3).isEmpty());
+		assertTrue(checker.startProbes(nodes, INTERVAL * 2).isEmpty());
+		assertEquals(1, checker.startProbes(nodes, INTERVAL * 2 + 10).size());
+	}
+
+	public void testProbesMeasureLatency() throws Exception {
+		ServerSocket server=new ServerSocket(0, 10,
+			InetAddress.getByName("127.0.0.1"));
+		MemcachedClient client=new MemcachedClient(
+			new ConnectionFactoryBuilder().setHealthCheckInterval(50).build(),
+			Collections.singletonList(new InetSocketAddress("127.0.0.1",
+				server.getLocalPort())));
+		try {
+			Socket s=server.accept();
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			// The idle connection gets a probe, which is answered.
+			assertEquals("version", r.readLine());
+			s.getOutputStream().write(
+				"VERSION 1.0\r\n".getBytes("US-ASCII"));
+			s.getOutputStream().flush();
+
+			MemcachedNode n=client.getNodeLocator().getAll().iterator().next();
+			for(int i=0; i<100 && n.getLatencyEstimate() < 0; i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(n.getLatencyEstimate() >= 0);
+
+			// An unanswered probe gets the connection reopened.
+			assertEquals("version", r.readLine());
+			server.setSoTimeout(5000);
+			server.accept().close();
+			s.close();
+		} finally {
+			client.shutdown();
+			server.close();
+		}
+	}
+
+	private static class Node extends MockMemcachedNode {
+		boolean active=true;
+		boolean busy=false;
+
+		Node() {
+			super(new InetSocketAddress("127.0.0.1", 11211));
+		}
+
+		@Override
+		public boolean isActive() {
+			return active;
+		}
+
+		@Override
+		public boolean hasReadOp() {
+			return busy;
+		}
+	}
+}
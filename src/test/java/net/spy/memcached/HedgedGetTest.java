@@ -0,0 +1,218 @@
+package net.spy.memcached;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.internal.HedgedGetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.vbucket.VBucketNodeLocator;
+
+import com.northscale.jvbucket.Config;
+import com.northscale.jvbucket.DefaultConfigFactory;
+
+/**
+ * Test gets sent to a replica when the master is slow to answer.
+ */
+public class HedgedGetTest extends TestCase {
+
+	private static final int GET=0x00;
+	private static final int REPLICA_GET=0x83;
+	private static final int NOT_FOUND=0x01;
+
+	private ServerSocket masterServer;
+	private ServerSocket replicaServer;
+	private MemcachedClient client;
+	private Server master;
+	private Server replica;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		InetAddress lo=InetAddress.getByName("127.0.0.1");
+		masterServer=new ServerSocket(0, 10, lo);
+		replicaServer=new ServerSocket(0, 10, lo);
+		final Config config=new DefaultConfigFactory().createConfigFromString(
+			"{\"hashAlgorithm\": \"CRC\", \"numReplicas\": 1,"
+			+ " \"serverList\": [\"127.0.0.1:" + masterServer.getLocalPort()
+			+ "\", \"127.0.0.1:" + replicaServer.getLocalPort() + "\"],"
+			+ " \"vBucketMap\": [[0, 1]]}");
+		client=new MemcachedClient(new DefaultConnectionFactory() {
+				@Override
+				public OperationFactory getOperationFactory() {
+					return new BinaryOperationFactory();
+				}
+				@Override
+				public NodeLocator createLocator(List<MemcachedNode> nodes) {
+					return new VBucketNodeLocator(nodes, config);
+				}
+				@Override
+				public int getMaxReplays() {
+					// Lose whatever's in flight with the connection.
+					return 0;
+				}
+			},
+			Arrays.asList(
+				new InetSocketAddress("127.0.0.1", masterServer.getLocalPort()),
+				new InetSocketAddress("127.0.0.1",
+					replicaServer.getLocalPort())));
+		master=new Server(masterServer.accept());
+		replica=new Server(replicaServer.accept());
+		long end=System.currentTimeMillis() + 10000;
+		while(client.getAvailableServers().size() < 2
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, client.getAvailableServers().size());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.shutdown();
+		master.close();
+		replica.close();
+		masterServer.close();
+		replicaServer.close();
+		super.tearDown();
+	}
+
+	private Future<Object> hedgedGet(String key) {
+		return client.asyncGet(key, client.getTranscoder(),
+			ReadPreference.Hedged);
+	}
+
+	public void testFirstAnswerWins() throws Exception {
+		Future<Object> f=hedgedGet("k");
+		int[] m=master.read(GET, "k");
+		// The master's slow, so the get goes to the replica too.
+		int[] r=replica.read(REPLICA_GET, "k");
+		replica.respond(r, 0, "fromReplica");
+		assertEquals("fromReplica", f.get(10, TimeUnit.SECONDS));
+		master.respond(m, 0, "fromMaster");
+		assertEquals("fromReplica", f.get(10, TimeUnit.SECONDS));
+	}
+
+	public void testNotFoundOnlyFromMaster() throws Exception {
+		Future<Object> f=hedgedGet("k");
+		int[] m=master.read(GET, "k");
+		int[] r=replica.read(REPLICA_GET, "k");
+		// The replica may just not have the key yet.
+		replica.respond(r, NOT_FOUND, null);
+		Thread.sleep(100);
+		assertFalse(f.isDone());
+		master.respond(m, 0, "fromMaster");
+		assertEquals("fromMaster", f.get(10, TimeUnit.SECONDS));
+
+		// The master is believed about a missing key, without waiting for
+		// the replica.
+		f=hedgedGet("k2");
+		m=master.read(GET, "k2");
+		r=replica.read(REPLICA_GET, "k2");
+		master.respond(m, NOT_FOUND, null);
+		assertNull(f.get(10, TimeUnit.SECONDS));
+		replica.respond(r, 0, "fromReplica");
+	}
+
+	public void testCompletesWithoutAnswer() throws Exception {
+		Future<Object> f=hedgedGet("k");
+		master.read(GET, "k");
+		int[] r=replica.read(REPLICA_GET, "k");
+		replica.respond(r, NOT_FOUND, null);
+		// Losing the master's connection cancels its get, which leaves
+		// nothing to wait for.
+		master.close();
+		try {
+			Object o=f.get(10, TimeUnit.SECONDS);
+			fail("Got " + o + " without an answer");
+		} catch(ExecutionException e) {
+			// pass
+		}
+	}
+
+	public void testNoOperationAddedOnceDone() {
+		BinaryOperationFactory of=new BinaryOperationFactory();
+		HedgedGetFuture<Object> f=new HedgedGetFuture<Object>(1000);
+		assertTrue(f.addOperation(of.get("k", null)));
+		assertTrue(f.addOperation(of.replicaGet("k", null)));
+		f.operationComplete();
+		f.operationComplete();
+		assertTrue(f.isDone());
+		// A hedge scheduled before the gets completed comes too late.
+		Operation late=of.replicaGet("k", null);
+		assertFalse(f.addOperation(late));
+
+		f=new HedgedGetFuture<Object>(1000);
+		assertTrue(f.addOperation(of.get("k", null)));
+		assertTrue(f.answer(null));
+		assertFalse(f.addOperation(late));
+		assertFalse(f.answer(null));
+	}
+
+	// A binary protocol server the test answers for by hand.
+	private static class Server {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final OutputStream out;
+
+		Server(Socket s) throws IOException {
+			super();
+			socket=s;
+			in=new DataInputStream(s.getInputStream());
+			out=s.getOutputStream();
+		}
+
+		// Read a request, returning its opcode and opaque.
+		int[] read(int opcode, String key) throws IOException {
+			socket.setSoTimeout(10000);
+			byte[] header=new byte[24];
+			in.readFully(header);
+			ByteBuffer bb=ByteBuffer.wrap(header);
+			assertEquals(0x80, bb.get(0) & 0xff);
+			assertEquals(opcode, bb.get(1) & 0xff);
+			int keyLen=bb.getShort(2);
+			int extLen=bb.get(4);
+			byte[] body=new byte[bb.getInt(8)];
+			in.readFully(body);
+			assertEquals(key, new String(body, extLen, keyLen, "US-ASCII"));
+			return new int[]{bb.get(1) & 0xff, bb.getInt(12)};
+		}
+
+		void respond(int[] req, int status, String value) throws IOException {
+			byte[] v=value == null ? new byte[0] : value.getBytes("UTF-8");
+			int extLen=value == null ? 0 : 4;
+			ByteBuffer bb=ByteBuffer.allocate(24 + extLen + v.length);
+			bb.put((byte)0x81);
+			bb.put((byte)req[0]);
+			bb.putShort((short)0);
+			bb.put((byte)extLen);
+			bb.put((byte)0);
+			bb.putShort((short)status);
+			bb.putInt(extLen + v.length);
+			bb.putInt(req[1]);
+			bb.putLong(0);
+			if(value != null) {
+				// String flags, so the default transcoder decodes it as is.
+				bb.putInt(0);
+				bb.put(v);
+			}
+			out.write(bb.array());
+			out.flush();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+}
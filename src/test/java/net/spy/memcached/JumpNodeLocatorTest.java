@@ -0,0 +1,103 @@
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Test the JumpNodeLocator.
+ */
+public class JumpNodeLocatorTest extends AbstractNodeLocationCase {
+
+	@Override
+	protected void setupNodes(int n) {
+		super.setupNodes(n);
+		locator=new JumpNodeLocator(Arrays.asList(nodes),
+			HashAlgorithm.KETAMA_HASH);
+	}
+
+	public void testAll() throws Exception {
+		setupNodes(4);
+		Collection<MemcachedNode> all = locator.getAll();
+		assertEquals(4, all.size());
+		for(int i=0; i<4; i++) {
+			assertTrue(all.contains(nodes[i]));
+		}
+	}
+
+	public void testPrimaryClone() throws Exception {
+		setupNodes(4);
+		NodeLocator ro=locator.getReadonlyCopy();
+		for(String k : new String[]{"dustin", "noelani", "x", "y"}) {
+			assertEquals(locator.getPrimary(k).toString(),
+				ro.getPrimary(k).toString());
+		}
+	}
+
+	public void testJumpReferenceValues() {
+		assertEquals(0, JumpNodeLocator.jump(0, 1));
+		assertEquals(0, JumpNodeLocator.jump(0xffffffffL, 1));
+		for(int buckets=1; buckets < 100; buckets++) {
+			int b=JumpNodeLocator.jump(12345, buckets);
+			assertTrue(b >= 0 && b < buckets);
+		}
+	}
+
+	public void testBalance() {
+		setupNodes(5);
+		int counts[]=new int[nodes.length];
+		for(int i=0; i<50000; i++) {
+			MemcachedNode n=locator.getPrimary("key" + i);
+			counts[Arrays.asList(nodes).indexOf(n)]++;
+		}
+		for(int c : counts) {
+			assertTrue("Unbalanced: " + Arrays.toString(counts),
+				Math.abs(c - 10000) < 500);
+		}
+	}
+
+	public void testMinimalMovementOnGrowth() {
+		setupNodes(5);
+		NodeLocator small=new JumpNodeLocator(
+			Arrays.asList(nodes).subList(0, 4), HashAlgorithm.KETAMA_HASH);
+		for(int i=0; i<10000; i++) {
+			String k="key" + i;
+			MemcachedNode after=locator.getPrimary(k);
+			// Keys either stay put or move to the new node.
+			assertTrue(after == nodes[4] || after == small.getPrimary(k));
+		}
+	}
+
+	public void testSequenceSkipsPrimary() {
+		setupNodes(5);
+		for(int i=0; i<1000; i++) {
+			String k="key" + i;
+			MemcachedNode primary=locator.getPrimary(k);
+			int count=0;
+			for(Iterator<MemcachedNode> it=locator.getSequence(k);
+				it.hasNext(); count++) {
+				assertNotSame(primary, it.next());
+			}
+			assertEquals(4, count);
+		}
+	}
+
+	public void testSequenceSpreadsFailover() {
+		setupNodes(5);
+		Set<MemcachedNode> backups=new HashSet<MemcachedNode>();
+		for(int i=0; i<1000; i++) {
+			String k="key" + i;
+			if(locator.getPrimary(k) == nodes[0]) {
+				backups.add(locator.getSequence(k).next());
+			}
+		}
+		assertEquals(4, backups.size());
+	}
+
+	public void testSeqOnlyOneServer() {
+		setupNodes(1);
+		assertSequence("noelani");
+	}
+}
@@ -1,6 +1,9 @@
 package net.spy.memcached;
 
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
 
 import junit.framework.TestCase;
 
@@ -16,4 +19,40 @@ public class MemcachedConnectionTest extends TestCase {
 		assertEquals("this is a test \\x5f", s);
 	}
 
+	public void testAddRemoveServers() throws Exception {
+		MemcachedConnection conn=new DefaultConnectionFactory()
+			.createConnection(AddrUtil.getAddresses("127.0.0.1:11211"));
+		try {
+			InetSocketAddress added=new InetSocketAddress("127.0.0.1", 11212);
+			NodeLocator before=conn.getLocator();
+			MemcachedNode original=before.getAll().iterator().next();
+
+			conn.addServers(Collections.singletonList(added));
+			NodeLocator after=conn.getLocator();
+			assertNotSame(before, after);
+			assertEquals(2, after.getAll().size());
+			// The surviving node is kept rather than reconnected.
+			assertTrue(after.getAll().contains(original));
+
+			// Adding a server again changes nothing.
+			conn.addServers(Collections.singletonList(added));
+			assertEquals(2, conn.getLocator().getAll().size());
+
+			conn.removeServers(Collections.singletonList(added));
+			Collection<MemcachedNode> all=conn.getLocator().getAll();
+			assertEquals(1, all.size());
+			assertSame(original, all.iterator().next());
+
+			try {
+				conn.removeServers(Collections.singletonList(
+					original.getSocketAddress()));
+				fail("Removed every server");
+			} catch(IllegalArgumentException e) {
+				// pass
+			}
+		} finally {
+			conn.shutdown();
+		}
+	}
+
 }
@@ -0,0 +1,233 @@
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test connections sharing an event loop.
+ */
+public class MemcachedEventLoopTest extends TestCase {
+
+	private MemcachedEventLoop loop;
+	private ServerSocket server;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		loop=new MemcachedEventLoop();
+		server=new ServerSocket(0, 10,
+			InetAddress.getByName("127.0.0.1"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		loop.shutdown();
+		loop.join(5000);
+		assertFalse(loop.isAlive());
+		super.tearDown();
+	}
+
+	private MemcachedConnection connect(ConnectionFactory cf)
+		throws Exception {
+		return cf.createConnection(Collections.singletonList(
+			new InetSocketAddress("127.0.0.1", server.getLocalPort())));
+	}
+
+	private void waitForActive(MemcachedConnection conn) throws Exception {
+		MemcachedNode node=conn.getLocator().getAll().iterator().next();
+		for(int i=0; i<100 && !node.isActive(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue("Not connected: " + node, node.isActive());
+	}
+
+	public void testSharedConnections() throws Exception {
+		ConnectionFactory cf=new ConnectionFactoryBuilder()
+			.setEventLoop(loop).build();
+		assertSame(loop, cf.getEventLoop());
+		MemcachedConnection c1=connect(cf);
+		MemcachedConnection c2=connect(cf);
+		assertEquals(2, loop.getConnectionCount());
+
+		// Both connect on the loop's thread.
+		waitForActive(c1);
+		waitForActive(c2);
+
+		try {
+			c1.handleIO();
+			fail("Handled IO of a shared connection directly");
+		} catch(IllegalStateException e) {
+			// pass
+		}
+
+		c1.shutdown();
+		assertEquals(1, loop.getConnectionCount());
+		assertTrue(c1.isShutDown());
+		assertFalse(c2.isShutDown());
+		// The other connection is unaffected.
+		waitForActive(c2);
+
+		c2.shutdown();
+		assertEquals(0, loop.getConnectionCount());
+	}
+
+	// Connect with a node the test can interfere with from the loop.
+	private MemcachedConnection connectFailing(final FailingNode[] node)
+		throws Exception {
+		return connect(new DefaultConnectionFactory() {
+				@Override
+				public MemcachedEventLoop getEventLoop() {
+					return loop;
+				}
+				@Override
+				public OperationFactory getOperationFactory() {
+					return new BinaryOperationFactory();
+				}
+				@Override
+				public MemcachedNode createMemcachedNode(SocketAddress sa,
+						SocketChannel c, int bufSize) {
+					node[0]=new FailingNode(sa, c, bufSize);
+					return node[0];
+				}
+			});
+	}
+
+	public void testFailingConnectionIsolated() throws Exception {
+		final FailingNode[] failing=new FailingNode[1];
+		MemcachedConnection broken=connectFailing(failing);
+		waitForActive(broken);
+		failing[0].failing=true;
+		MemcachedConnection c=connect(new ConnectionFactoryBuilder()
+			.setEventLoop(loop).build());
+		try {
+			// The other connection's IO goes on regardless.
+			waitForActive(c);
+			assertTrue(loop.isAlive());
+		} finally {
+			failing[0].failing=false;
+			broken.shutdown();
+			c.shutdown();
+		}
+	}
+
+	public void testShutdownWaitsForLoop() throws Exception {
+		FailingNode[] node=new FailingNode[1];
+		final MemcachedConnection conn=connectFailing(node);
+		waitForActive(conn);
+		node[0].blocked=new CountDownLatch(1);
+		loop.getSelector().wakeup();
+		// The loop's thread is busy with this connection's IO.
+		assertTrue(node[0].entered.await(10, TimeUnit.SECONDS));
+		Thread t=new Thread() {
+			@Override
+			public void run() {
+				try {
+					conn.shutdown();
+				} catch(Exception e) {
+					// checked below
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		assertTrue(node[0].getChannel().isOpen());
+		node[0].blocked.countDown();
+		t.join(10000);
+		assertFalse(t.isAlive());
+		assertFalse(node[0].getChannel().isOpen());
+		assertEquals(0, loop.getConnectionCount());
+	}
+
+	public void testShutdownFromLoop() throws Exception {
+		FailingNode[] node=new FailingNode[1];
+		MemcachedConnection conn=connectFailing(node);
+		waitForActive(conn);
+		node[0].shutDown=conn;
+		loop.getSelector().wakeup();
+		for(int i=0; i<100 && loop.getConnectionCount() > 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, loop.getConnectionCount());
+		assertTrue(conn.isShutDown());
+		// The loop goes on for everyone else.
+		MemcachedConnection c=connect(new ConnectionFactoryBuilder()
+			.setEventLoop(loop).build());
+		try {
+			waitForActive(c);
+		} finally {
+			c.shutdown();
+		}
+	}
+
+	public void testRegisterAfterShutdown() throws Exception {
+		loop.shutdown();
+		ConnectionFactory cf=new ConnectionFactoryBuilder()
+			.setEventLoop(loop).build();
+		try {
+			connect(cf);
+			fail("Registered with a shut down event loop");
+		} catch(IllegalStateException e) {
+			// pass
+		}
+	}
+
+	public void testDefaultHasNoEventLoop() {
+		assertNull(new DefaultConnectionFactory().getEventLoop());
+	}
+
+	// A node that blows up, holds up or shuts down the IO of its
+	// connection on demand.
+	private static class FailingNode extends BinaryMemcachedNodeImpl {
+		volatile boolean failing=false;
+		volatile CountDownLatch blocked=null;
+		final CountDownLatch entered=new CountDownLatch(1);
+		volatile MemcachedConnection shutDown=null;
+
+		FailingNode(SocketAddress sa, SocketChannel c, int bufSize) {
+			super(sa, c, bufSize, new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(), 1000L, false);
+		}
+
+		@Override
+		public int getContinuousTimeout() {
+			if(failing) {
+				throw new IllegalArgumentException("Failing on purpose");
+			}
+			CountDownLatch b=blocked;
+			if(b != null) {
+				entered.countDown();
+				try {
+					b.await();
+				} catch(InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			MemcachedConnection c=shutDown;
+			if(c != null) {
+				shutDown=null;
+				try {
+					c.shutdown();
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return super.getContinuousTimeout();
+		}
+	}
+}
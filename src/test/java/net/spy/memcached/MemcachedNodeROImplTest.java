@@ -29,7 +29,8 @@ public class MemcachedNodeROImplTest extends MockObjectTestCase {
 		Set<String> acceptable = new HashSet<String>(Arrays.asList(
 				"toString", "getSocketAddress", "getBytesRemainingToWrite",
 				"getReconnectCount", "getSelectionOps", "hasReadOp",
-				"hasWriteOp", "isActive"));
+				"hasWriteOp", "isActive", "getLatencyEstimate",
+				"getQueuedBytes", "getInputQueueSize"));
 
 		for(Method meth : MemcachedNode.class.getMethods()) {
 			if(acceptable.contains(meth.getName())) {
@@ -54,6 +55,8 @@ public class MemcachedNodeROImplTest extends MockObjectTestCase {
 		for(Class<?> c : parameterTypes) {
 			if(c == Boolean.TYPE) {
 				args[i++] = false;
+			} else if(c == Long.TYPE) {
+				args[i++] = 0L;
 			} else {
 				args[i++] = null;
 			}
@@ -12,6 +12,8 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationSelector;
+import net.spy.memcached.protocol.ByteBudget;
 
 public class MockMemcachedNode implements MemcachedNode {
 	private final InetSocketAddress socketAddress;
@@ -70,6 +72,9 @@ public class MockMemcachedNode implements MemcachedNode {
 	public void insertOp(Operation op) {
 		// noop
 	}
+	public void insertOps(Collection<Operation> ops) {
+		// noop
+	}
 	public int getSelectionOps() {return 0;}
 	public ByteBuffer getRbuf() {return null;}
 	public ByteBuffer getWbuf() {return null;}
@@ -94,6 +99,11 @@ public class MockMemcachedNode implements MemcachedNode {
 	public SelectionKey getSk() {return null;}
 	public int getBytesRemainingToWrite() {return 0;}
 	public int writeSome() throws IOException {return 0;}
+	public boolean writeDirect(Operation op) {return false;}
+	public boolean claimWrites() {return false;}
+	public void releaseWrites(boolean claimed) {
+		// noop
+	}
 	public void fixupOps() {
 		// noop
 	}
@@ -102,6 +112,10 @@ public class MockMemcachedNode implements MemcachedNode {
 		return null;
 	}
 
+	public Collection<Operation> removeQueuedOps(OperationSelector s) {
+		return null;
+	}
+
 	public void authComplete() {
 		// noop
 	}
@@ -117,4 +131,16 @@ public class MockMemcachedNode implements MemcachedNode {
 	public void setContinuousTimeout(boolean timedOut) {
 		// noop
 	}
-}
\ No newline at end of file
+
+	public void responseTimedOut() {
+		// noop
+	}
+
+	public void recordLatency(long micros) {
+		// noop
+	}
+	public long getLatencyEstimate() {return -1;}
+	public long getQueuedBytes() {return 0;}
+	public int getInputQueueSize() {return 0;}
+	public ByteBudget getReceiveBudget() {return null;}
+}
@@ -0,0 +1,187 @@
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test batching the operations a thread submits.
+ */
+public class OperationBatchTest extends TestCase {
+
+	private ServerSocket server;
+	private MemcachedClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server=new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		client=new MemcachedClient(new DefaultConnectionFactory(),
+			Collections.singletonList(new InetSocketAddress("127.0.0.1",
+				server.getLocalPort())));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.shutdown();
+		server.close();
+		super.tearDown();
+	}
+
+	public void testBatchHeldUntilFlushed() throws Exception {
+		Socket s=server.accept();
+		try {
+			s.setSoTimeout(200);
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			client.startBatch();
+			Future<Boolean> a=client.delete("a");
+			Future<Boolean> b=client.delete("b");
+			try {
+				fail("Sent before flushing: " + r.readLine());
+			} catch(SocketTimeoutException e) {
+				// pass
+			}
+			client.flushBatch();
+			s.setSoTimeout(10000);
+			assertEquals("delete a", r.readLine());
+			assertEquals("delete b", r.readLine());
+			OutputStream os=s.getOutputStream();
+			os.write("DELETED\r\nNOT_FOUND\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertTrue(a.get(10, TimeUnit.SECONDS));
+			assertFalse(b.get(10, TimeUnit.SECONDS));
+
+			// Not batching any more.
+			Future<Boolean> c=client.delete("c");
+			assertEquals("delete c", r.readLine());
+			os.write("DELETED\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertTrue(c.get(10, TimeUnit.SECONDS));
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testAddOperationsGroupedByNode() throws Exception {
+		ServerSocket other=new ServerSocket(0, 10,
+			InetAddress.getByName("127.0.0.1"));
+		// No IO thread, so whatever's handed over stays put.
+		MemcachedConnection conn=new DefaultConnectionFactory()
+			.createConnection(Arrays.asList(
+				new InetSocketAddress("127.0.0.1", server.getLocalPort()),
+				new InetSocketAddress("127.0.0.1", other.getLocalPort())));
+		try {
+			AsciiOperationFactory of=new AsciiOperationFactory();
+			List<DeleteOperation> ops=new ArrayList<DeleteOperation>();
+			Map<MemcachedNode, Integer> expected=
+				new HashMap<MemcachedNode, Integer>();
+			for(int i=0; i<50; i++) {
+				String key="k" + i;
+				ops.add(of.delete(key, null));
+				MemcachedNode node=conn.getLocator().getPrimary(key);
+				Integer n=expected.get(node);
+				expected.put(node, n == null ? 1 : n + 1);
+			}
+			assertEquals(2, expected.size());
+			int queued=conn.getAddedQueue().size();
+			int wakeups=conn.getWakeups();
+
+			conn.addOperations(ops);
+			// Each node is handed over once, with a single wakeup.
+			Collection<MemcachedNode> added=conn.getAddedQueue();
+			assertEquals(queued + expected.size(), added.size());
+			assertTrue(added.containsAll(expected.keySet()));
+			assertEquals(wakeups + 1, conn.getWakeups());
+			for(Map.Entry<MemcachedNode, Integer> me : expected.entrySet()) {
+				assertEquals(me.getValue().intValue(),
+					me.getKey().getInputQueueSize());
+			}
+		} finally {
+			conn.shutdown();
+			other.close();
+		}
+	}
+
+	public void testSetBulk() throws Exception {
+		Socket s=server.accept();
+		try {
+			s.setSoTimeout(200);
+			BufferedReader r=new BufferedReader(
+				new InputStreamReader(s.getInputStream(), "US-ASCII"));
+			Map<String, String> values=new LinkedHashMap<String, String>();
+			values.put("a", "1");
+			values.put("b", "2");
+			values.put("c", "3");
+			// A bulk set joins the thread's batch.
+			client.startBatch();
+			Map<String, Future<Boolean>> futures=client.setBulk(values, 0);
+			try {
+				fail("Sent before flushing: " + r.readLine());
+			} catch(SocketTimeoutException e) {
+				// pass
+			}
+			client.flushBatch();
+			s.setSoTimeout(10000);
+			for(Map.Entry<String, String> me : values.entrySet()) {
+				assertEquals("set " + me.getKey() + " 0 0 1", r.readLine());
+				assertEquals(me.getValue(), r.readLine());
+			}
+			OutputStream os=s.getOutputStream();
+			os.write("STORED\r\nNOT_STORED\r\nSTORED\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertEquals(values.keySet(), futures.keySet());
+			assertTrue(futures.get("a").get(10, TimeUnit.SECONDS));
+			assertFalse(futures.get("b").get(10, TimeUnit.SECONDS));
+			assertTrue(futures.get("c").get(10, TimeUnit.SECONDS));
+
+			// And goes out straight away otherwise.
+			futures=client.setBulk(Collections.singletonMap("d", "4"), 0);
+			assertEquals("set d 0 0 1", r.readLine());
+			assertEquals("4", r.readLine());
+			os.write("STORED\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertTrue(futures.get("d").get(10, TimeUnit.SECONDS));
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testSetBulkInvalidKey() {
+		Map<String, String> values=new LinkedHashMap<String, String>();
+		values.put("a", "1");
+		values.put("bad key", "2");
+		try {
+			client.setBulk(values, 0);
+			fail("Accepted an invalid key");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testFlushWithoutBatch() {
+		client.flushBatch();
+		client.startBatch();
+		client.flushBatch();
+		client.flushBatch();
+	}
+}
@@ -229,6 +229,48 @@ public abstract class OperationFactoryTestBase extends MockObjectTestCase {
 		}
 	}
 
+	public void testMultipleGetOperationGroupedCloning() {
+		Collection<String> keys = Arrays.asList("k1", "k2", "k3");
+		Mock m = mock(GetOperation.Callback.class);
+		OperationStatus st=new OperationStatus(true, "blah");
+		m.expects(once()).method("complete");
+		m.expects(once()).method("receivedStatus").with(same(st));
+		m.expects(once()).method("gotData")
+			.with(eq("k1"), eq(1), isA(byte[].class));
+		m.expects(once()).method("gotData")
+			.with(eq("k3"), eq(3), isA(byte[].class));
+
+		GetOperation.Callback callback = (GetOperation.Callback)m.proxy();
+		GetOperation op = ofact.get(keys, callback);
+
+		Collection<Collection<String>> groups =
+			new ArrayList<Collection<String>>();
+		groups.add(Arrays.asList("k1", "k3"));
+		groups.add(Arrays.asList("k2"));
+		Collection<Operation> ops = ofact.clone(op, groups);
+		assertEquals(2, ops.size());
+
+		// One multi-get per group, in the order of the groups.
+		Iterator<Collection<String>> gi = groups.iterator();
+		for(Operation o : ops) {
+			assertEquals(new ArrayList<String>(gi.next()),
+				new ArrayList<String>(((GetOperation)o).getKeys()));
+		}
+
+		// The original callback completes once, after every clone.
+		Iterator<Operation> oi = ops.iterator();
+		GetOperation.Callback cb1 =
+			(GetOperation.Callback)oi.next().getCallback();
+		GetOperation.Callback cb2 =
+			(GetOperation.Callback)oi.next().getCallback();
+		cb1.gotData("k1", 1, new byte[3]);
+		cb1.gotData("k3", 3, new byte[3]);
+		cb1.receivedStatus(st);
+		cb1.complete();
+		cb2.receivedStatus(st);
+		cb2.complete();
+	}
+
 	protected void assertKey(KeyedOperation op) {
 		assertEquals(TEST_KEY, op.getKeys().iterator().next());
 	}
@@ -0,0 +1,100 @@
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test resending operations that were in flight on a lost connection.
+ */
+public class OperationReplayTest extends TestCase {
+
+	private ServerSocket server;
+	private MemcachedClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server=new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(client != null) {
+			client.shutdown();
+		}
+		server.close();
+		super.tearDown();
+	}
+
+	private void connect(int maxReplays) throws Exception {
+		client=new MemcachedClient(new ConnectionFactoryBuilder()
+			.setFailureMode(FailureMode.Retry)
+			.setOpTimeout(10000)
+			.setMaxReplays(maxReplays)
+			.build(),
+			Collections.singletonList(new InetSocketAddress("127.0.0.1",
+				server.getLocalPort())));
+	}
+
+	// Accept a connection and read one request from it.
+	private Socket acceptRequest(String expected) throws Exception {
+		Socket s=server.accept();
+		BufferedReader r=new BufferedReader(
+			new InputStreamReader(s.getInputStream(), "US-ASCII"));
+		assertEquals(expected, r.readLine());
+		return s;
+	}
+
+	public void testGetReplayedAfterReconnect() throws Exception {
+		connect(DefaultConnectionFactory.DEFAULT_MAX_REPLAYS);
+		Future<Object> f=client.asyncGet("k");
+
+		// Drop the connection once the get was sent.
+		acceptRequest("get k").close();
+
+		// The get is sent again on the new connection.
+		Socket s=acceptRequest("get k");
+		try {
+			OutputStream os=s.getOutputStream();
+			os.write("VALUE k 0 1\r\nx\r\nEND\r\n".getBytes("US-ASCII"));
+			os.flush();
+			assertEquals("x", f.get(10, TimeUnit.SECONDS));
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testNoReplays() throws Exception {
+		connect(0);
+		Future<Object> f=client.asyncGet("k");
+		acceptRequest("get k").close();
+		try {
+			Object o=f.get(10, TimeUnit.SECONDS);
+			fail("Expected the get to be cancelled, got " + o);
+		} catch(ExecutionException e) {
+			// pass
+		}
+	}
+
+	public void testIdempotentOperations() {
+		OperationFactory of=new ConnectionFactoryBuilder().build()
+			.getOperationFactory();
+		assertTrue(DefaultConnectionFactory.IDEMPOTENT_OPERATIONS.select(
+			of.get("k", null)));
+		assertTrue(DefaultConnectionFactory.IDEMPOTENT_OPERATIONS.select(
+			of.gets("k", null)));
+		assertFalse(DefaultConnectionFactory.IDEMPOTENT_OPERATIONS.select(
+			of.delete("k", null)));
+	}
+}
@@ -0,0 +1,129 @@
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the reconnect scheduler.
+ */
+public class ReconnectSchedulerTest extends TestCase {
+
+	private static final long MIN=100;
+	private static final long MAX=30000;
+
+	private ReconnectScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		scheduler=new ReconnectScheduler(MIN, MAX, new Random(42));
+	}
+
+	public void testEmpty() {
+		assertTrue(scheduler.isEmpty());
+		assertEquals(Long.MAX_VALUE, scheduler.getNextTime());
+		assertTrue(scheduler.release(Long.MAX_VALUE).isEmpty());
+	}
+
+	public void testBackoffWithinBounds() {
+		Node n=new Node(11211);
+		long prev=MIN;
+		for(int i=1; i<50; i++) {
+			n.attempts=i;
+			long delay=scheduler.schedule(n, 0);
+			assertTrue("Delay " + delay + " below minimum", delay >= MIN);
+			assertTrue("Delay " + delay + " above maximum", delay <= MAX);
+			assertTrue("Delay " + delay + " more than triple " + prev,
+				delay <= prev * 3);
+			prev=delay;
+		}
+	}
+
+	public void testBackoffGrows() {
+		Node n=new Node(11211);
+		long total=0;
+		for(int i=1; i<=20; i++) {
+			n.attempts=i;
+			total=scheduler.schedule(n, 0);
+		}
+		// After many attempts the delays are well beyond the first one.
+		assertTrue("Backoff didn't grow: " + total, total > MIN * 3);
+	}
+
+	public void testBackoffStartsOverAfterConnecting() {
+		Node n=new Node(11211);
+		for(int i=1; i<=20; i++) {
+			n.attempts=i;
+			scheduler.schedule(n, 0);
+		}
+		n.attempts=1;
+		long delay=scheduler.schedule(n, 0);
+		assertTrue(delay >= MIN && delay <= MIN * 3);
+	}
+
+	public void testJitterSpreadsReconnects() {
+		// Nodes lost at the same moment aren't all due at the same time.
+		long first=-1;
+		boolean spread=false;
+		for(int i=0; i<20; i++) {
+			Node n=new Node(11211 + i);
+			n.attempts=1;
+			long t=scheduler.schedule(n, 1000);
+			if(first < 0) {
+				first=t;
+			} else if(t != first) {
+				spread=true;
+			}
+		}
+		assertTrue(spread);
+	}
+
+	public void testRescheduleReplaces() {
+		Node n=new Node(11211);
+		n.attempts=1;
+		scheduler.schedule(n, 0);
+		long t=scheduler.schedule(n, 1000);
+		assertEquals(t, scheduler.getNextTime());
+		assertEquals(Arrays.asList(n), scheduler.release(Long.MAX_VALUE));
+		assertTrue(scheduler.isEmpty());
+	}
+
+	public void testReleaseInOrder() {
+		Node a=new Node(11211);
+		Node b=new Node(11212);
+		a.attempts=1;
+		b.attempts=1;
+		long ta=scheduler.schedule(a, 1000);
+		long tb=scheduler.schedule(b, 0);
+		assertTrue(tb < ta);
+		assertEquals(tb, scheduler.getNextTime());
+		assertTrue(scheduler.release(tb - 1).isEmpty());
+		assertEquals(Arrays.asList(b), scheduler.release(tb));
+		assertEquals(Arrays.asList(a), scheduler.release(ta));
+	}
+
+	public void testRemove() {
+		Node n=new Node(11211);
+		n.attempts=1;
+		scheduler.schedule(n, 0);
+		assertTrue(scheduler.remove(n));
+		assertFalse(scheduler.remove(n));
+		assertTrue(scheduler.isEmpty());
+	}
+
+	private static class Node extends MockMemcachedNode {
+		int attempts=0;
+
+		Node(int port) {
+			super(new InetSocketAddress("127.0.0.1", port));
+		}
+
+		@Override
+		public int getReconnectCount() {
+			return attempts;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test the RendezvousNodeLocator.
+ */
+public class RendezvousNodeLocatorTest extends AbstractNodeLocationCase {
+
+	private InetSocketAddress addrs[];
+
+	protected void setupNodes(int n, Map<SocketAddress, Integer> weights) {
+		super.setupNodes(n);
+		addrs=new InetSocketAddress[n];
+		for(int i=0; i<nodeMocks.length; i++) {
+			addrs[i]=InetSocketAddress.createUnresolved("127.0.0.1",
+				10000 + i);
+			nodeMocks[i].expects(atLeastOnce())
+				.method("getSocketAddress")
+				.will(returnValue(addrs[i]));
+		}
+		locator=new RendezvousNodeLocator(Arrays.asList(nodes),
+			HashAlgorithm.KETAMA_HASH, weights);
+	}
+
+	@Override
+	protected void setupNodes(int n) {
+		setupNodes(n, Collections.<SocketAddress, Integer>emptyMap());
+	}
+
+	private int[] countPrimaries(int numKeys) {
+		int counts[]=new int[nodes.length];
+		for(int i=0; i<numKeys; i++) {
+			MemcachedNode n=locator.getPrimary("key" + i);
+			counts[Arrays.asList(nodes).indexOf(n)]++;
+		}
+		return counts;
+	}
+
+	public void testAll() throws Exception {
+		setupNodes(4);
+		Collection<MemcachedNode> all = locator.getAll();
+		assertEquals(4, all.size());
+		for(int i=0; i<4; i++) {
+			assertTrue(all.contains(nodes[i]));
+		}
+	}
+
+	public void testPrimaryClone() throws Exception {
+		setupNodes(4);
+		NodeLocator ro=locator.getReadonlyCopy();
+		for(String k : new String[]{"dustin", "noelani", "x", "y"}) {
+			assertEquals(locator.getPrimary(k).toString(),
+				ro.getPrimary(k).toString());
+		}
+	}
+
+	public void testBalance() {
+		setupNodes(5);
+		for(int c : countPrimaries(50000)) {
+			assertTrue("Unbalanced: " + c, Math.abs(c - 10000) < 500);
+		}
+	}
+
+	public void testWeightedBalance() {
+		Map<SocketAddress, Integer> weights=
+			new HashMap<SocketAddress, Integer>();
+		weights.put(InetSocketAddress.createUnresolved("127.0.0.1", 10000), 3);
+		setupNodes(3, weights);
+		int counts[]=countPrimaries(50000);
+		// Expect 3/5, 1/5, 1/5
+		assertTrue(Arrays.toString(counts), Math.abs(counts[0] - 30000) < 750);
+		assertTrue(Arrays.toString(counts), Math.abs(counts[1] - 10000) < 750);
+		assertTrue(Arrays.toString(counts), Math.abs(counts[2] - 10000) < 750);
+	}
+
+	public void testInvalidWeight() {
+		Map<SocketAddress, Integer> weights=
+			new HashMap<SocketAddress, Integer>();
+		weights.put(InetSocketAddress.createUnresolved("127.0.0.1", 10000), 0);
+		try {
+			setupNodes(1, weights);
+			fail("Accepted a zero weight");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testMinimalMovementOnRemoval() {
+		setupNodes(5);
+		NodeLocator smaller=new RendezvousNodeLocator(
+			Arrays.asList(nodes[0], nodes[1], nodes[3], nodes[4]),
+			HashAlgorithm.KETAMA_HASH);
+		for(int i=0; i<10000; i++) {
+			String k="key" + i;
+			MemcachedNode before=locator.getPrimary(k);
+			MemcachedNode after=smaller.getPrimary(k);
+			if(before != nodes[2]) {
+				assertSame(before, after);
+			} else {
+				// Keys from the removed node go to their first backup.
+				assertSame(locator.getSequence(k).next(), after);
+			}
+		}
+	}
+
+	public void testSequenceVisitsEveryOtherNodeOnce() {
+		setupNodes(5);
+		for(int i=0; i<1000; i++) {
+			String k="key" + i;
+			Set<MemcachedNode> seen=new HashSet<MemcachedNode>();
+			seen.add(locator.getPrimary(k));
+			for(Iterator<MemcachedNode> it=locator.getSequence(k);
+				it.hasNext(); ) {
+				assertTrue(seen.add(it.next()));
+			}
+			assertEquals(5, seen.size());
+		}
+	}
+
+	public void testSeqOnlyOneServer() {
+		setupNodes(1);
+		assertSequence("noelani");
+	}
+}
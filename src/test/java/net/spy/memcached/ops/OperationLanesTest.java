@@ -0,0 +1,298 @@
+package net.spy.memcached.ops;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the interactive and bulk lanes of an operation queue.
+ */
+public class OperationLanesTest extends TestCase {
+
+	private final OperationFactory of=new AsciiOperationFactory();
+	private OperationLanes lanes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		lanes=new OperationLanes(new LinkedBlockingQueue<Operation>(),
+			new LinkedBlockingQueue<Operation>(),
+			new OperationSelector() {
+				public boolean select(Operation op) {
+					return op instanceof StatsOperation;
+				}
+			}, 2);
+	}
+
+	private Operation interactive() {
+		return of.get("k", null);
+	}
+
+	private Operation bulk() {
+		return bulk("k");
+	}
+
+	private Operation bulk(String key) {
+		Operation rv=of.get(key, null);
+		rv.setPriority(OperationPriority.BULK);
+		return rv;
+	}
+
+	public void testWeightedOrder() {
+		List<Operation> expected=new ArrayList<Operation>();
+		Operation[] i=new Operation[6];
+		Operation[] b=new Operation[3];
+		for(int n=0; n<i.length; n++) {
+			i[n]=interactive();
+			lanes.add(i[n]);
+		}
+		for(int n=0; n<b.length; n++) {
+			b[n]=bulk();
+			lanes.add(b[n]);
+		}
+		// Two interactive operations for every bulk one.
+		expected.add(i[0]);
+		expected.add(i[1]);
+		expected.add(b[0]);
+		expected.add(i[2]);
+		expected.add(i[3]);
+		expected.add(b[1]);
+		expected.add(i[4]);
+		expected.add(i[5]);
+		expected.add(b[2]);
+		List<Operation> got=new ArrayList<Operation>();
+		while(!lanes.isEmpty()) {
+			Operation peeked=lanes.peek();
+			assertSame(peeked, lanes.remove());
+			got.add(peeked);
+		}
+		assertEquals(expected, got);
+		assertNull(lanes.poll());
+	}
+
+	public void testLaneAloneTakesAll() {
+		Operation b1=bulk();
+		Operation b2=bulk();
+		lanes.add(b1);
+		lanes.add(b2);
+		assertSame(b1, lanes.poll());
+		assertSame(b2, lanes.poll());
+	}
+
+	public void testSelectedOperationsAreBulk() {
+		Operation s=of.stats(null, null);
+		Operation i=interactive();
+		lanes.add(s);
+		lanes.add(i);
+		assertSame(i, lanes.poll());
+		assertSame(s, lanes.poll());
+	}
+
+	public void testDrainToLimit() {
+		for(int n=0; n<5; n++) {
+			lanes.add(interactive());
+			lanes.add(bulk());
+		}
+		List<Operation> got=new ArrayList<Operation>();
+		assertEquals(4, lanes.drainTo(got, 4));
+		assertEquals(6, lanes.size());
+		assertEquals(6, lanes.drainTo(got));
+		assertTrue(lanes.isEmpty());
+	}
+
+	public void testIteratorRemove() {
+		Operation i=interactive();
+		Operation b=bulk();
+		lanes.add(i);
+		lanes.add(b);
+		Iterator<Operation> it=lanes.iterator();
+		assertSame(i, it.next());
+		assertTrue(it.hasNext());
+		it.remove();
+		assertSame(b, it.next());
+		assertFalse(it.hasNext());
+		assertEquals(1, lanes.size());
+		assertSame(b, lanes.peek());
+	}
+
+	public void testFullBulkLaneOnlyHoldsUpBulk() {
+		lanes=new OperationLanes(new ArrayBlockingQueue<Operation>(2),
+			new ArrayBlockingQueue<Operation>(1), null, 2);
+		assertTrue(lanes.offer(bulk()));
+		assertFalse(lanes.offer(bulk()));
+		assertTrue(lanes.offer(interactive()));
+		assertEquals(0, lanes.remainingCapacity());
+	}
+
+	public void testPollWaitsForOperation() throws Exception {
+		long start=System.nanoTime();
+		assertNull(lanes.poll(50, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start
+			>= TimeUnit.MILLISECONDS.toNanos(50));
+
+		final Operation b=bulk();
+		Thread t=new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					lanes.put(b);
+				} catch(InterruptedException e) {
+					// test fails
+				}
+			}
+		};
+		t.start();
+		assertSame(b, lanes.poll(10, TimeUnit.SECONDS));
+		t.join();
+	}
+
+	public void testTakeWaitsForOperation() throws Exception {
+		final Operation i=interactive();
+		Thread t=new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch(InterruptedException e) {
+					// offer anyway
+				}
+				lanes.offer(i);
+			}
+		};
+		t.start();
+		assertSame(i, lanes.take());
+		t.join();
+	}
+
+	public void testTransferAroundFullLane() {
+		OperationLanes to=new OperationLanes(
+			new ArrayBlockingQueue<Operation>(2),
+			new ArrayBlockingQueue<Operation>(1), null, 2);
+		Operation[] b={bulk(), bulk()};
+		Operation[] i={interactive(), interactive(), interactive()};
+		lanes.add(b[0]);
+		lanes.add(b[1]);
+		for(Operation op : i) {
+			lanes.add(op);
+		}
+		// The second bulk operation doesn't fit, but interactive ones
+		// still go until their own lane is full.
+		assertEquals(3, lanes.transferTo(to, 10));
+		assertEquals(2, lanes.size());
+		assertSame(i[0], to.poll());
+		assertSame(i[1], to.poll());
+		assertSame(b[0], to.poll());
+		assertSame(i[2], lanes.poll());
+		assertSame(b[1], lanes.poll());
+	}
+
+	public void testTransferToLimit() {
+		for(int n=0; n<3; n++) {
+			lanes.add(interactive());
+		}
+		List<Operation> got=new ArrayList<Operation>();
+		assertEquals(2, lanes.transferTo(
+			new LinkedBlockingQueue<Operation>(), 2));
+		assertEquals(1, lanes.drainTo(got));
+	}
+
+	public void testFullWriteLaneOnlyHoldsUpBulk() throws Exception {
+		SocketChannel ch=SocketChannel.open();
+		try {
+			OperationLanes writeQ=new OperationLanes(
+				new ArrayBlockingQueue<Operation>(2),
+				new ArrayBlockingQueue<Operation>(1), null, 2);
+			MemcachedNode node=new AsciiMemcachedNodeImpl(
+				new InetSocketAddress("127.0.0.1", 11211), ch, 1024,
+				new LinkedBlockingQueue<Operation>(), writeQ, lanes, 1000L);
+			node.addOp(bulk());
+			node.copyInputQueue();
+			assertEquals(0, writeQ.remainingCapacity());
+			Operation b=bulk();
+			Operation i=interactive();
+			node.addOp(b);
+			node.addOp(i);
+			node.copyInputQueue();
+			assertEquals(2, writeQ.size());
+			assertEquals(1, lanes.size());
+			assertSame(b, lanes.peek());
+		} finally {
+			ch.close();
+		}
+	}
+
+	public void testHeadStaysUntilTaken() {
+		Operation b=bulk();
+		lanes.add(b);
+		assertSame(b, lanes.peek());
+		// An interactive operation arriving now must not take its place.
+		Operation i=interactive();
+		lanes.add(i);
+		assertSame(b, lanes.peek());
+		assertSame(b, lanes.poll());
+		assertSame(i, lanes.poll());
+	}
+
+	public void testPartlyWrittenBulkOpNotInterrupted() throws Exception {
+		ServerSocket server=new ServerSocket(0, 1,
+			InetAddress.getByName("127.0.0.1"));
+		SocketChannel ch=SocketChannel.open(new InetSocketAddress(
+			"127.0.0.1", server.getLocalPort()));
+		Socket s=server.accept();
+		try {
+			ch.configureBlocking(false);
+			// A write buffer smaller than one request.
+			MemcachedNode node=new AsciiMemcachedNodeImpl(
+				ch.socket().getRemoteSocketAddress(), ch, 4,
+				new LinkedBlockingQueue<Operation>(), lanes,
+				new LinkedBlockingQueue<Operation>(), 1000L);
+			Operation b=bulk("b");
+			b.initialize();
+			node.addOp(b);
+			node.copyInputQueue();
+			node.fillWriteBuffer(false);
+			assertEquals(4, node.writeSome());
+
+			Operation i=of.get("i", null);
+			i.initialize();
+			node.addOp(i);
+			node.copyInputQueue();
+			node.fillWriteBuffer(false);
+			while(node.getBytesRemainingToWrite() > 0) {
+				node.writeSome();
+				node.fillWriteBuffer(false);
+			}
+			assertFalse(node.hasWriteOp());
+
+			String expected="get b\r\nget i\r\n";
+			byte[] got=new byte[expected.length()];
+			InputStream in=s.getInputStream();
+			for(int n=0; n < got.length; ) {
+				n += in.read(got, n, got.length - n);
+			}
+			assertEquals(expected, new String(got, "US-ASCII"));
+			assertSame(b, node.removeCurrentReadOp());
+			assertSame(i, node.removeCurrentReadOp());
+		} finally {
+			s.close();
+			ch.close();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package net.spy.memcached.protocol;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationSelector;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the byte budget for queued operations.
+ */
+public class ByteBudgetTest extends TestCase {
+
+	public void testInvalidBudget() {
+		try {
+			new ByteBudget(0, null);
+			fail("Accepted an empty budget");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testWithinBudget() throws Exception {
+		ByteBudget b=new ByteBudget(100, null);
+		assertTrue(b.acquire(60, 0));
+		assertTrue(b.acquire(40, 0));
+		assertEquals(100, b.getUsed());
+		assertFalse(b.acquire(1, 10));
+		b.release(50);
+		assertTrue(b.acquire(1, 0));
+		assertEquals(51, b.getUsed());
+	}
+
+	public void testOversizedOperationLetInWhenEmpty() throws Exception {
+		ByteBudget b=new ByteBudget(100, null);
+		assertTrue(b.acquire(1000, 0));
+		assertFalse(b.acquire(1, 0));
+		b.release(1000);
+		assertEquals(0, b.getUsed());
+	}
+
+	public void testParentLimits() throws Exception {
+		ByteBudget client=new ByteBudget(100, null);
+		ByteBudget a=new ByteBudget(80, client);
+		ByteBudget b=new ByteBudget(80, client);
+		assertTrue(a.acquire(70, 0));
+		assertFalse(b.acquire(40, 0));
+		// A failed acquisition takes nothing.
+		assertEquals(0, b.getUsed());
+		assertEquals(70, client.getUsed());
+		assertTrue(b.acquire(30, 0));
+		a.release(70);
+		assertEquals(30, client.getUsed());
+	}
+
+	public void testForceOverdraws() {
+		ByteBudget client=new ByteBudget(100, null);
+		ByteBudget b=new ByteBudget(10, client);
+		b.force(50);
+		b.force(50);
+		assertEquals(100, b.getUsed());
+		assertEquals(100, client.getUsed());
+	}
+
+	public void testReleaseWakesWaiter() throws Exception {
+		final ByteBudget b=new ByteBudget(100, null);
+		assertTrue(b.acquire(100, 0));
+		Thread t=new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch(InterruptedException e) {
+					// done early
+				}
+				b.release(100);
+			}
+		};
+		t.start();
+		assertTrue(b.acquire(100, 5000));
+		t.join();
+	}
+
+	public void testHeldUntilWritten() throws Exception {
+		ServerSocket server=new ServerSocket(0, 10,
+			InetAddress.getByName("127.0.0.1"));
+		server.setReceiveBufferSize(4096);
+		InetSocketAddress addr=new InetSocketAddress("127.0.0.1",
+			server.getLocalPort());
+		SocketChannel ch=SocketChannel.open(addr);
+		final Socket s=server.accept();
+		try {
+			ch.configureBlocking(false);
+			ch.socket().setSendBufferSize(4096);
+			ByteBudget b=new ByteBudget(64 * 1024, null);
+			TCPMemcachedNodeImpl node=new AsciiMemcachedNodeImpl(addr, ch,
+				16384, new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(), 100L, null, b,
+				new ByteBudget(Long.MAX_VALUE, null), null);
+			AsciiOperationFactory of=new AsciiOperationFactory();
+			byte[] value=new byte[16384];
+			int added=0;
+			try {
+				for(; added<1000; added++) {
+					Operation op=of.store(StoreType.set, "k" + added, 0, 0,
+						value, null);
+					op.initialize();
+					node.addOp(op);
+					// What the IO thread does, against a server that never
+					// reads.
+					node.copyInputQueue();
+					node.fillWriteBuffer(false);
+					while(node.getBytesRemainingToWrite() > 0
+							&& node.writeSome() > 0) {
+						// keep writing
+					}
+				}
+				fail("Queued " + added + " operations the server never read");
+			} catch(IllegalStateException e) {
+				// pass
+			}
+			// Operations moved to the write queue still count.
+			assertEquals(0, node.getInputQueueSize());
+			assertTrue(node.hasWriteOp());
+			assertTrue(node.getQueuedBytes() > 0);
+			assertTrue(node.getQueuedBytes() <= 64 * 1024);
+
+			// Taking unwritten operations back frees their bytes.
+			node.removeQueuedOps(new OperationSelector() {
+				public boolean select(Operation op) {
+					return true;
+				}
+			});
+			assertEquals(node.getCurrentWriteOp().getBuffer().limit(),
+				node.getQueuedBytes());
+
+			// And writing the rest frees everything.
+			Thread reader=new Thread() {
+				@Override
+				public void run() {
+					try {
+						InputStream in=s.getInputStream();
+						byte[] buf=new byte[8192];
+						while(in.read(buf) >= 0) {
+							// discard
+						}
+					} catch(Exception e) {
+						// closed
+					}
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+			long end=System.currentTimeMillis() + 10000;
+			while((node.hasWriteOp() || node.getBytesRemainingToWrite() > 0)
+					&& System.currentTimeMillis() < end) {
+				node.fillWriteBuffer(false);
+				node.writeSome();
+			}
+			assertFalse(node.hasWriteOp());
+			assertEquals(0, node.getQueuedBytes());
+		} finally {
+			s.close();
+			ch.close();
+			server.close();
+		}
+	}
+}
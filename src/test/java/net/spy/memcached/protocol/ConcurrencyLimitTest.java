@@ -0,0 +1,125 @@
+package net.spy.memcached.protocol;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the adaptive concurrency limit.
+ */
+public class ConcurrencyLimitTest extends TestCase {
+
+	private static final int INITIAL=4;
+
+	private ConcurrencyLimit limit;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		limit=new ConcurrencyLimit(INITIAL);
+	}
+
+	public void testInvalidInitialWindow() {
+		try {
+			new ConcurrencyLimit(0);
+			fail("Accepted an empty window");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testSlowStart() {
+		assertEquals(INITIAL, limit.getLimit());
+		// Each answer grows the window by one, doubling it each round trip.
+		answer(INITIAL);
+		assertEquals(INITIAL * 2, limit.getLimit());
+		answer(INITIAL * 2);
+		assertEquals(INITIAL * 4, limit.getLimit());
+	}
+
+	public void testTimeoutHalvesWindow() {
+		answer(60);
+		assertEquals(64, limit.getLimit());
+		limit.timedOut();
+		assertEquals(32, limit.getLimit());
+		// Further timeouts from the same window don't shrink it again.
+		limit.timedOut();
+		assertEquals(32, limit.getLimit());
+	}
+
+	public void testAdditiveIncreaseAfterTimeout() {
+		answer(60);
+		limit.timedOut();
+		// Past the threshold it takes a window of answers to grow by one.
+		answer(31);
+		assertEquals(32, limit.getLimit());
+		answer(2);
+		assertEquals(33, limit.getLimit());
+		// A window later a timeout shrinks it again.
+		limit.timedOut();
+		assertEquals(16, limit.getLimit());
+	}
+
+	public void testNeverBelowInitial() {
+		for(int i=0; i<10; i++) {
+			limit.timedOut();
+			answer(100);
+			limit.timedOut();
+		}
+		assertTrue(limit.getLimit() >= INITIAL);
+	}
+
+	public void testResetStartsSlow() {
+		answer(60);
+		limit.reset();
+		assertEquals(INITIAL, limit.getLimit());
+		// Slow start ends at half the window the connection had reached.
+		answer(28);
+		assertEquals(32, limit.getLimit());
+		answer(33);
+		assertEquals(33, limit.getLimit());
+	}
+
+	public void testFirstConnectionStartsSlow() {
+		limit.reset();
+		answer(60);
+		assertEquals(64, limit.getLimit());
+	}
+
+	public void testOnlySentOperationsShrinkWindow() throws Exception {
+		SocketChannel ch=SocketChannel.open();
+		try {
+			TCPMemcachedNodeImpl node=new AsciiMemcachedNodeImpl(
+				new InetSocketAddress("127.0.0.1", 11211), ch, 1024,
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(),
+				new LinkedBlockingQueue<Operation>(), 100L, limit,
+				new ByteBudget(Long.MAX_VALUE, null),
+				new ByteBudget(Long.MAX_VALUE, null), null);
+			answer(60);
+			Operation op=new AsciiOperationFactory().get("k", null);
+			op.setHandlingNode(node);
+			op.initialize();
+			// Still waiting to be written, maybe held back by the limit.
+			MemcachedConnection.opTimedOut(op);
+			assertEquals(64, limit.getLimit());
+			op.writeComplete();
+			MemcachedConnection.opTimedOut(op);
+			assertEquals(32, limit.getLimit());
+		} finally {
+			ch.close();
+		}
+	}
+
+	private void answer(int n) {
+		for(int i=0; i<n; i++) {
+			limit.answered();
+		}
+	}
+}
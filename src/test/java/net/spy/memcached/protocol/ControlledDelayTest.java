@@ -0,0 +1,82 @@
+package net.spy.memcached.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test shedding operations that waited too long.
+ */
+public class ControlledDelayTest extends TestCase {
+
+	private static final long TARGET=ms(5);
+	private static final long INTERVAL=ms(100);
+
+	private ControlledDelay codel;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		codel=new ControlledDelay(5, 100);
+	}
+
+	private static long ms(long m) {
+		return TimeUnit.MILLISECONDS.toNanos(m);
+	}
+
+	public void testInvalidSettings() {
+		try {
+			new ControlledDelay(0, 100);
+			fail("Accepted a zero target");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+
+	public void testShortDelaysNeverDropped() {
+		for(long now=0; now < ms(1000); now += ms(1)) {
+			assertFalse(codel.shouldDrop(TARGET - 1, now));
+		}
+	}
+
+	public void testBurstTolerated() {
+		long now=ms(1000);
+		// Above target for less than an interval.
+		for(long t=now; t < now + INTERVAL; t += ms(1)) {
+			assertFalse(codel.shouldDrop(ms(50), t));
+		}
+		assertFalse(codel.shouldDrop(0, now + INTERVAL));
+		assertFalse(codel.shouldDrop(ms(50), now + INTERVAL + ms(1)));
+		assertFalse(codel.isDropping());
+	}
+
+	public void testPersistentDelayDropped() {
+		long now=ms(1000);
+		assertFalse(codel.shouldDrop(ms(50), now));
+		assertTrue(codel.shouldDrop(ms(50), now + INTERVAL));
+		assertTrue(codel.isDropping());
+		// Not again until the next drop is due.
+		assertFalse(codel.shouldDrop(ms(50), now + INTERVAL + ms(1)));
+		assertTrue(codel.shouldDrop(ms(50), now + INTERVAL * 2));
+		// An operation through within the target ends dropping.
+		assertFalse(codel.shouldDrop(0, now + INTERVAL * 2 + ms(1)));
+		assertFalse(codel.isDropping());
+	}
+
+	public void testDropsAccelerate() {
+		long now=ms(1000);
+		codel.shouldDrop(ms(50), now);
+		int drops=0;
+		int firstHalf=0;
+		for(long t=now + INTERVAL; t < now + INTERVAL * 11; t += ms(1)) {
+			if(codel.shouldDrop(ms(50), t)) {
+				drops++;
+				if(t < now + INTERVAL * 6) {
+					firstHalf++;
+				}
+			}
+		}
+		assertTrue("Too few drops: " + drops, drops > 10);
+		assertTrue("Drops didn't accelerate", drops - firstHalf > firstHalf);
+	}
+}
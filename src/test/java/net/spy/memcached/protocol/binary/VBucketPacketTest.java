@@ -0,0 +1,104 @@
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test that merged multi-key operations carry each key's vbucket.
+ */
+public class VBucketPacketTest extends TestCase {
+
+	private final GetOperation.Callback getCallback=
+		new GetOperation.Callback() {
+			public void gotData(String key, int flags, byte[] data) {
+				// noop
+			}
+			public void receivedStatus(OperationStatus status) {
+				// noop
+			}
+			public void complete() {
+				// noop
+			}
+		};
+
+	// Walk the request packets in a buffer and map each key to its vbucket.
+	private Map<String, Integer> getVBuckets(ByteBuffer bb) {
+		Map<String, Integer> rv=new HashMap<String, Integer>();
+		while(bb.hasRemaining()) {
+			assertEquals(OperationImpl.REQ_MAGIC, bb.get());
+			bb.get(); // cmd
+			int keylen=bb.getShort();
+			int extralen=bb.get();
+			bb.get(); // data type
+			int vbucket=bb.getShort();
+			int bodylen=bb.getInt();
+			bb.getInt(); // opaque
+			bb.getLong(); // cas
+			byte[] body=new byte[bodylen];
+			bb.get(body);
+			if(keylen > 0) {
+				rv.put(new String(body, extralen, keylen), vbucket);
+			}
+		}
+		return rv;
+	}
+
+	public void testMultiGet() {
+		MultiGetOperationImpl op=new MultiGetOperationImpl(
+			Arrays.asList("a", "b", "c"), getCallback);
+		op.setVBucket("a", 1);
+		op.setVBucket("b", 513);
+		op.setVBucket("c", 1023);
+		op.initialize();
+		Map<String, Integer> vbs=getVBuckets(op.getBuffer());
+		assertEquals(3, vbs.size());
+		assertEquals(1, (int)vbs.get("a"));
+		assertEquals(513, (int)vbs.get("b"));
+		assertEquals(1023, (int)vbs.get("c"));
+	}
+
+	public void testOptimizedGet() {
+		GetOperationImpl g1=new GetOperationImpl("a", getCallback);
+		g1.setVBucket("a", 7);
+		GetOperationImpl g2=new GetOperationImpl("b", getCallback);
+		g2.setVBucket("b", 8);
+		OptimizedGetImpl op=new OptimizedGetImpl(g1);
+		op.addOperation(g2);
+		op.initialize();
+		Map<String, Integer> vbs=getVBuckets(op.getBuffer());
+		assertEquals(7, (int)vbs.get("a"));
+		assertEquals(8, (int)vbs.get("b"));
+	}
+
+	public void testReplicaGet() {
+		ReplicaGetOperationImpl op=new ReplicaGetOperationImpl("a",
+			getCallback);
+		op.setVBucket("a", 42);
+		op.initialize();
+		ByteBuffer bb=op.getBuffer();
+		assertEquals(ReplicaGetOperationImpl.CMD, bb.get(1) & 0xff);
+		assertEquals(42, (int)getVBuckets(bb).get("a"));
+	}
+
+	public void testOptimizedSet() {
+		StoreOperationImpl s1=new StoreOperationImpl(StoreType.set, "a", 0, 0,
+			new byte[]{1, 2}, 0, null);
+		s1.setVBucket("a", 3);
+		StoreOperationImpl s2=new StoreOperationImpl(StoreType.set, "b", 0, 0,
+			new byte[]{3}, 0, null);
+		s2.setVBucket("b", 4);
+		OptimizedSetImpl op=new OptimizedSetImpl(s1);
+		op.addOperation(s2);
+		op.initialize();
+		Map<String, Integer> vbs=getVBuckets(op.getBuffer());
+		assertEquals(3, (int)vbs.get("a"));
+		assertEquals(4, (int)vbs.get("b"));
+	}
+}
@@ -0,0 +1,68 @@
+package net.spy.memcached.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the latency tracker.
+ */
+public class LatencyTrackerTest extends TestCase {
+
+	public void testEmpty() {
+		LatencyTracker lt=new LatencyTracker();
+		assertEquals(0, lt.getSampleCount());
+		assertEquals(-1, lt.getPercentile(0.99));
+	}
+
+	public void testBuckets() {
+		long prevUpper=-1;
+		for(int b=0; b<127; b++) {
+			long upper=LatencyTracker.getUpperBound(b);
+			assertTrue(upper > prevUpper);
+			assertEquals(b, LatencyTracker.getBucket(prevUpper + 1));
+			assertEquals(b, LatencyTracker.getBucket(upper));
+			prevUpper=upper;
+		}
+		assertEquals(127, LatencyTracker.getBucket(Long.MAX_VALUE));
+	}
+
+	public void testPercentile() {
+		LatencyTracker lt=new LatencyTracker(100000);
+		for(int i=1; i<=1000; i++) {
+			lt.record(i);
+		}
+		assertEquals(1000, lt.getSampleCount());
+		long p50=lt.getPercentile(0.5);
+		assertTrue("p50 was " + p50, p50 >= 500 && p50 < 500 * 1.25);
+		long p99=lt.getPercentile(0.99);
+		assertTrue("p99 was " + p99, p99 >= 990 && p99 < 990 * 1.25);
+		assertEquals(LatencyTracker.getUpperBound(LatencyTracker.getBucket(1)),
+			lt.getPercentile(0));
+	}
+
+	public void testDecay() {
+		LatencyTracker lt=new LatencyTracker(100);
+		for(int i=0; i<1000; i++) {
+			lt.record(100000);
+		}
+		// Old samples fade away as new ones arrive.
+		for(int i=0; i<1000; i++) {
+			lt.record(10);
+		}
+		assertTrue(lt.getPercentile(0.99) < 100);
+	}
+
+	public void testInvalid() {
+		try {
+			new LatencyTracker(0);
+			fail("Allowed a zero decay interval");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+		try {
+			new LatencyTracker().getPercentile(1.5);
+			fail("Allowed a percentile above 1");
+		} catch(IllegalArgumentException e) {
+			// pass
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package net.spy.memcached.vbucket;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.spy.memcached.vbucket.config.Bucket;
+
+/**
+ * Test the local bucket configuration cache.
+ */
+public class BucketConfigurationCacheTest extends TestCase {
+
+    private File file;
+    private BucketConfigurationCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("bucket", ".json");
+        file.delete();
+        cache = new BucketConfigurationCache(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testMissing() throws Exception {
+        assertNull(cache.read());
+    }
+
+    public void testReadWrite() throws Exception {
+        cache.write(BUCKET);
+        assertEquals(BUCKET, cache.read());
+        cache.write("{}");
+        assertEquals("{}", cache.read());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    public void testProvider() throws Exception {
+        ConfigurationProviderHTTP provider = new ConfigurationProviderHTTP(
+                Arrays.asList(new URI("http://localhost:8080/pools")));
+        assertNull(provider.getCachedBucketConfiguration("default"));
+        provider.setConfigurationCache(cache);
+        assertNull(provider.getCachedBucketConfiguration("default"));
+
+        cache.write(BUCKET);
+        Bucket bucket = provider.getCachedBucketConfiguration("default");
+        assertNotNull(bucket);
+        assertEquals("default", bucket.getName());
+        assertEquals(Arrays.asList("127.0.0.1:11210"), bucket.getVbuckets().getServers());
+        assertNull(provider.getCachedBucketConfiguration("other"));
+
+        cache.write("not json");
+        assertNull(provider.getCachedBucketConfiguration("default"));
+    }
+
+    private static final String BUCKET = "{\"name\":\"default\",\"uri\":\"/pools/default/buckets/default\"," +
+            "\"streamingUri\":\"/pools/default/bucketsStreaming/default\",\"nodes\":[{" +
+            "\"status\":\"healthy\",\"hostname\":\"127.0.0.1:8080\"," +
+            "\"ports\":{\"proxy\":11211,\"direct\":11210}}]," +
+            "\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",\"numReplicas\":0," +
+            "\"serverList\":[\"127.0.0.1:11210\"],\"vBucketMap\":[[0],[0]]}}";
+}
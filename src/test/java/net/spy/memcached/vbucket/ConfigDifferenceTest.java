@@ -0,0 +1,67 @@
+package net.spy.memcached.vbucket;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.northscale.jvbucket.Config;
+import com.northscale.jvbucket.DefaultConfigFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the vbucket configuration diff.
+ */
+public class ConfigDifferenceTest extends TestCase {
+
+    private Config config(String servers, String map) {
+        return new DefaultConfigFactory().createConfigFromString(
+            "{\"hashAlgorithm\": \"CRC\", \"numReplicas\": 1,"
+                + " \"serverList\": [" + servers + "],"
+                + " \"vBucketMap\": [" + map + "]}");
+    }
+
+    public void testUnchanged() {
+        Config a = config("\"h1:11211\", \"h2:11211\"", "[0, 1], [1, 0]");
+        Config b = config("\"h1:11211\", \"h2:11211\"", "[0, 1], [1, 0]");
+        assertTrue(ConfigDifference.compare(a, b).isEmpty());
+    }
+
+    public void testReorderedServers() {
+        Config a = config("\"h1:11211\", \"h2:11211\"", "[0, 1], [1, 0]");
+        Config b = config("\"h2:11211\", \"h1:11211\"", "[1, 0], [0, 1]");
+        assertTrue(ConfigDifference.compare(a, b).isEmpty());
+    }
+
+    public void testMoved() {
+        Config a = config("\"h1:11211\", \"h2:11211\"",
+            "[0, 1], [1, 0], [0, 1]");
+        Config b = config("\"h1:11211\", \"h2:11211\", \"h3:11211\"",
+            "[0, 1], [2, 0], [0, 2]");
+        ConfigDifference d = ConfigDifference.compare(a, b);
+        assertFalse(d.isEmpty());
+        assertEquals(Arrays.asList("h3:11211"), d.getServersAdded());
+        assertEquals(Collections.emptyList(), d.getServersRemoved());
+        assertFalse(d.isMoved(0));
+        assertTrue(d.isMoved(1));
+        assertFalse(d.isMoved(2));
+        assertEquals(1, d.getVBucketsMovedCount());
+        assertTrue(d.isReplicasChanged());
+    }
+
+    public void testRemoved() {
+        Config a = config("\"h1:11211\", \"h2:11211\"", "[0, 1], [1, 0]");
+        Config b = config("\"h1:11211\"", "[0, -1], [0, -1]");
+        ConfigDifference d = ConfigDifference.compare(a, b);
+        assertEquals(Arrays.asList("h2:11211"), d.getServersRemoved());
+        assertFalse(d.isMoved(0));
+        assertTrue(d.isMoved(1));
+    }
+
+    public void testResized() {
+        Config a = config("\"h1:11211\"", "[0, -1], [0, -1]");
+        Config b = config("\"h1:11211\"",
+            "[0, -1], [0, -1], [0, -1], [0, -1]");
+        ConfigDifference d = ConfigDifference.compare(a, b);
+        assertEquals(4, d.getVBucketsMovedCount());
+    }
+}
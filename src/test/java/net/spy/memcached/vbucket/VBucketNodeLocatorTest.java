@@ -5,6 +5,7 @@ import com.northscale.jvbucket.Config;
 import com.northscale.jvbucket.ConfigFactory;
 import com.northscale.jvbucket.DefaultConfigFactory;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.MockMemcachedNode;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
@@ -12,6 +13,7 @@ import static org.easymock.EasyMock.verify;
 
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.Iterator;
 
 import junit.framework.TestCase;
 
@@ -61,4 +63,39 @@ public class VBucketNodeLocatorTest extends TestCase {
 
         verify(node1, node2, node3);
     }
+
+    public void testRoutingTable() {
+        MemcachedNode node1 = new MockMemcachedNode(
+            new InetSocketAddress("127.0.0.1", 11211));
+        MemcachedNode node2 = new MockMemcachedNode(
+            new InetSocketAddress("127.0.0.1", 11210));
+        MemcachedNode node3 = new MockMemcachedNode(
+            new InetSocketAddress("127.0.0.1", 11212));
+        // Give the third server its own port.
+        Config config = new DefaultConfigFactory().createConfigFromString(
+            configInEnvelope.replace("\"127.0.0.1:11211\"]",
+                "\"127.0.0.1:11212\"]"));
+
+        VBucketNodeLocator locator = new VBucketNodeLocator(
+            Arrays.asList(node1, node2, node3), config);
+        assertSame(node1, locator.getMaster(0));
+        assertSame(node2, locator.getMaster(1));
+        assertSame(node3, locator.getMaster(2));
+        assertEquals(Arrays.asList(node2, node3),
+            Arrays.asList(locator.getReplicas(0)));
+        assertEquals(Arrays.asList(node2),
+            Arrays.asList(locator.getReplicas(2)));
+
+        for (int i = 0; i < 100; i++) {
+            String key = "key" + i;
+            int vb = locator.getVBucketIndex(key);
+            assertSame(locator.getMaster(vb), locator.getPrimary(key));
+            Iterator<MemcachedNode> seq = locator.getSequence(key);
+            for (MemcachedNode replica : locator.getReplicas(vb)) {
+                assertSame(replica, seq.next());
+            }
+            assertFalse(seq.hasNext());
+        }
+        assertEquals(3, locator.getAll().size());
+    }
 }
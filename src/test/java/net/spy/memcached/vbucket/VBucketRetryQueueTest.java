@@ -0,0 +1,91 @@
+package net.spy.memcached.vbucket;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the NOT_MY_VBUCKET retry queue.
+ */
+public class VBucketRetryQueueTest extends TestCase {
+
+	private final GetOperation.Callback cb=new GetOperation.Callback() {
+		public void gotData(String key, int flags, byte[] data) {
+			// noop
+		}
+		public void receivedStatus(OperationStatus status) {
+			// noop
+		}
+		public void complete() {
+			// noop
+		}
+	};
+
+	private KeyedOperation newOp(String key, int vbucket) {
+		KeyedOperation rv=new BinaryOperationFactory().get(key, cb);
+		rv.setVBucket(key, vbucket);
+		return rv;
+	}
+
+	public void testBackoff() {
+		VBucketRetryQueue q=new VBucketRetryQueue(3, 10);
+		KeyedOperation op=newOp("a", 5);
+		assertEquals(Long.MAX_VALUE, q.getNextRelease());
+		assertTrue(q.park(op, 1000));
+		assertEquals(1010, q.getNextRelease());
+		assertTrue(q.release(1009).isEmpty());
+		Collection<KeyedOperation> released=q.release(1010);
+		assertEquals(1, released.size());
+		assertSame(op, released.iterator().next());
+
+		// The delay doubles with each retry.
+		assertTrue(q.park(op, 2000));
+		assertEquals(2020, q.getNextRelease());
+		assertEquals(1, q.release(2020).size());
+		assertTrue(q.park(op, 3000));
+		assertEquals(3040, q.getNextRelease());
+		assertEquals(1, q.release(3040).size());
+		assertEquals(3, op.getVBucketRetries());
+	}
+
+	public void testRetryLimit() {
+		VBucketRetryQueue q=new VBucketRetryQueue(1, 10);
+		KeyedOperation op=newOp("a", 5);
+		assertTrue(q.park(op, 0));
+		assertEquals(1, q.release(10).size());
+		assertFalse(q.park(op, 20));
+		assertEquals(Long.MAX_VALUE, q.getNextRelease());
+	}
+
+	public void testConfigUpdateReleases() {
+		VBucketRetryQueue q=new VBucketRetryQueue(5, 1000);
+		q.park(newOp("a", 1), 0);
+		q.park(newOp("b", 2), 0);
+		assertTrue(q.release(1).isEmpty());
+		q.configUpdated();
+		assertEquals(2, q.release(1).size());
+		assertEquals(Long.MAX_VALUE, q.getNextRelease());
+	}
+
+	public void testCancelledDropped() {
+		VBucketRetryQueue q=new VBucketRetryQueue(5, 10);
+		KeyedOperation op=newOp("a", 1);
+		q.park(op, 0);
+		op.cancel();
+		assertTrue(q.release(100).isEmpty());
+	}
+
+	public void testCounts() {
+		VBucketRetryQueue q=new VBucketRetryQueue(5, 10);
+		q.park(newOp("a", 1), 0);
+		q.park(newOp("b", 1), 0);
+		q.park(newOp("c", 2), 0);
+		assertEquals(2L, (long)q.getRetryCounts().get(1));
+		assertEquals(1L, (long)q.getRetryCounts().get(2));
+		assertNull(q.getRetryCounts().get(3));
+	}
+}
@@ -0,0 +1,53 @@
+package net.spy.memcached.vbucket.config;
+
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test fingerprinting of streamed bucket configurations.
+ */
+public class ConfigurationFingerprintTest extends TestCase {
+
+    private static String bucket(String status, String memFree, String vbucketMap) {
+        return "{\"name\":\"default\",\"uri\":\"/pools/default/buckets/default\"," +
+                "\"streamingUri\":\"/pools/default/bucketsStreaming/default\",\"nodes\":[{\"uptime\":\"24548\"," +
+                "\"memoryFree\":" + memFree + ",\"status\":\"" + status + "\",\"hostname\":\"127.0.0.1:8080\"," +
+                "\"ports\":{\"proxy\":11211,\"direct\":11210}}]," +
+                "\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",\"numReplicas\":1," +
+                "\"serverList\":[\"127.0.0.1:11210\",\"127.0.0.2:11210\"],\"vBucketMap\":" + vbucketMap + "}," +
+                "\"basicStats\":{\"opsPerSec\":0,\"memUsed\":" + memFree + "}}";
+    }
+
+    public void testStatisticsIgnored() throws Exception {
+        assertEquals(ConfigurationFingerprint.compute(bucket("healthy", "1292242944", "[[0,1],[1,0]]")),
+                ConfigurationFingerprint.compute(bucket("healthy", "1292000000", "[[0,1],[1,0]]")));
+    }
+
+    public void testWhitespaceIgnored() throws Exception {
+        String json = bucket("healthy", "1", "[[0,1],[1,0]]");
+        assertEquals(ConfigurationFingerprint.compute(json),
+                ConfigurationFingerprint.compute("\n " + json.replace(",", " ,\n\t").replace("\":", "\" : ") + " \n"));
+    }
+
+    public void testRoutingChanges() throws Exception {
+        long fp = ConfigurationFingerprint.compute(bucket("healthy", "1", "[[0,1],[1,0]]"));
+        assertFalse(fp == ConfigurationFingerprint.compute(bucket("healthy", "1", "[[1,0],[1,0]]")));
+        assertFalse(fp == ConfigurationFingerprint.compute(bucket("healthy", "1", "[[0,1],[1,0],[0,1]]")));
+        assertFalse(fp == ConfigurationFingerprint.compute(bucket("warmup", "1", "[[0,1],[1,0]]")));
+    }
+
+    public void testMalformed() throws Exception {
+        String json = bucket("healthy", "1", "[[0,1],[1,0]]");
+        String[] bad = {"", "{", json.substring(0, json.length() - 1), json + "}",
+                "{\"name\":}", "{\"name\" \"default\"}", "{\"name\":\"default}"};
+        for (String s : bad) {
+            try {
+                ConfigurationFingerprint.compute(s);
+                fail("Accepted " + s);
+            } catch (ParseException e) {
+                // pass
+            }
+        }
+    }
+}